@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+
+import javax.inject.Singleton;
+import java.util.Arrays;
+
+/**
+ * {@link ConsumeClientProvider} used by the controller benchmarks, enabled by the "benchmark" environment.
+ * It provides a {@link CircuitBreakerConsumeClient} over two in-memory stand-in levels returning {@link #MESSAGES} messages of benchmark.message-bytes bytes,
+ * so the request path is measured without any broker.
+ */
+@Singleton
+@Replaces(ConsumeClientProvider.class)
+@Requires(env = "benchmark")
+public class BenchmarkConsumeClientProvider extends ConsumeClientProvider {
+
+    public static final int MESSAGES = 100;
+
+    private final int messageBytes;
+
+    public BenchmarkConsumeClientProvider(@Value("${benchmark.message-bytes:100}") final int messageBytes) {
+        this.messageBytes = messageBytes;
+    }
+
+    @Override
+    protected ConsumeClient createClient() {
+        char[] message = new char[messageBytes];
+        Arrays.fill(message, 'm');
+        return new CircuitBreakerConsumeClient(Arrays.asList(
+                new StandInConsumeClient(MESSAGES, new String(message)),
+                new StandInConsumeClient(MESSAGES, new String(message))));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link CircuitBreakerConsumeClient} over calling an adapter directly, from 1 to 64 concurrent request threads.
+ * The adapters are in-memory stand-ins that return immediately, so the results only include the failover bookkeeping.
+ * The openPrimary benchmarks run with a failing primary level, whose circuit is open, so every request is served by the second level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitBreakerConsumeClientBenchmark {
+
+    private static final String TOPIC = "benchmark";
+
+    private ConsumeClient adapter;
+    private CircuitBreakerConsumeClient circuitBreaker;
+    private CircuitBreakerConsumeClient openPrimary;
+
+    @Setup
+    public void setUp() {
+        adapter = new StandInConsumeClient(10, "message");
+        circuitBreaker = new CircuitBreakerConsumeClient(Arrays.asList(new StandInConsumeClient(10, "message"), new StandInConsumeClient(10, "message")));
+        openPrimary = new CircuitBreakerConsumeClient(Arrays.asList(new FailingConsumeClient(), new StandInConsumeClient(10, "message")));
+        for (int i = 0; i < 100; i++) {
+            try {
+                openPrimary.consume(TOPIC);
+            } catch (ConsumeException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        circuitBreaker.close();
+        openPrimary.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> adapterThreads1() throws ConsumeException {
+        return adapter.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<String> adapterThreads8() throws ConsumeException {
+        return adapter.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public List<String> adapterThreads64() throws ConsumeException {
+        return adapter.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> circuitBreakerThreads1() throws ConsumeException {
+        return circuitBreaker.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<String> circuitBreakerThreads8() throws ConsumeException {
+        return circuitBreaker.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public List<String> circuitBreakerThreads64() throws ConsumeException {
+        return circuitBreaker.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> openPrimaryThreads1() throws ConsumeException {
+        return openPrimary.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<String> openPrimaryThreads8() throws ConsumeException {
+        return openPrimary.consume(TOPIC);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public List<String> openPrimaryThreads64() throws ConsumeException {
+        return openPrimary.consume(TOPIC);
+    }
+
+    private static final class FailingConsumeClient extends StandInConsumeClient {
+
+        private FailingConsumeClient() {
+            super(0, "");
+        }
+
+        @Override
+        public List<String> consume(final String topic) throws ConsumeException {
+            throw new ConsumeException("Stand-in failure");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.lettuce.core.RedisURI;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each {@link ConsumeClient} adapter against in-process stand-ins of its backing service:
+ * Kafka runs on {@link StandInKafkaConsumer}, Pulsar on {@link StandInPulsarConsumer}, and Redis on the real Lettuce client connected to a loopback {@link RespServer}.
+ * Every call returns {@link #BATCH_SIZE} messages, except Kafka calls, that return the records prefetched by the poller thread so far.
+ * The results include the adapter work, such as deserialization and decoding, but not the broker.
+ * The {@link MemoryConsumeClient} has no backing service at all, so it is the ceiling of the other adapters. Its calls also add the batch they consume to the memory topic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumeAdapterBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"100", "10000"})
+    public int messageBytes;
+
+    private RespServer respServer;
+    private ConsumeClient kafka;
+    private ConsumeClient redis;
+    private ConsumeClient pulsar;
+    private MemoryTopics memoryTopics;
+    private ConsumeClient memory;
+    private byte[] message;
+
+    @Setup
+    public void setUp() throws IOException {
+        message = new byte[messageBytes];
+        Arrays.fill(message, (byte) 'm');
+        respServer = new RespServer(BATCH_SIZE, message);
+        kafka = new KafkaConsumeClient(topic -> new StandInKafkaConsumer(BATCH_SIZE, message));
+        redis = new RedisConsumeClient(RedisURI.Builder.redis("127.0.0.1").withPort(respServer.getPort()).build());
+        pulsar = new PulsarConsumeClient(topic -> CompletableFuture.completedFuture(StandInPulsarConsumer.create(topic, BATCH_SIZE, message)));
+        memoryTopics = new MemoryTopics(BATCH_SIZE, MemoryTopics.Overflow.DROP_OLDEST, 1);
+        memory = new MemoryConsumeClient(memoryTopics);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        kafka.close();
+        redis.close();
+        pulsar.close();
+        memory.close();
+        respServer.close();
+    }
+
+    @Benchmark
+    public List<String> kafkaConsume() throws ConsumeException {
+        return kafka.consume(TOPIC);
+    }
+
+    @Benchmark
+    public List<byte[]> kafkaConsumeBytes() throws ConsumeException {
+        return kafka.consumeBytes(TOPIC);
+    }
+
+    @Benchmark
+    public List<String> redisConsume() throws ConsumeException {
+        return redis.consume(TOPIC);
+    }
+
+    @Benchmark
+    public List<byte[]> redisConsumeBytes() throws ConsumeException {
+        return redis.consumeBytes(TOPIC);
+    }
+
+    @Benchmark
+    public List<String> pulsarConsume() throws ConsumeException {
+        return pulsar.consume(TOPIC);
+    }
+
+    @Benchmark
+    public List<byte[]> pulsarConsumeBytes() throws ConsumeException {
+        return pulsar.consumeBytes(TOPIC);
+    }
+
+    @Benchmark
+    public List<String> memoryConsume() throws ConsumeException {
+        fillMemoryTopic();
+        return memory.consume(TOPIC);
+    }
+
+    @Benchmark
+    public List<byte[]> memoryConsumeBytes() throws ConsumeException {
+        fillMemoryTopic();
+        return memory.consumeBytes(TOPIC);
+    }
+
+    private void fillMemoryTopic() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            memoryTopics.offer(TOPIC, message);
+        }
+    }
+}
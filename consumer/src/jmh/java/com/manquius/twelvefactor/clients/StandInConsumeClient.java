@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory stand-in for a backing service adapter used on benchmarks. It returns the same messages on every call, so only the caller overhead is measured.
+ */
+class StandInConsumeClient implements ConsumeClient {
+
+    private final List<String> messages;
+    private final List<byte[]> binaryMessages;
+
+    StandInConsumeClient(final int count, final String message) {
+        List<String> text = new ArrayList<>(count);
+        List<byte[]> binary = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            text.add(message);
+            binary.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        messages = Collections.unmodifiableList(text);
+        binaryMessages = Collections.unmodifiableList(binary);
+    }
+
+    @Override
+    public List<String> consume(final String topic) throws ConsumeException {
+        return messages;
+    }
+
+    @Override
+    public List<byte[]> consumeBytes(final String topic) throws ConsumeException {
+        return binaryMessages;
+    }
+
+    @Override
+    public List<String> consume(final String topic, final ConsumeOptions options) throws ConsumeException {
+        return messages;
+    }
+
+    @Override
+    public List<byte[]> consumeBytes(final String topic, final ConsumeOptions options) throws ConsumeException {
+        return binaryMessages;
+    }
+
+    @Override
+    public void close() {
+    }
+}
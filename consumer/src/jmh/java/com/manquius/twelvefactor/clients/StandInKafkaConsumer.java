@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * In-process stand-in for a Kafka consumer used on benchmarks.
+ * It is a {@link MockConsumer} that is assigned a single partition on subscription, and receives a fixed number of new records before every poll while the partition is not paused.
+ */
+class StandInKafkaConsumer extends MockConsumer<String, byte[]> {
+
+    private final int records;
+    private final byte[] value;
+    private TopicPartition partition;
+    private long offset;
+
+    StandInKafkaConsumer(final int records, final byte[] value) {
+        super(OffsetResetStrategy.EARLIEST);
+        this.records = records;
+        this.value = value;
+    }
+
+    @Override
+    public synchronized void subscribe(final Collection<String> topics) {
+        super.subscribe(topics);
+        partition = new TopicPartition(topics.iterator().next(), 0);
+        rebalance(Collections.singletonList(partition));
+        updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+    }
+
+    @Override
+    public synchronized ConsumerRecords<String, byte[]> poll(final Duration timeout) {
+        for (int i = 0; i < records && !paused().contains(partition); i++) {
+            addRecord(new ConsumerRecord<>(partition.topic(), partition.partition(), offset++, null, value));
+        }
+        return super.poll(timeout);
+    }
+}
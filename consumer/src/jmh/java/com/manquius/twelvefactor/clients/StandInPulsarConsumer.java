@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-ins of the Pulsar consumer API used on benchmarks.
+ * The Pulsar {@link Consumer} and {@link Message} interfaces are large, so they are implemented with dynamic proxies that only answer the calls made by the adapters.
+ * The receives return a fixed number of messages and then no message, so every consume gets a batch of that size, and acknowledgements and closes complete immediately.
+ */
+final class StandInPulsarConsumer {
+
+    private StandInPulsarConsumer() {
+    }
+
+    /**
+     * Creates a stand-in {@link Consumer} of a topic.
+     * @param topic subscribed topic.
+     * @param messages number of messages received before each empty receive.
+     * @param value of every message.
+     */
+    @SuppressWarnings("unchecked")
+    static Consumer<byte[]> create(final String topic, final int messages, final byte[] value) {
+        Message<byte[]> message = message(topic, value);
+        AtomicInteger received = new AtomicInteger();
+        return (Consumer<byte[]>) Proxy.newProxyInstance(StandInPulsarConsumer.class.getClassLoader(), new Class<?>[]{Consumer.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getTopic":
+                    return topic;
+                case "getSubscription":
+                    return "12factor";
+                case "receive":
+                    return received.getAndIncrement() % (messages + 1) < messages ? message : null;
+                case "acknowledge":
+                case "acknowledgeCumulative":
+                case "close":
+                    return null;
+                case "acknowledgeAsync":
+                case "acknowledgeCumulativeAsync":
+                case "closeAsync":
+                    return CompletableFuture.completedFuture(null);
+                case "isConnected":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StandInPulsarConsumer(" + topic + ")";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message<byte[]> message(final String topic, final byte[] value) {
+        return (Message<byte[]>) Proxy.newProxyInstance(StandInPulsarConsumer.class.getClassLoader(), new Class<?>[]{Message.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getValue":
+                case "getData":
+                    return value;
+                case "getTopicName":
+                    return topic;
+                case "getMessageId":
+                    return MessageId.latest;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StandInPulsarMessage(" + topic + ")";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
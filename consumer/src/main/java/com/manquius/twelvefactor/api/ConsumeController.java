@@ -10,59 +10,222 @@
 
 package com.manquius.twelvefactor.api;
 
+import com.manquius.twelvefactor.clients.BackendHealth;
+import com.manquius.twelvefactor.clients.ClientCreationException;
+import com.manquius.twelvefactor.clients.ClientMetrics;
 import com.manquius.twelvefactor.clients.ConsumeClientProvider;
 import com.manquius.twelvefactor.clients.ConsumeClient;
+import com.manquius.twelvefactor.clients.ConsumeOptions;
+import com.manquius.twelvefactor.clients.CursorPage;
+import com.manquius.twelvefactor.clients.EnvironmentVariables;
+import com.manquius.twelvefactor.clients.StageLatencies;
 import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
 import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
 import io.micronaut.http.annotation.PathVariable;
 import io.micronaut.http.annotation.Produces;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.http.sse.Event;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ConsumeController is the main controller in Consume Service. It allows to consume from a topic in the backing service.
+ * Requests are timed by the twelvefactor.consume.requests timer of the client, and the ones waiting for the backing service are reported by the twelvefactor.consume.inflight gauge.
+ * The client lookup, the decoding of read messages and the writing of the response bodies are recorded as {@link StageLatencies} stages.
  */
 @Controller("/topic")
 class ConsumeController {
 
     private final ConsumeClientProvider provider;
+    private final long maxWaitMillis = EnvironmentVariables.getLong("CONSUME_MAX_WAIT_MS", 30000);
+    private final int chunkBytes = EnvironmentVariables.getInt("CONSUME_RESPONSE_CHUNK_BYTES", 16384);
+    private final Map<String, ClientMetrics.Timers> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = ClientMetrics.gauge(BackendHealth.IN_FLIGHT_GAUGE);
 
     private static final Logger LOG = LoggerFactory.getLogger(ConsumeController.class);
 
     /**
-     * Main public constructor, using on production.
+     * Main public constructor.
+     * @param provider singleton {@link ConsumeClientProvider} that shares the backing service clients among all the requests.
      */
-    public ConsumeController() {
-        this.provider = new ConsumeClientProvider();
-    }
-
-    /**
-     * Protected constructor for testing purposes.
-     * @param provider
-     */
-    protected ConsumeController(ConsumeClientProvider provider) {
+    public ConsumeController(ConsumeClientProvider provider) {
         this.provider = provider;
     }
 
     /**
      * Main /topic method, allows the user to consume from backing service.
+     * It returns as soon as there are messages, or an empty list once the wait expires, so clients do not need to spin on empty responses.
+     * The consumed messages are written straight from their bytes into a chunked JSON array of CONSUME_RESPONSE_CHUNK_BYTES (default 16384) chunks,
+     * so a response never holds a decoded copy of the batch.
      * @param topic where the message will be produced.
+     * @param maxRecords max number of messages returned. Default 500.
+     * @param maxBytes max size of the messages returned, that can be exceeded by the last message. Default 1048576.
+     * @param waitMs max time to wait for the first message, limited by CONSUME_MAX_WAIT_MS (default 30000). Default 0.
      * @return 200 list of String messages in json format consumed from the topic, or 500 Internal Server Error
      */
-    @Get("/{topic}")
+    @Get("/{topic}{?maxRecords,maxBytes,waitMs}")
     @Produces(MediaType.APPLICATION_JSON)
-    HttpResponse<List<String>> consume(@PathVariable String topic) {
-        try (ConsumeClient client = provider.getClient()) {
-            List<String>records = client.consume(topic);
-            return HttpResponse.ok(records);
+    Flowable<ByteBuf> consume(@PathVariable String topic,
+                              @QueryValue(defaultValue = "500") int maxRecords,
+                              @QueryValue(defaultValue = "1048576") long maxBytes,
+                              @QueryValue(defaultValue = "0") long waitMs) {
+        ConsumeOptions options = options(maxRecords, maxBytes, waitMs);
+        return Flowable.fromCallable(() -> measure(client(), "consume", topic, client -> client.consumeBytes(topic, options)))
+                .subscribeOn(Schedulers.io())
+                .doOnError(e -> LOG.error("Error consuming.", e))
+                .concatMap(records -> JsonArrayChunks.of(records, PooledByteBufAllocator.DEFAULT, chunkBytes));
+    }
+
+    /**
+     * /topic/{topic}/bytes method, allows the user to consume binary messages from backing service.
+     * Each message is written as a 4 bytes big-endian length followed by the message bytes. The messages are wrapped, not copied, into the response buffer.
+     * It accepts the same limits as {@link #consume(String, int, long, long)}.
+     * @param topic where the message will be produced.
+     * @param maxRecords max number of messages returned. Default 500.
+     * @param maxBytes max size of the messages returned, that can be exceeded by the last message. Default 1048576.
+     * @param waitMs max time to wait for the first message, limited by CONSUME_MAX_WAIT_MS (default 30000). Default 0.
+     * @return 200 length prefixed binary messages consumed from the topic, or 500 Internal Server Error
+     */
+    @Get("/{topic}/bytes{?maxRecords,maxBytes,waitMs}")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    HttpResponse<ByteBuf> consumeBytes(@PathVariable String topic,
+                                       @QueryValue(defaultValue = "500") int maxRecords,
+                                       @QueryValue(defaultValue = "1048576") long maxBytes,
+                                       @QueryValue(defaultValue = "0") long waitMs) {
+        try {
+            ConsumeClient client = client();
+            ConsumeOptions options = options(maxRecords, maxBytes, waitMs);
+            List<byte[]> records = measure(client, "bytes", topic, c -> c.consumeBytes(topic, options));
+            long started = System.nanoTime();
+            byte[][] frames = new byte[records.size() * 2][];
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                frames[i * 2] = ByteBuffer.allocate(Integer.BYTES).putInt(record.length).array();
+                frames[i * 2 + 1] = record;
+            }
+            ByteBuf body = Unpooled.wrappedBuffer(frames);
+            StageLatencies.record(StageLatencies.Stage.SERIALIZATION, started);
+            return HttpResponse.ok(body);
         } catch (Exception e) {
             LOG.error("Error consuming.", e);
             return HttpResponse.serverError();
         }
     }
 
+    /**
+     * /topic/{topic}/read method, allows the user to read from backing service by position, without consuming the messages.
+     * The service keeps no state between reads: the response cursor is passed back on the next read, so it can be served by any replica, and a cursor can be read again to replay its messages.
+     * It accepts the same limits as {@link #consume(String, int, long, long)}.
+     * @param topic where the messages will be read from.
+     * @param cursor returned by the previous read. Reads from the beginning of the topic if it is not set.
+     * @param maxRecords max number of messages returned. Default 500.
+     * @param maxBytes max size of the messages returned, that can be exceeded by the last message. Default 1048576.
+     * @param waitMs max time to wait for the first message, limited by CONSUME_MAX_WAIT_MS (default 30000). Default 0.
+     * @return 200 messages and next cursor in json format, 400 Bad Request if the cursor is not valid, 501 Not Implemented if the backing service cannot be read by position, or 500 Internal Server Error
+     */
+    @Get("/{topic}/read{?cursor,maxRecords,maxBytes,waitMs}")
+    @Produces(MediaType.APPLICATION_JSON)
+    HttpResponse<CursorPage<String>> read(@PathVariable String topic,
+                                          @QueryValue(defaultValue = "") String cursor,
+                                          @QueryValue(defaultValue = "500") int maxRecords,
+                                          @QueryValue(defaultValue = "1048576") long maxBytes,
+                                          @QueryValue(defaultValue = "0") long waitMs) {
+        try {
+            ConsumeClient client = client();
+            ConsumeOptions options = options(maxRecords, maxBytes, waitMs);
+            CursorPage<byte[]> page = measure(client, "read", topic, c -> c.read(topic, cursor, options));
+            long started = System.nanoTime();
+            CursorPage<String> decoded = page.map(message -> new String(message, StandardCharsets.UTF_8));
+            StageLatencies.record(StageLatencies.Stage.DECODE, started);
+            return HttpResponse.ok(decoded);
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Invalid cursor.", e);
+            return HttpResponse.badRequest();
+        } catch (UnsupportedOperationException e) {
+            LOG.warn(e.getMessage());
+            return HttpResponse.status(HttpStatus.NOT_IMPLEMENTED);
+        } catch (Exception e) {
+            LOG.error("Error reading.", e);
+            return HttpResponse.serverError();
+        }
+    }
+
+    /**
+     * @return the shared client of the provider, recording the lookup.
+     */
+    private ConsumeClient client() throws ClientCreationException {
+        long started = System.nanoTime();
+        try {
+            return provider.getClient();
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.PROVIDER, started);
+        }
+    }
+
+    /**
+     * Runs an operation on the client, timing it and counting it as in flight until it returns.
+     */
+    private <T> T measure(final ConsumeClient client, final String operation, final String topic, final ClientCall<T> call) throws Exception {
+        ClientMetrics.Timers timers = requests.computeIfAbsent(client.getClass().getSimpleName() + '/' + operation,
+                key -> ClientMetrics.timers("twelvefactor.consume.requests", "client", client.getClass().getSimpleName(), "operation", operation));
+        long started = System.nanoTime();
+        inFlight.incrementAndGet();
+        boolean success = false;
+        try {
+            T result = call.call(client);
+            success = true;
+            return result;
+        } finally {
+            inFlight.decrementAndGet();
+            timers.record(topic, started, success);
+        }
+    }
+
+    /**
+     * Operation on the {@link ConsumeClient}.
+     */
+    private interface ClientCall<T> {
+        T call(ConsumeClient client) throws Exception;
+    }
+
+    private ConsumeOptions options(final int maxRecords, final long maxBytes, final long waitMs) {
+        return new ConsumeOptions(maxRecords, maxBytes, Math.min(waitMs, maxWaitMillis));
+    }
+
+    /**
+     * /topic/{topic}/stream method, allows the user to keep consuming from backing service as Server-Sent Events.
+     * Each connection has its own subscription that lives until the connection is closed. Messages are only consumed when the connection can
+     * accept them, so slow clients do not make the service buffer the topic in memory.
+     * @param topic where the messages will be consumed from.
+     * @return 200 event stream with one event per message consumed from the topic, or an error if the backing service fails.
+     */
+    @Get("/{topic}/stream")
+    @Produces(MediaType.TEXT_EVENT_STREAM)
+    Flowable<Event<String>> stream(@PathVariable String topic) {
+        try {
+            ConsumeClient client = client();
+            return client.stream(topic)
+                    .doOnError(e -> LOG.error("Error streaming.", e))
+                    .map(Event::of);
+        } catch (Exception e) {
+            LOG.error("Error consuming.", e);
+            return Flowable.error(e);
+        }
+    }
+
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.api;
+
+import com.manquius.twelvefactor.clients.StageLatencies;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.reactivex.Flowable;
+
+import java.util.List;
+
+/**
+ * Writes binary messages as a JSON array of strings, in chunks of a fixed size, without decoding them into {@link String} first.
+ * The chunks are written lazily as they are requested, so a response only holds one chunk besides the messages themselves. Every chunk is recorded as a {@link StageLatencies} serialization.
+ * The messages are expected to be UTF-8: the bytes are copied as they are, escaping the JSON special characters, and each byte that does not start a well formed sequence is replaced by U+FFFD.
+ */
+final class JsonArrayChunks {
+
+    /**
+     * Longest output of a single step: a \\u00XX escape.
+     */
+    private static final int MAX_STEP_BYTES = 6;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] REPLACEMENT = {(byte) 0xEF, (byte) 0xBF, (byte) 0xBD};
+
+    private final List<byte[]> messages;
+    private final ByteBufAllocator allocator;
+    private final int chunkBytes;
+    private int message = -1;
+    private int offset;
+    private boolean quoted;
+
+    private JsonArrayChunks(final List<byte[]> messages, final ByteBufAllocator allocator, final int chunkBytes) {
+        this.messages = messages;
+        this.allocator = allocator;
+        this.chunkBytes = Math.max(MAX_STEP_BYTES, chunkBytes);
+    }
+
+    /**
+     * @param messages UTF-8 messages.
+     * @param allocator allocates the chunks, that are released by the response writer.
+     * @param chunkBytes max size of each chunk.
+     * @return {@link Flowable} of the JSON array chunks, that writes each chunk when it is requested.
+     */
+    static Flowable<ByteBuf> of(final List<byte[]> messages, final ByteBufAllocator allocator, final int chunkBytes) {
+        return Flowable.generate(() -> new JsonArrayChunks(messages, allocator, chunkBytes), (chunks, emitter) -> {
+            long started = System.nanoTime();
+            ByteBuf chunk = chunks.next();
+            StageLatencies.record(StageLatencies.Stage.SERIALIZATION, started);
+            if (chunk == null) {
+                emitter.onComplete();
+            } else {
+                emitter.onNext(chunk);
+            }
+        });
+    }
+
+    /**
+     * @return the next chunk, or null if the array is complete.
+     */
+    private ByteBuf next() {
+        if (message > messages.size()) {
+            return null;
+        }
+        ByteBuf chunk = allocator.buffer(chunkBytes, chunkBytes);
+        if (message < 0) {
+            chunk.writeByte('[');
+            message = 0;
+        }
+        while (message < messages.size() && chunk.writableBytes() >= MAX_STEP_BYTES) {
+            byte[] value = messages.get(message);
+            if (!quoted) {
+                if (message > 0) {
+                    chunk.writeByte(',');
+                }
+                chunk.writeByte('"');
+                quoted = true;
+            }
+            while (offset < value.length && chunk.writableBytes() >= MAX_STEP_BYTES) {
+                offset += write(value, offset, chunk);
+            }
+            if (offset == value.length && chunk.writableBytes() >= MAX_STEP_BYTES) {
+                chunk.writeByte('"');
+                message++;
+                offset = 0;
+                quoted = false;
+            }
+        }
+        if (message == messages.size() && chunk.writableBytes() >= 1) {
+            chunk.writeByte(']');
+            message++;
+        }
+        return chunk;
+    }
+
+    /**
+     * Writes the character at the given offset, escaped if needed.
+     * @return number of message bytes consumed.
+     */
+    private static int write(final byte[] value, final int offset, final ByteBuf chunk) {
+        int b = value[offset] & 0xFF;
+        if (b >= 0x80) {
+            int length = sequenceLength(value, offset);
+            if (length == 0) {
+                chunk.writeBytes(REPLACEMENT);
+                return 1;
+            }
+            chunk.writeBytes(value, offset, length);
+            return length;
+        }
+        if (b == '"' || b == '\\') {
+            chunk.writeByte('\\').writeByte(b);
+        } else if (b >= 0x20) {
+            chunk.writeByte(b);
+        } else if (b == '\n') {
+            chunk.writeByte('\\').writeByte('n');
+        } else if (b == '\r') {
+            chunk.writeByte('\\').writeByte('r');
+        } else if (b == '\t') {
+            chunk.writeByte('\\').writeByte('t');
+        } else {
+            chunk.writeByte('\\').writeByte('u').writeByte('0').writeByte('0').writeByte(HEX[b >> 4]).writeByte(HEX[b & 0xF]);
+        }
+        return 1;
+    }
+
+    /**
+     * @return length of the well formed UTF-8 sequence starting at the offset, or 0 if it is not well formed.
+     */
+    private static int sequenceLength(final byte[] value, final int offset) {
+        int lead = value[offset] & 0xFF;
+        int length;
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            if (lead == 0xE0) {
+                min = 0xA0;
+            } else if (lead == 0xED) {
+                max = 0x9F;
+            }
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) {
+                min = 0x90;
+            } else if (lead == 0xF4) {
+                max = 0x8F;
+            }
+        } else {
+            return 0;
+        }
+        if (offset + length > value.length) {
+            return 0;
+        }
+        int second = value[offset + 1] & 0xFF;
+        if (second < min || second > max) {
+            return 0;
+        }
+        for (int i = 2; i < length; i++) {
+            int continuation = value[offset + i] & 0xFF;
+            if (continuation < 0x80 || continuation > 0xBF) {
+                return 0;
+            }
+        }
+        return length;
+    }
+}
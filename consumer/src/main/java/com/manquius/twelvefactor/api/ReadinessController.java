@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.api;
+
+import com.manquius.twelvefactor.clients.BackendHealth;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.Produces;
+
+/**
+ * Readiness controller exposes the /ready API, used on the readiness probe.
+ */
+@Controller("/ready")
+public class ReadinessController {
+
+    private final BackendHealth health;
+
+    /**
+     * Main public constructor.
+     * @param health singleton {@link BackendHealth} with the cached result of the backing services probes.
+     */
+    public ReadinessController(BackendHealth health) {
+        this.health = health;
+    }
+
+    /**
+     * Main /ready API used for readiness probe. It only reads the cached readiness, so it does not call the backing services.
+     * @return 200 'Ready', or 503 with the reason if there is no healthy backing service or the pod is saturated.
+     */
+    @Get
+    @Produces(MediaType.TEXT_PLAIN)
+    public HttpResponse<String> ready() {
+        String reason = health.getNotReadyReason();
+        if (reason == null) {
+            return HttpResponse.ok("Ready");
+        }
+        return HttpResponse.<String>status(HttpStatus.SERVICE_UNAVAILABLE).body(reason);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * Circuit breaker state machine for a single backing service.
+ * It is CLOSED while the failure rate of the calls in a sliding time window stays under the threshold. When it is exceeded it becomes OPEN and rejects calls, so they are sent to the next backing service.
+ * After the reset time it becomes HALF_OPEN and lets a limited number of probe calls through: if all of them succeed it becomes CLOSED again, and if any of them fails it becomes OPEN again.
+ * All the state is kept in atomic variables, so it can be shared by all the request threads without locking. Time is read from a monotonic clock.
+ * The state is reported by the twelvefactor.circuit.breaker.state gauge (0 closed, 1 open, 2 half open), and every change of state by the twelvefactor.circuit.breaker.transitions counter.
+ * It can be configured using the following environment variables:
+ * CIRCUIT_BREAKER_LEVEL_RESET_MS: Number of milliseconds to keep the circuit open before probing the backing service again. Default: 10000.
+ * CIRCUIT_BREAKER_FAILURE_RATE: Percentage of failed calls in the window that opens the circuit. Default: 50.
+ * CIRCUIT_BREAKER_MIN_CALLS: Minimum number of calls in the window before the failure rate is evaluated. Default: 10.
+ * CIRCUIT_BREAKER_WINDOW_MS: Length of the sliding window in milliseconds. Default: 10000.
+ * CIRCUIT_BREAKER_HALF_OPEN_PROBES: Number of probe calls allowed while half open. Default: 3.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+    public static final int DEFAULT_LEVEL_RESET_MILLIS = 10000;
+    public static final int DEFAULT_FAILURE_RATE = 50;
+    public static final int DEFAULT_MIN_CALLS = 10;
+    public static final int DEFAULT_WINDOW_MILLIS = 10000;
+    public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    /**
+     * Number of buckets the sliding window is divided into.
+     */
+    private static final int BUCKETS = 10;
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final long openNanos;
+    private final int failureRate;
+    private final int minCalls;
+    private final int maxProbes;
+    private final long bucketNanos;
+    private final LongSupplier clock;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicInteger probesIssued = new AtomicInteger();
+    private final AtomicInteger probesSucceeded = new AtomicInteger();
+    private final AtomicLongArray bucketEpochs = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketSuccesses = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketFailures = new AtomicLongArray(BUCKETS);
+    private final AtomicInteger stateGauge;
+    private final Counter[] transitions = new Counter[State.values().length];
+
+    /**
+     * CircuitBreaker constructor.
+     * @param name of the protected backing service, used on logs.
+     * @param openMillis time to keep the circuit open before probing again.
+     * @param failureRate percentage of failed calls that opens the circuit.
+     * @param minCalls minimum number of calls in the window before evaluating the failure rate.
+     * @param windowMillis length of the sliding window.
+     * @param maxProbes number of probe calls allowed while half open.
+     * @param clock monotonic clock in nanoseconds.
+     */
+    CircuitBreaker(final String name, final long openMillis, final int failureRate, final int minCalls,
+                   final long windowMillis, final int maxProbes, final LongSupplier clock) {
+        this.name = name;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.failureRate = failureRate;
+        this.minCalls = Math.max(1, minCalls);
+        this.maxProbes = Math.max(1, maxProbes);
+        this.bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / BUCKETS);
+        this.clock = clock;
+        this.stateGauge = ClientMetrics.gauge("twelvefactor.circuit.breaker.state", "breaker", name);
+        stateGauge.set(State.CLOSED.ordinal());
+        for (State to : State.values()) {
+            transitions[to.ordinal()] = ClientMetrics.counter("twelvefactor.circuit.breaker.transitions", "breaker", name, "state", to.name());
+        }
+        clearWindow();
+    }
+
+    /**
+     * Creates a {@link CircuitBreaker} configured from the environment variables.
+     * @param name of the protected backing service, used on logs.
+     */
+    static CircuitBreaker fromEnvironment(final String name) {
+        return new CircuitBreaker(name,
+                getLong("CIRCUIT_BREAKER_LEVEL_RESET_MS", DEFAULT_LEVEL_RESET_MILLIS),
+                getInt("CIRCUIT_BREAKER_FAILURE_RATE", DEFAULT_FAILURE_RATE),
+                getInt("CIRCUIT_BREAKER_MIN_CALLS", DEFAULT_MIN_CALLS),
+                getLong("CIRCUIT_BREAKER_WINDOW_MS", DEFAULT_WINDOW_MILLIS),
+                getInt("CIRCUIT_BREAKER_HALF_OPEN_PROBES", DEFAULT_HALF_OPEN_PROBES),
+                System::nanoTime);
+    }
+
+    /**
+     * Checks if a call to the backing service is allowed. Every allowed call must be followed by {@link #onSuccess()} or {@link #onFailure()}.
+     * @return true if the circuit is closed, or if it is half open and a probe permit was acquired.
+     */
+    boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            if (clock.getAsLong() - openedAt.get() < openNanos) {
+                return false;
+            }
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                changed(State.HALF_OPEN);
+                LOG.info("Circuit breaker " + name + " is half open, probing the backing service.");
+            }
+        }
+        return probesIssued.incrementAndGet() <= maxProbes;
+    }
+
+    /**
+     * Records a successful call.
+     */
+    void onSuccess() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            record(bucketSuccesses);
+        } else if (current == State.HALF_OPEN
+                && probesSucceeded.incrementAndGet() >= maxProbes
+                && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            clearWindow();
+            changed(State.CLOSED);
+            LOG.info("Circuit breaker " + name + " is closed.");
+        }
+    }
+
+    /**
+     * Records a failed call.
+     */
+    void onFailure() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            record(bucketFailures);
+            if (isFailureRateExceeded()) {
+                open(State.CLOSED);
+            }
+        } else if (current == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+        }
+    }
+
+    /**
+     * @return current {@link State} of the circuit.
+     */
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return name of the protected backing service.
+     */
+    String getName() {
+        return name;
+    }
+
+    private void open(final State from) {
+        probesIssued.set(0);
+        probesSucceeded.set(0);
+        openedAt.set(clock.getAsLong());
+        if (state.compareAndSet(from, State.OPEN)) {
+            changed(State.OPEN);
+            LOG.error("Circuit breaker " + name + " is open.");
+        }
+    }
+
+    private void changed(final State to) {
+        stateGauge.set(to.ordinal());
+        transitions[to.ordinal()].increment();
+    }
+
+    /**
+     * Counts a call on the bucket of the current time, resetting the bucket if it belongs to a previous window.
+     * Concurrent calls racing with the reset of a bucket may be lost, which is acceptable for a failure rate estimation.
+     */
+    private void record(final AtomicLongArray counter) {
+        long epoch = clock.getAsLong() / bucketNanos;
+        int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+        long seen = bucketEpochs.get(index);
+        if (seen != epoch && bucketEpochs.compareAndSet(index, seen, epoch)) {
+            bucketSuccesses.set(index, 0);
+            bucketFailures.set(index, 0);
+        }
+        counter.incrementAndGet(index);
+    }
+
+    private boolean isFailureRateExceeded() {
+        long epoch = clock.getAsLong() / bucketNanos;
+        long successes = 0;
+        long failures = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketEpochs.get(i) > epoch - BUCKETS) {
+                successes += bucketSuccesses.get(i);
+                failures += bucketFailures.get(i);
+            }
+        }
+        long calls = successes + failures;
+        return calls >= minCalls && failures * 100 >= calls * failureRate;
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketEpochs.set(i, Long.MIN_VALUE);
+            bucketSuccesses.set(i, 0);
+            bucketFailures.set(i, 0);
+        }
+    }
+}
@@ -9,127 +9,277 @@
 
 package com.manquius.twelvefactor.clients;
 
+import io.micrometer.core.instrument.Counter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import static java.util.Optional.ofNullable;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
 
+/**
+ * Implementation of {@link ConsumeClient} that handles a Circuit Breaker mechanism among the provided alternatives.
+ * Each backing service level is protected by its own {@link CircuitBreaker}: a level is skipped while its circuit is open, and only a limited number of probe requests reach it while it recovers.
+ * All the failover state is kept in the circuit breakers, so the client can be shared by all the request threads.
+ * It can be configured Using the following environment variables:
+ * CIRCUIT_BREAKER_MAX_ATTEMPTS: Number of attempts to consume from one backing service on a request before passing to the next one. Default: 10.
+ * The {@link CircuitBreaker} environment variables: CIRCUIT_BREAKER_LEVEL_RESET_MS, CIRCUIT_BREAKER_FAILURE_RATE, CIRCUIT_BREAKER_MIN_CALLS, CIRCUIT_BREAKER_WINDOW_MS and CIRCUIT_BREAKER_HALF_OPEN_PROBES.
+ * Every consume from a backing service is timed by the twelvefactor.consume.calls timer of its adapter, and the retries and the failovers to the next level are counted by the
+ * twelvefactor.consume.retries and twelvefactor.consume.failovers counters. The whole calls and the adapter calls are also recorded as {@link StageLatencies} stages.
+ */
 public class CircuitBreakerConsumeClient implements ConsumeClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerConsumeClient.class);
-    public static final int DEFAULT_LEVEL_RESET_MILLIS = 10000;
     public static final int DEFAULT_MAX_ATTEMPTS = 10;
 
     /**
-     * Max attempts to consume before move to next level of failover.
+     * Max attempts to consume on a request before move to next level of failover.
      */
-    private int maxAttempts;
+    private final int maxAttempts;
+
+    protected final List<ConsumeClient> clientAdapters;
 
     /**
-     * Number of millis to wait before try to consume from level 0 again.
+     * One {@link CircuitBreaker} per level, in the same order as the adapters.
      */
-    private long levelResetMillis;
+    private final List<CircuitBreaker> breakers;
 
     /**
-     * Calendar.
+     * Call timers, retry and failover counters of every level, in the same order as the adapters.
      */
-    private final Calendar cal = Calendar.getInstance();
+    private final List<ClientMetrics.Timers> calls;
+    private final List<Counter> retries;
+    private final List<Counter> failovers;
+
+    /**
+     * CircuitBreakerConsumeClient contructor.
+     * @param adapters Ordered {@link List} of {@link ConsumeClient} that will connect to backing services. The default will be the first one, and it will call the next ones when the previous fails.
+     *                 The max attempts to consume from a failing backing service is configured by CIRCUIT_BREAKER_MAX_ATTEMPTS environment variable. Default: 10.
+     *                 The circuit breaker of each backing service is configured by the {@link CircuitBreaker} environment variables.
+     */
+    public CircuitBreakerConsumeClient(final List<ConsumeClient> adapters) {
+        this.maxAttempts = Math.max(1, getInt("CIRCUIT_BREAKER_MAX_ATTEMPTS", DEFAULT_MAX_ATTEMPTS));
+        this.clientAdapters = adapters;
+        List<CircuitBreaker> levels = new ArrayList<>(adapters.size());
+        for (ConsumeClient adapter : adapters) {
+            levels.add(CircuitBreaker.fromEnvironment(adapter.getClass().getSimpleName()));
+        }
+        this.breakers = Collections.unmodifiableList(levels);
+        this.calls = new ArrayList<>(levels.size());
+        this.retries = new ArrayList<>(levels.size());
+        this.failovers = new ArrayList<>(levels.size());
+        for (CircuitBreaker breaker : levels) {
+            calls.add(ClientMetrics.timers("twelvefactor.consume.calls", "adapter", breaker.getName()));
+            retries.add(ClientMetrics.counter("twelvefactor.consume.retries", "adapter", breaker.getName()));
+            failovers.add(ClientMetrics.counter("twelvefactor.consume.failovers", "adapter", breaker.getName()));
+        }
+    }
 
     /**
-     * Last time.
+     * Consume method implementation with Circuit Breaker mechanism.
+     * @param topic from where the message will be consumed.
+     * @return {@link List} of {@link String} messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
      */
-    private final long lastResetTime = cal.getTimeInMillis();
+    @Override
+    public List<String> consume(String topic) throws ConsumeException {
+        return consume(topic, adapter -> adapter.consume(topic));
+    }
 
     /**
-     * Failover level.
+     * Binary consume method implementation with Circuit Breaker mechanism. It is failed over as {@link #consume(String)}.
+     * @param topic from where the message will be consumed.
+     * @return {@link List} of binary messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
      */
-    private int level = 0;
+    @Override
+    public List<byte[]> consumeBytes(String topic) throws ConsumeException {
+        return consume(topic, adapter -> adapter.consumeBytes(topic));
+    }
 
     /**
-     * Current attempts on failing consuming.
+     * Long-poll consume method implementation with Circuit Breaker mechanism. It is failed over as {@link #consume(String)}, and every attempt waits up to the options wait.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @return {@link List} of {@link String} messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
      */
-    private int attempts = 1;
+    @Override
+    public List<String> consume(String topic, ConsumeOptions options) throws ConsumeException {
+        return consume(topic, adapter -> adapter.consume(topic, options));
+    }
 
-    protected final List<ConsumeClient> clientAdapters;
+    /**
+     * Binary long-poll consume method implementation with Circuit Breaker mechanism. It is failed over as {@link #consume(String)}, and every attempt waits up to the options wait.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @return {@link List} of binary messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic, ConsumeOptions options) throws ConsumeException {
+        return consume(topic, adapter -> adapter.consumeBytes(topic, options));
+    }
 
     /**
-     * CircuitBreakerProduceClient contructor.
-     * @param adapters Ordered {@link List} of {@link ConsumeClient} that will connect to backing services. The default will be the first one, and it will call the next ones when the previous fails.
-     *                 The max attempts to consume from a failing backing service is configured by CIRCUIT_BREAKER_MAX_ATTEMPTS environment variable. Default: 10.
-     *                 The time it will continue consuming from a secondary backend before re-trying the previous one is configured by CIRCUIT_BREAKER_LEVEL_RESET_MS environment variable. Default:10000.
+     * Cursor read method implementation with Circuit Breaker mechanism.
+     * A position is only valid on the backing service that returned it, so the returned cursor is prefixed with its level, and the next reads are not failed over.
+     * The first read, without cursor, is served by the first available level that supports cursor reads.
+     * @param topic from where the messages will be read.
+     * @param cursor returned by the previous read, or null to read from the beginning of the topic.
+     * @param options limits of the request.
+     * @return {@link CursorPage} with the binary messages and the next cursor.
+     * @throws ConsumeException if the messages could not be read from the level of the cursor, or from any level if there is no cursor.
      */
-    public CircuitBreakerConsumeClient(final List<ConsumeClient> adapters) {
-        try {
-            maxAttempts = Integer.parseInt(ofNullable(System.getenv("CIRCUIT_BREAKER_MAX_ATTEMPTS")).orElse("10"));
-        } catch (NumberFormatException e) {
-            maxAttempts = DEFAULT_MAX_ATTEMPTS;
-        }
+    @Override
+    public CursorPage<byte[]> read(String topic, String cursor, ConsumeOptions options) throws ConsumeException {
+        long started = System.nanoTime();
         try {
-            levelResetMillis = Long.parseLong(ofNullable(System.getenv("CIRCUIT_BREAKER_LEVEL_RESET_MS")).orElse("10000"));
-        } catch (NumberFormatException e) {
-            levelResetMillis = DEFAULT_LEVEL_RESET_MILLIS;
+            return read(clientAdapters, breakers, topic, cursor, options);
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.BREAKER, started);
         }
-        this.clientAdapters = adapters;
     }
 
     /**
-     * Consume method implementation with Circuit Breaker mechanism.
-     * @param topic from where the message will be consumed.
-     * @return
-     * @throws ConsumeException if the message could not be produced.
+     * Reads from the level of a level prefixed cursor, or from the first available level that supports cursor reads if there is no cursor.
+     * @throws IllegalArgumentException if the cursor is not level prefixed.
      */
-    @Override
-    public List<String> consume(String topic) throws ConsumeException {
-        List<String> messages = null;
-        if (level > 0) {
-            checkResetTime();
+    static CursorPage<byte[]> read(List<ConsumeClient> adapters, List<CircuitBreaker> breakers, String topic, String cursor, ConsumeOptions options) throws ConsumeException {
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf('.');
+            int level = separator > 0 ? Integer.parseInt(cursor.substring(0, separator)) : -1;
+            if (level < 0 || level >= adapters.size()) {
+                throw new IllegalArgumentException("Invalid cursor level");
+            }
+            if (!breakers.get(level).tryAcquire()) {
+                throw new ConsumeException("Circuit of level " + level + " is open");
+            }
+            return read(adapters.get(level), breakers.get(level), level, topic, cursor.substring(separator + 1), options);
         }
-        while (messages == null && level < clientAdapters.size()) {
-            messages = tryToConsume(topic);
+        ConsumeException failure = null;
+        for (int level = availableLevel(breakers, 0); level < adapters.size(); level = availableLevel(breakers, level + 1)) {
+            try {
+                return read(adapters.get(level), breakers.get(level), level, topic, null, options);
+            } catch (UnsupportedOperationException e) {
+                LOG.debug("Level " + level + " does not support cursor reads");
+            } catch (ConsumeException e) {
+                failure = e;
+            }
         }
-        if (messages == null) {
-            throw new ConsumeException("Message could not be consumed from any backend");
+        throw new ConsumeException("Messages could not be read from any backend", failure);
+    }
+
+    private static CursorPage<byte[]> read(ConsumeClient adapter, CircuitBreaker breaker, int level, String topic, String cursor, ConsumeOptions options) throws ConsumeException {
+        long started = System.nanoTime();
+        try {
+            CursorPage<byte[]> page = adapter.read(topic, cursor, options);
+            breaker.onSuccess();
+            return new CursorPage<>(page.getMessages(), level + "." + page.getCursor());
+        } catch (ConsumeException e) {
+            breaker.onFailure();
+            LOG.error("Error trying to read from level " + level, e);
+            throw e;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            breaker.onSuccess();
+            throw e;
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.ADAPTER, started);
         }
-        return messages;
     }
 
+    private <T> List<T> consume(String topic, Consumption<T> consumption) throws ConsumeException {
+        long requested = System.nanoTime();
+        try {
+            return failover(topic, consumption);
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.BREAKER, requested);
+        }
+    }
 
-    /**
-     * Tries to produce a request to the current background service level.
-     *
-     * @return boolean
-     */
-    private List<String> tryToConsume(String topic) {
-        List<String> messages = null;
-        int currentLevel = level;
-        while (messages == null && attempts <= maxAttempts && currentLevel == level) {
+    private <T> List<T> failover(String topic, Consumption<T> consumption) throws ConsumeException {
+        int level = availableLevel(breakers, 0);
+        int attempt = 1;
+        while (level < clientAdapters.size()) {
+            CircuitBreaker breaker = breakers.get(level);
+            long started = System.nanoTime();
             try {
-                ConsumeClient adapter = clientAdapters.get(level);
-                messages = adapter.consume(topic);
+                List<T> messages = consumption.consume(clientAdapters.get(level));
+                calls.get(level).record(topic, started, true);
+                StageLatencies.record(StageLatencies.Stage.ADAPTER, started);
+                breaker.onSuccess();
+                return messages;
             } catch (Exception e) {
-                if (attempts < maxAttempts) {
-                    LOG.error("Error trying to produce. Attempt: " + attempts);
-                    attempts++;
+                calls.get(level).record(topic, started, false);
+                StageLatencies.record(StageLatencies.Stage.ADAPTER, started);
+                breaker.onFailure();
+                int next;
+                if (attempt < maxAttempts) {
+                    LOG.error("Error trying to consume. Attempt: " + attempt);
+                    retries.get(level).increment();
+                    next = availableLevel(breakers, level);
+                    attempt = next == level ? attempt + 1 : 1;
                 } else {
-                    attempts = 1;
-                    level++;
-                    LOG.error("All the attempts to produce failed, moving to next level.");
+                    LOG.error("All the attempts to consume failed, moving to next level.");
+                    failovers.get(level).increment();
+                    next = availableLevel(breakers, level + 1);
+                    attempt = 1;
                 }
+                level = next;
             }
         }
-        return messages;
+        throw new ConsumeException("Message could not be consumed from any backend");
     }
 
     /**
-     * resets background level if time has passed.
+     * Consume operation on one adapter.
      */
-    private void checkResetTime() {
-        if (lastResetTime + levelResetMillis > cal.getTimeInMillis()) {
-            level = 0;
+    private interface Consumption<T> {
+        List<T> consume(ConsumeClient adapter) throws ConsumeException;
+    }
+
+    /**
+     * Finds the first level, starting from the given one, whose circuit breaker allows a call.
+     * @return the available level, or the number of levels if none of them is available.
+     */
+    private static int availableLevel(List<CircuitBreaker> breakers, int from) {
+        int level = from;
+        while (level < breakers.size() && !breakers.get(level).tryAcquire()) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Probes the levels in order. It is healthy while at least one level is: its circuit is not open and its adapter answered the probe.
+     * @throws ConsumeException if none of the levels is healthy.
+     */
+    @Override
+    public void probe() throws ConsumeException {
+        probe(clientAdapters, breakers);
+    }
+
+    /**
+     * Probes the levels in order, skipping the ones with an open circuit, until one of them answers.
+     * @throws ConsumeException if none of the levels answered.
+     */
+    static void probe(List<ConsumeClient> adapters, List<CircuitBreaker> breakers) throws ConsumeException {
+        Exception failure = null;
+        for (int level = 0; level < adapters.size(); level++) {
+            if (breakers.get(level).getState() == CircuitBreaker.State.OPEN) {
+                failure = new ConsumeException("Circuit of level " + level + " is open");
+                continue;
+            }
+            try {
+                adapters.get(level).probe();
+                return;
+            } catch (Exception e) {
+                failure = e;
+            }
         }
+        throw new ConsumeException("No healthy backing service", failure);
     }
 
     /**
@@ -10,6 +10,11 @@
 
 package com.manquius.twelvefactor.clients;
 
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -25,4 +30,109 @@ public interface ConsumeClient extends AutoCloseable{
      */
     List<String> consume(String topic) throws ConsumeException;
 
+    /**
+     * Binary consume method implementation. The messages are returned as they were stored in the backing service, without any charset conversion.
+     * Adapters override it to read the raw bytes from their backing service. By default it returns the UTF-8 bytes of {@link #consume(String)}.
+     * @param topic from where the message will be consumed.
+     * @return {@link List} of binary messages
+     * @throws ConsumeException if the message could not be consumed.
+     */
+    default List<byte[]> consumeBytes(String topic) throws ConsumeException {
+        List<String> messages = consume(topic);
+        List<byte[]> result = new ArrayList<>(messages.size());
+        messages.forEach(message -> result.add(message.getBytes(StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Long-poll consume method implementation. It returns as soon as there are messages, within the limits of the {@link ConsumeOptions}, or an empty list once the wait expires.
+     * By default it decodes the UTF-8 bytes of {@link #consumeBytes(String, ConsumeOptions)}.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @return {@link List} of {@link String} messages
+     * @throws ConsumeException if the message could not be consumed.
+     */
+    default List<String> consume(String topic, ConsumeOptions options) throws ConsumeException {
+        List<byte[]> messages = consumeBytes(topic, options);
+        List<String> result = new ArrayList<>(messages.size());
+        messages.forEach(message -> result.add(new String(message, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary long-poll consume method implementation. Adapters override it to wait and limit the batch on their backing service.
+     * By default it repeats {@link #consumeBytes(String)} every LONG_POLL_INTERVAL_MS (default 10) until it returns messages or the wait expires.
+     * The batch is returned as consumed, so the limits are not applied by default.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @return {@link List} of binary messages
+     * @throws ConsumeException if the message could not be consumed.
+     */
+    default List<byte[]> consumeBytes(String topic, ConsumeOptions options) throws ConsumeException {
+        long deadline = options.deadline();
+        long intervalMillis = Math.max(1, EnvironmentVariables.getLong("LONG_POLL_INTERVAL_MS", 10L));
+        List<byte[]> messages = consumeBytes(topic);
+        while (messages.isEmpty() && deadline - System.nanoTime() > 0) {
+            try {
+                Thread.sleep(Math.min(intervalMillis, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConsumeException("Interrupted consuming from topic: " + topic, e);
+            }
+            messages = consumeBytes(topic);
+        }
+        return messages;
+    }
+
+    /**
+     * Cursor read method implementation. Unlike consume, it does not keep any consumption state on the service or the backing service:
+     * it reads the messages after the cursor, and returns the cursor of the next read, so any replica can serve the next request and messages can be replayed.
+     * Adapters that support it override it. By default it fails, as queues that remove the consumed messages cannot be read by position.
+     * @param topic from where the messages will be read.
+     * @param cursor returned by the previous read, or null to read from the beginning of the topic.
+     * @param options limits of the request.
+     * @return {@link CursorPage} with the binary messages and the next cursor.
+     * @throws ConsumeException if the messages could not be read.
+     * @throws IllegalArgumentException if the cursor is not valid for the adapter.
+     * @throws UnsupportedOperationException if the adapter does not support cursor reads.
+     */
+    default CursorPage<byte[]> read(String topic, String cursor, ConsumeOptions options) throws ConsumeException {
+        throw new UnsupportedOperationException("Cursor reads are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Streaming consume method implementation. The returned {@link Flowable} keeps consuming from the topic until it is cancelled.
+     * A new batch is only consumed when the subscriber has requested more messages than the ones already consumed, so slow subscribers
+     * leave the messages in the backing service instead of buffering them. Each subscription polls on its own io thread.
+     * Every batch is a long-poll {@link #consume(String, ConsumeOptions)} that waits up to STREAM_WAIT_MS (default 1000) for the first message,
+     * so new messages are emitted as soon as they arrive instead of after a fixed sleep.
+     * @param topic from where the messages will be consumed.
+     * @return {@link Flowable} of {@link String} messages, that fails with {@link ConsumeException} if a batch could not be consumed.
+     */
+    default Flowable<String> stream(String topic) {
+        ConsumeOptions options = new ConsumeOptions(ConsumeOptions.DEFAULT_MAX_RECORDS, ConsumeOptions.DEFAULT_MAX_BYTES,
+                EnvironmentVariables.getLong("STREAM_WAIT_MS", 1000L));
+        return Flowable.<List<String>>generate(emitter -> {
+            List<String> batch;
+            try {
+                batch = consume(topic, options);
+            } catch (ConsumeException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    emitter.onComplete();
+                    return;
+                }
+                throw e;
+            }
+            emitter.onNext(batch);
+        }).subscribeOn(Schedulers.io()).concatMapIterable(batch -> batch, 1);
+    }
+
+    /**
+     * Checks the connection with the backing service, without consuming any message. It is called periodically by {@link BackendHealth}, never on the request path.
+     * By default it returns immediately, so adapters that cannot be probed are only reported by their circuit breakers.
+     * @throws ConsumeException if the backing service is not reachable.
+     */
+    default void probe() throws ConsumeException {
+    }
+
 }
@@ -12,40 +12,107 @@ package com.manquius.twelvefactor.clients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+
 import static java.util.Optional.ofNullable;
 
 /**
  * {@link ConsumeClient} provider.
  * It can be configured using CONSUME_CLIENT environment variable. Default: KAFKA/REDIS.
- * Allowed values: Kafka, Redis, Pulsar (non case sensitive)
- * When the value inclused slashes '/', it uses {@link CircuitBreakerConsumeClient} implementation passing the different adapters in order.
+ * Allowed values: Kafka, Redis, Redis_Streams, Pulsar, RabbitMQ (non case sensitive)
+ * When the value inclused slashes '/', it uses {@link CircuitBreakerConsumeClient} implementation passing the different adapters in order,
+ * or {@link FanInConsumeClient} when CONSUME_MODE environment variable is FAN_IN. Default: FAILOVER.
  * If the configuration is invalid, defaults to KAFKA/REDIS.
+ * It is a singleton: the {@link ConsumeClient} is created once, shared by all the requests, and closed on application shutdown.
  */
-public class ConsumeClientProvider {
+@Singleton
+public class ConsumeClientProvider implements AutoCloseable {
 
-    private ConsumeClient adapter;
+    private volatile ConsumeClient adapter;
 
     private static final Logger LOG = LoggerFactory.getLogger(ConsumeClientProvider.class);
 
 
     /**
      * Main method to return {@link ConsumeClient} implementation based on CONSUME_CLIENT environment variable.
+     * The client is created on the first call and shared by the following ones. Callers must not close it.
      * @return {@link ConsumeClient} implementation
      * @throws ClientCreationException if the Client could not be created
      */
     public ConsumeClient getClient() throws ClientCreationException {
-        if (null == adapter) {
-            final String clientString = ofNullable(System.getenv("CONSUME_CLIENT")).orElse("PULSAR");
-            adapter = Adapter.getClientByName(clientString);
+        ConsumeClient client = adapter;
+        if (null == client) {
+            synchronized (this) {
+                client = adapter;
+                if (null == client) {
+                    client = createClient();
+                    adapter = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Creates the {@link ConsumeClient} implementation based on CONSUME_CLIENT environment variable.
+     * @return {@link ConsumeClient} implementation
+     * @throws ClientCreationException if the Client could not be created
+     */
+    protected ConsumeClient createClient() throws ClientCreationException {
+        final String clientString = ofNullable(System.getenv("CONSUME_CLIENT")).orElse("PULSAR");
+        if (clientString.contains("/")) {
+            List<ConsumeClient> adapters = new ArrayList<>();
+            for (String adapterName : clientString.split("/")) {
+                adapters.add(Adapter.getClientByName(adapterName));
+            }
+            return Mode.getByName(ofNullable(System.getenv("CONSUME_MODE")).orElse("FAILOVER")) == Mode.FAN_IN
+                    ? new FanInConsumeClient(adapters)
+                    : new CircuitBreakerConsumeClient(adapters);
+        }
+        return Adapter.getClientByName(clientString);
+    }
+
+    /**
+     * Closes the shared {@link ConsumeClient} on application shutdown.
+     */
+    @PreDestroy
+    @Override
+    public synchronized void close() {
+        if (null != adapter) {
+            try {
+                adapter.close();
+            } catch (Exception e) {
+                LOG.warn("ConsumeClient could not be closed", e);
+            }
+            adapter = null;
         }
-        return adapter;
     }
 
+    /**
+     * How a chain of adapters is consumed.
+     */
+    enum Mode {
+        FAILOVER,
+        FAN_IN;
+
+        private static Mode getByName(final String modeString) throws ClientCreationException {
+            try {
+                return Mode.valueOf(modeString.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ClientCreationException("Invalid CONSUME_MODE value: " + modeString);
+            }
+        }
+    }
 
     enum Adapter {
         KAFKA,
         REDIS,
-        PULSAR;
+        REDIS_STREAMS,
+        PULSAR,
+        RABBITMQ;
 
         private static ConsumeClient getClientByName(final String clientString) throws ClientCreationException {
             try{
@@ -56,6 +123,10 @@ public class ConsumeClientProvider {
                         return new KafkaConsumeClient();
                     case REDIS:
                         return new RedisConsumeClient();
+                    case REDIS_STREAMS:
+                        return new RedisStreamsConsumeClient();
+                    case RABBITMQ:
+                        return new RabbitMQConsumeClient();
                     default:
                         throw new ClientCreationException("Invalid CONSUME_CLIENT value: " + clientString);
                 }
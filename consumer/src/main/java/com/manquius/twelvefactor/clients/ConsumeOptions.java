@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of a single consume request.
+ * A consume returns as soon as there is at least one message, up to the max records and the max bytes, or an empty list once the wait expires.
+ * The max bytes can be exceeded by the last message, so a message bigger than the limit is still delivered.
+ */
+public final class ConsumeOptions {
+
+    public static final int DEFAULT_MAX_RECORDS = 500;
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final long DEFAULT_WAIT_MILLIS = 0;
+
+    /**
+     * Options of a consume that does not wait, with the default limits.
+     */
+    public static final ConsumeOptions DEFAULT = new ConsumeOptions(DEFAULT_MAX_RECORDS, DEFAULT_MAX_BYTES, DEFAULT_WAIT_MILLIS);
+
+    private final int maxRecords;
+    private final long maxBytes;
+    private final long waitMillis;
+
+    /**
+     * ConsumeOptions constructor.
+     * @param maxRecords max number of messages returned. Zero or negative means no limit.
+     * @param maxBytes max size of the messages returned. Zero or negative means no limit.
+     * @param waitMillis max time to wait for the first message. Zero or negative returns immediately.
+     */
+    public ConsumeOptions(final int maxRecords, final long maxBytes, final long waitMillis) {
+        this.maxRecords = maxRecords > 0 ? maxRecords : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.waitMillis = Math.max(0, waitMillis);
+    }
+
+    /**
+     * @return max number of messages returned.
+     */
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * @return max size of the messages returned.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return max time to wait for the first message.
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    /**
+     * @return the deadline to wait for the first message, in {@link System#nanoTime()} units.
+     */
+    long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumeOptions{maxRecords=" + maxRecords + ", maxBytes=" + maxBytes + ", waitMillis=" + waitMillis + "}";
+    }
+}
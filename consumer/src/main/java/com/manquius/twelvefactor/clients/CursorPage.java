@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Messages returned by a cursor read, with the cursor to be passed to the next read to continue after them.
+ * Cursors are opaque for the callers: each adapter encodes its own position (partition offsets, message id, stream entry id) as URL safe Base64.
+ * @param <T> message type.
+ */
+public final class CursorPage<T> {
+
+    private final List<T> messages;
+    private final String cursor;
+
+    /**
+     * CursorPage constructor.
+     * @param messages read messages.
+     * @param cursor position after the last read message.
+     */
+    public CursorPage(final List<T> messages, final String cursor) {
+        this.messages = messages;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return read messages.
+     */
+    public List<T> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return cursor to continue after the read messages.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return a page with the same cursor and the converted messages.
+     */
+    public <R> CursorPage<R> map(final Function<T, R> converter) {
+        List<R> converted = new ArrayList<>(messages.size());
+        messages.forEach(message -> converted.add(converter.apply(message)));
+        return new CursorPage<>(converted, cursor);
+    }
+
+    /**
+     * Encodes an adapter position as an opaque cursor.
+     */
+    static String encode(final byte[] position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position);
+    }
+
+    /**
+     * Encodes an adapter text position as an opaque cursor.
+     */
+    static String encode(final String position) {
+        return encode(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes an opaque cursor.
+     * @return the adapter position, or null if there is no cursor.
+     * @throws IllegalArgumentException if the cursor is not valid.
+     */
+    static byte[] decode(final String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        return Base64.getUrlDecoder().decode(cursor);
+    }
+
+    /**
+     * Decodes an opaque cursor holding a text position.
+     * @return the adapter position, or null if there is no cursor.
+     * @throws IllegalArgumentException if the cursor is not valid.
+     */
+    static String decodeText(final String cursor) {
+        byte[] position = decode(cursor);
+        return position == null ? null : new String(position, StandardCharsets.UTF_8);
+    }
+}
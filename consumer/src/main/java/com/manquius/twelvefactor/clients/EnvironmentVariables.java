@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Helper to read typed configuration from environment variables, falling back to a default value when the variable is missing or invalid.
+ */
+public final class EnvironmentVariables {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EnvironmentVariables.class);
+
+    private EnvironmentVariables() {
+    }
+
+    /**
+     * @return the value of the environment variable, or the default value if it is not defined.
+     */
+    public static String getString(final String name, final String defaultValue) {
+        return ofNullable(System.getenv(name)).orElse(defaultValue);
+    }
+
+    /**
+     * @return the int value of the environment variable, or the default value if it is not defined or is not a number.
+     */
+    public static int getInt(final String name, final int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.error("Configured " + name + " is not a number: " + value + ". Using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the long value of the environment variable, or the default value if it is not defined or is not a number.
+     */
+    public static long getLong(final String name, final long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.error("Configured " + name + " is not a number: " + value + ". Using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the boolean value of the environment variable ("true", non case sensitive), or the default value if it is not defined.
+     */
+    public static boolean getBoolean(final String name, final boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * Implementation of {@link ConsumeClient} that consumes from all the provided backing services concurrently and merges the results, in the order of the adapters.
+ * It drains the fallback levels, where messages were produced while the primary one was failing, without waiting for the primary to fail first.
+ * The request limits are split among the levels, so the merged messages fit in the response and no level consumes messages it cannot return.
+ * The levels are read in rounds: every level waits up to the level budget, or up to the rest of the request wait if it is shorter, so an idle level does not hold a long-poll
+ * while another one has messages. The request returns after the first round with messages, or when its wait is over.
+ * A round waits for every started read, as the messages a level returns are already consumed from its backing service.
+ * A read still running one level budget after its wait is cancelled, and a read that would start after that is not started at all.
+ * If a cancelled read still returns messages they cannot be returned anymore, and they are counted by the twelvefactor.fanin.dropped counter.
+ * Each level is protected by its own {@link CircuitBreaker}, so a level is skipped while its circuit is open.
+ * Every consume from a level is timed by the twelvefactor.consume.calls timer of its adapter. The whole consumes and the level consumes are also recorded as {@link StageLatencies} stages.
+ * It can be configured using the following environment variables:
+ * FAN_IN_LEVEL_BUDGET_MS: Max time each level waits for messages on a round, and the extra time it has to answer before it is cancelled. Default: 200.
+ * FAN_IN_THREADS: Max number of levels read at the same time, across all the requests. Default: 32.
+ * FAN_IN_QUEUE_SIZE: Max number of level reads waiting for a thread. Reads beyond it fail the level for that round. Default: 1000.
+ * The {@link CircuitBreaker} environment variables: CIRCUIT_BREAKER_LEVEL_RESET_MS, CIRCUIT_BREAKER_FAILURE_RATE, CIRCUIT_BREAKER_MIN_CALLS, CIRCUIT_BREAKER_WINDOW_MS and CIRCUIT_BREAKER_HALF_OPEN_PROBES.
+ */
+public class FanInConsumeClient implements ConsumeClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FanInConsumeClient.class);
+    public static final long DEFAULT_LEVEL_BUDGET_MILLIS = 200;
+
+    private final List<ConsumeClient> clientAdapters;
+    private final List<CircuitBreaker> breakers;
+    private final List<ClientMetrics.Timers> calls;
+    private final long levelBudgetMillis;
+    private final ThreadPoolExecutor executor;
+    private final Counter dropped = ClientMetrics.counter("twelvefactor.fanin.dropped");
+
+    /**
+     * FanInConsumeClient constructor.
+     * @param adapters Ordered {@link List} of {@link ConsumeClient} that will connect to backing services. The merged results keep this order.
+     */
+    public FanInConsumeClient(final List<ConsumeClient> adapters) {
+        this.clientAdapters = adapters;
+        List<CircuitBreaker> levels = new ArrayList<>(adapters.size());
+        for (ConsumeClient adapter : adapters) {
+            levels.add(CircuitBreaker.fromEnvironment(adapter.getClass().getSimpleName()));
+        }
+        this.breakers = Collections.unmodifiableList(levels);
+        this.calls = new ArrayList<>(levels.size());
+        for (CircuitBreaker breaker : levels) {
+            calls.add(ClientMetrics.timers("twelvefactor.consume.calls", "adapter", breaker.getName()));
+        }
+        this.levelBudgetMillis = Math.max(0, getLong("FAN_IN_LEVEL_BUDGET_MS", DEFAULT_LEVEL_BUDGET_MILLIS));
+        int threads = Math.max(1, getInt("FAN_IN_THREADS", 32));
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, getInt("FAN_IN_QUEUE_SIZE", 1000))),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "fan-in-consumer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Consume method implementation that fans in all the backing services, within the {@link ConsumeOptions#DEFAULT} limits.
+     * @param topic from where the message will be consumed.
+     * @return {@link List} of {@link String} messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
+     */
+    @Override
+    public List<String> consume(String topic) throws ConsumeException {
+        return consume(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Binary consume method implementation that fans in all the backing services, within the {@link ConsumeOptions#DEFAULT} limits.
+     * @param topic from where the message will be consumed.
+     * @return {@link List} of binary messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic) throws ConsumeException {
+        return consumeBytes(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Long-poll consume method implementation that fans in all the backing services, each one within its share of the options limits.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request, applied to the merged messages.
+     * @return {@link List} of {@link String} messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
+     */
+    @Override
+    public List<String> consume(String topic, ConsumeOptions options) throws ConsumeException {
+        return fanIn(topic, options, (adapter, levelOptions) -> adapter.consume(topic, levelOptions));
+    }
+
+    /**
+     * Binary long-poll consume method implementation that fans in all the backing services, as {@link #consume(String, ConsumeOptions)}.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request, applied to the merged messages.
+     * @return {@link List} of binary messages
+     * @throws ConsumeException if the message could not be consumed from any backing service.
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic, ConsumeOptions options) throws ConsumeException {
+        return fanIn(topic, options, (adapter, levelOptions) -> adapter.consumeBytes(topic, levelOptions));
+    }
+
+    /**
+     * Cursor read method implementation. Positions cannot be merged across backing services, so it reads from a single level as {@link CircuitBreakerConsumeClient#read(String, String, ConsumeOptions)}.
+     * @param topic from where the messages will be read.
+     * @param cursor returned by the previous read, or null to read from the beginning of the topic.
+     * @param options limits of the request.
+     * @return {@link CursorPage} with the binary messages and the next cursor.
+     * @throws ConsumeException if the messages could not be read from the level of the cursor, or from any level if there is no cursor.
+     */
+    @Override
+    public CursorPage<byte[]> read(String topic, String cursor, ConsumeOptions options) throws ConsumeException {
+        long started = System.nanoTime();
+        try {
+            return CircuitBreakerConsumeClient.read(clientAdapters, breakers, topic, cursor, options);
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.BREAKER, started);
+        }
+    }
+
+    /**
+     * Probes the levels as {@link CircuitBreakerConsumeClient#probe()}. It is healthy while at least one level is, as the others are only skipped by the fan-in.
+     * @throws ConsumeException if none of the levels is healthy.
+     */
+    @Override
+    public void probe() throws ConsumeException {
+        CircuitBreakerConsumeClient.probe(clientAdapters, breakers);
+    }
+
+    private <T> List<T> fanIn(final String topic, final ConsumeOptions options, final Consumption<T> consumption) throws ConsumeException {
+        long started = System.nanoTime();
+        try {
+            long deadline = options.deadline();
+            while (true) {
+                long remainingMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                long waitMillis = levelBudgetMillis > 0 ? Math.min(levelBudgetMillis, remainingMillis) : remainingMillis;
+                long waitDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+                List<T> merged = round(topic, options, waitMillis, waitDeadline, consumption);
+                if (!merged.isEmpty() || System.nanoTime() - deadline >= 0) {
+                    return merged;
+                }
+                // levels that do not wait for messages are not read again before the round wait is over
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, waitDeadline - System.nanoTime()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted consuming", e);
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.BREAKER, started);
+        }
+    }
+
+    /**
+     * Reads every level once, waiting up to waitMillis for messages, and merges the results in the order of the levels.
+     */
+    private <T> List<T> round(final String topic, final ConsumeOptions options, final long waitMillis, final long waitDeadline,
+                              final Consumption<T> consumption) throws ConsumeException {
+        long answerDeadline = waitDeadline + TimeUnit.MILLISECONDS.toNanos(levelBudgetMillis);
+        List<LevelRead<T>> reads = new ArrayList<>(clientAdapters.size());
+        for (int level = 0; level < clientAdapters.size(); level++) {
+            ConsumeOptions share = levelOptions(level, options, waitMillis);
+            if (share != null) {
+                reads.add(read(level, topic, consumption, share, waitDeadline, answerDeadline));
+            }
+        }
+        await(reads, answerDeadline);
+        List<T> merged = new ArrayList<>();
+        int failed = 0;
+        Throwable lastFailure = null;
+        for (LevelRead<T> read : reads) {
+            if (read.abandon()) {
+                LOG.warn("Level " + read.level + " did not answer in " + (waitMillis + levelBudgetMillis) + "ms consuming " + topic + ", it was cancelled");
+                failed++;
+                continue;
+            }
+            try {
+                merged.addAll(read.messages.join());
+            } catch (CompletionException e) {
+                failed++;
+                lastFailure = e.getCause();
+            }
+        }
+        if (failed == reads.size()) {
+            throw new ConsumeException("Message could not be consumed from any backend", lastFailure);
+        }
+        return merged;
+    }
+
+    /**
+     * Waits until all the reads answered, or until the answer deadline is over.
+     */
+    private <T> void await(final List<LevelRead<T>> reads, final long answerDeadline) throws ConsumeException {
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[reads.size()];
+        for (int index = 0; index < pending.length; index++) {
+            pending[index] = reads.get(index).messages;
+        }
+        try {
+            CompletableFuture.allOf(pending).get(Math.max(0, answerDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // the reads are checked one by one
+        } catch (InterruptedException e) {
+            reads.forEach(LevelRead::abandon);
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted consuming", e);
+        }
+    }
+
+    /**
+     * @return the share of the options limits of a level, waiting up to waitMillis, or null if the share of messages of the level is none.
+     */
+    private ConsumeOptions levelOptions(final int level, final ConsumeOptions options, final long waitMillis) {
+        int levels = clientAdapters.size();
+        int maxRecords = options.getMaxRecords() == Integer.MAX_VALUE ? Integer.MAX_VALUE
+                : options.getMaxRecords() / levels + (level < options.getMaxRecords() % levels ? 1 : 0);
+        if (maxRecords == 0) {
+            return null;
+        }
+        long maxBytes = options.getMaxBytes() == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(1, options.getMaxBytes() / levels);
+        return new ConsumeOptions(maxRecords, maxBytes, waitMillis);
+    }
+
+    /**
+     * Reads one level on the executor. If the executor is full the read fails without affecting the circuit breaker of the level.
+     */
+    private <T> LevelRead<T> read(final int level, final String topic, final Consumption<T> consumption, final ConsumeOptions share,
+                                  final long waitDeadline, final long answerDeadline) {
+        LevelRead<T> read = new LevelRead<>(level, topic, consumption, share, waitDeadline, answerDeadline);
+        try {
+            read.task = executor.submit(read);
+        } catch (RejectedExecutionException e) {
+            read.fail(new ConsumeException("Too many levels being read, level " + level + " was not read", e));
+        }
+        return read;
+    }
+
+    /**
+     * Consume operation on one adapter.
+     */
+    private interface Consumption<T> {
+        List<T> consume(ConsumeClient adapter, ConsumeOptions options) throws ConsumeException;
+    }
+
+    /**
+     * Read of one level on a round. It is settled once, either by its result or by the round abandoning it.
+     */
+    private final class LevelRead<T> implements Runnable {
+        private final int level;
+        private final String topic;
+        private final Consumption<T> consumption;
+        private final ConsumeOptions share;
+        private final long waitDeadline;
+        private final long answerDeadline;
+        private final CompletableFuture<List<T>> messages = new CompletableFuture<>();
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private Future<?> task;
+
+        LevelRead(final int level, final String topic, final Consumption<T> consumption, final ConsumeOptions share,
+                  final long waitDeadline, final long answerDeadline) {
+            this.level = level;
+            this.topic = topic;
+            this.consumption = consumption;
+            this.share = share;
+            this.waitDeadline = waitDeadline;
+            this.answerDeadline = answerDeadline;
+        }
+
+        /**
+         * Consumes from the level if it can still answer in time and its circuit breaker allows it, waiting only the rest of the round wait.
+         */
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            if (settled.get() || started - answerDeadline >= 0) {
+                fail(new ConsumeException("Level " + level + " was not read in time"));
+                return;
+            }
+            CircuitBreaker breaker = breakers.get(level);
+            if (!breaker.tryAcquire()) {
+                fail(new ConsumeException("Circuit of level " + level + " is open"));
+                return;
+            }
+            long waitMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(waitDeadline - started));
+            boolean success = false;
+            try {
+                List<T> consumed = consumption.consume(clientAdapters.get(level),
+                        new ConsumeOptions(share.getMaxRecords(), share.getMaxBytes(), Math.min(share.getWaitMillis(), waitMillis)));
+                breaker.onSuccess();
+                success = true;
+                if (settled.compareAndSet(false, true)) {
+                    messages.complete(consumed);
+                } else if (!consumed.isEmpty()) {
+                    dropped.increment(consumed.size());
+                    LOG.warn("Dropped " + consumed.size() + " messages of topic " + topic + " consumed from level " + level + " after it was cancelled");
+                }
+            } catch (Exception e) {
+                breaker.onFailure();
+                LOG.error("Error trying to consume from level " + level, e);
+                fail(e);
+            } finally {
+                calls.get(level).record(topic, started, success);
+                StageLatencies.record(StageLatencies.Stage.ADAPTER, started);
+            }
+        }
+
+        void fail(final Exception e) {
+            if (settled.compareAndSet(false, true)) {
+                messages.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Abandons the read if it did not answer yet, cancelling it, or not starting it if it is still waiting for a thread.
+         * @return true if it was abandoned, false if it already answered.
+         */
+        boolean abandon() {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
+            }
+            if (task != null) {
+                task.cancel(true);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Closes all the Backing Services adapters
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        clientAdapters.forEach(client -> {
+            try {
+                client.close();
+            } catch (Exception e) {
+                LOG.warn("ConsumeClient could not be closed");
+            }
+        });
+    }
+}
@@ -10,34 +10,68 @@
 
 package com.manquius.twelvefactor.clients;
 
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Collections;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
 import static java.util.Optional.ofNullable;
 
 /**
  * {@link ConsumeClient} implementation for a Kafka Backing Service. It is the primary adapter into {@link CircuitBreakerConsumeClient}, the default {@link ConsumeClient} implementation.
+ * Every topic is polled by its own {@link KafkaTopicPoller}, and the requests only drain the records it prefetched.
+ * A poller can run many members of the consumer group, so the partitions of a topic are polled concurrently on a shared executor.
  * It can be configured using the following environment variables:
  * KAFKA_SERVICE_PROTOCOL default PLAINTEXT
  * TWELVEFACTOR_KAFKA_SERVICE_HOST default localhost
  * TWELVEFACTOR_KAFKA_SERVICE_PORT default 9092
+ * KAFKA_CONSUMER_CACHE_SIZE max number of polled topics, the least recently used is closed when exceeded. Default 100.
+ * KAFKA_CONSUMER_IDLE_MS time a topic can remain unconsumed before its poller is closed. Default 60000.
+ * KAFKA_POLL_TIMEOUT_MS max time a poll waits for records. Default 100.
+ * KAFKA_PREFETCH_MAX_RECORDS max number of prefetched records per topic before its partitions are paused. Default 10000.
+ * KAFKA_PREFETCH_MAX_BYTES max size of the prefetched records per topic before its partitions are paused. Default 16777216.
+ * KAFKA_CONSUME_MAX_RECORDS max number of records returned by a consume. Default 500.
+ * KAFKA_CONSUMER_MEMBERS number of group members polling every topic, capped by its partition count. Default 1.
+ * KAFKA_READER_POOL_SIZE max number of idle consumers kept for cursor reads. Default 4.
+ * Cursor reads do not use the poller nor the consumer group: a pooled consumer is assigned all the partitions of the topic and seeks the offsets of the cursor.
  */
 class KafkaConsumeClient implements ConsumeClient {
 
-    private final Map<String, String> properties;
-    private final Map<String, KafkaConsumer<String, String>> consumers;
     private static final Logger LOG = LoggerFactory.getLogger(KafkaConsumeClient.class);
+    private static final String HEALTH_TOPIC = "twelvefactor-health";
+
+    private final TopicCache<KafkaTopicPoller> pollers;
+    private final int maxRecords;
+    private final Function<String, Consumer<String, byte[]>> factory;
+    private final long pollTimeoutMillis;
+    private final BlockingQueue<Consumer<String, byte[]>> readers;
+    private final int members;
+    private final ExecutorService executor;
 
     /**
      * KafkaConsumeClient constructor
@@ -48,22 +82,86 @@ class KafkaConsumeClient implements ConsumeClient {
      * @throws ClientCreationException
      */
     public KafkaConsumeClient() throws ClientCreationException {
+        this(consumerFactory());
+    }
+
+    /**
+     * KafkaConsumeClient constructor with a custom consumer factory, used to run the adapter against in-process stand-ins.
+     * @param factory creates the {@link Consumer} of a topic. It is subscribed to the topic by the adapter.
+     */
+    KafkaConsumeClient(final Function<String, Consumer<String, byte[]>> factory) {
+        this.factory = factory;
+        this.pollTimeoutMillis = getLong("KAFKA_POLL_TIMEOUT_MS", 100);
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, getInt("KAFKA_READER_POOL_SIZE", 4)));
+        int prefetchRecords = getInt("KAFKA_PREFETCH_MAX_RECORDS", 10000);
+        long prefetchBytes = getLong("KAFKA_PREFETCH_MAX_BYTES", 16 * 1024 * 1024);
+        this.maxRecords = Math.max(1, getInt("KAFKA_CONSUME_MAX_RECORDS", 500));
+        this.members = Math.max(1, getInt("KAFKA_CONSUMER_MEMBERS", 1));
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "kafka-poller-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pollers = new TopicCache<>("kafka-pollers",
+                getInt("KAFKA_CONSUMER_CACHE_SIZE", 100),
+                getLong("KAFKA_CONSUMER_IDLE_MS", 60000),
+                topic -> members(topic).thenApply(count -> new KafkaTopicPoller(topic, factory, pollTimeoutMillis, prefetchRecords, prefetchBytes,
+                        count, executor)),
+                KafkaTopicPoller::close);
+    }
+
+    private static Function<String, Consumer<String, byte[]>> consumerFactory() throws ClientCreationException {
         try {
-            properties = new HashMap<>();
-            consumers = new HashMap<>();
+            Map<String, Object> properties = new HashMap<>();
             String protocol = ofNullable(System.getenv("KAFKA_SERVICE_PROTOCOL")).orElse("PLAINTEXT");
             String host = ofNullable(System.getenv("TWELVEFACTOR_KAFKA_SERVICE_HOST")).orElse("localhost");
             String port = ofNullable(System.getenv("TWELVEFACTOR_KAFKA_SERVICE_PORT")).orElse("9092");
             properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, protocol + "://" + host + ":" + port);
             properties.put(ConsumerConfig.CLIENT_ID_CONFIG, "consumer-service");
             properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-            properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+            properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
             properties.put(ConsumerConfig.GROUP_ID_CONFIG, "12factor");
             properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+            properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+            return topic -> new KafkaConsumer<>(properties);
         }catch (Exception e) {
             throw new ClientCreationException("Error creating KafkaClient", e);
         }
+    }
+
+    /**
+     * @return KAFKA_CONSUMER_MEMBERS capped by the partition count of the topic, as the extra members would not be assigned any partition.
+     * The partitions are fetched on the executor, so the blocking metadata request does not run inside the {@link TopicCache}.
+     */
+    private CompletableFuture<Integer> members(final String topic) {
+        if (members == 1) {
+            return CompletableFuture.completedFuture(1);
+        }
+        return CompletableFuture.supplyAsync(() -> partitionMembers(topic), executor);
+    }
 
+    /**
+     * @return KAFKA_CONSUMER_MEMBERS capped by the partition count of the topic. If the partitions cannot be fetched, the configured members are used.
+     */
+    private int partitionMembers(final String topic) {
+        Consumer<String, byte[]> reader = readers.poll();
+        boolean reusable = false;
+        try {
+            if (reader == null) {
+                reader = factory.apply(topic);
+            }
+            List<PartitionInfo> infos = reader.partitionsFor(topic);
+            reusable = true;
+            return infos == null || infos.isEmpty() ? members : Math.min(members, infos.size());
+        } catch (Exception e) {
+            LOG.warn("Partitions of " + topic + " could not be fetched. Polling it with " + members + " members.", e);
+            return members;
+        } finally {
+            if (reader != null && !(reusable && readers.offer(reader))) {
+                reader.close();
+            }
+        }
     }
 
     /**
@@ -73,42 +171,172 @@ class KafkaConsumeClient implements ConsumeClient {
      * @return {@link List} of {@link String} messages
      */
     @Override
-    public List<String> consume(final String topic) {
-        KafkaConsumer<String, String> client = getConsumer(topic);
+    public List<String> consume(final String topic) throws ConsumeException {
+        List<byte[]> records = consumeBytes(topic);
+        List<String> result = new ArrayList<>(records.size());
+        records.forEach(value -> result.add(new String(value, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary consume method implementation for Kafka backing service. The record values are returned as deserialized by {@link ByteArrayDeserializer}, without any copy.
+     * It only drains the records prefetched by the topic poller, so it does not wait for the broker.
+     * @param topic from where the message will be consumed.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(final String topic) throws ConsumeException {
+        try (TopicCache.Lease<KafkaTopicPoller> lease = pollers.acquire(topic)) {
+            return lease.get().join().drain(maxRecords);
+        } catch (CompletionException e) {
+            throw new ConsumeException("Error consuming from Kafka Topic: " + topic, e.getCause());
+        }
+    }
+
+    /**
+     * Binary long-poll consume method implementation for Kafka backing service. It waits for the topic poller until it prefetched records or the wait expires.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(final String topic, final ConsumeOptions options) throws ConsumeException {
+        try (TopicCache.Lease<KafkaTopicPoller> lease = pollers.acquire(topic)) {
+            return lease.get().join().drain(options);
+        } catch (CompletionException e) {
+            throw new ConsumeException("Error consuming from Kafka Topic: " + topic, e.getCause());
+        }
+    }
+
+    /**
+     * Cursor read method implementation for Kafka backing service. The cursor holds the next offset of every partition, and the partitions without offset are read from the beginning.
+     * A single poll waits up to the options wait, or KAFKA_POLL_TIMEOUT_MS if it is shorter, as the first poll of an assignment needs to fetch.
+     * Only the offsets are advanced by the returned records, so the records of the poll beyond the options limits are read again by the next read.
+     * @param topic from where the messages will be read.
+     * @param cursor returned by the previous read, or null to read from the beginning of every partition.
+     * @param options limits of the request.
+     * @throws ConsumeException if the messages could not be read.
+     * @return {@link CursorPage} with the binary messages and the next cursor.
+     */
+    @Override
+    public CursorPage<byte[]> read(final String topic, final String cursor, final ConsumeOptions options) throws ConsumeException {
+        Map<Integer, Long> offsets = offsets(cursor);
+        Consumer<String, byte[]> reader = readers.poll();
+        boolean reusable = false;
         try {
-            return TryToConsume(topic, client);
-        } catch(Exception e) {
-            LOG.debug("Consumer failed. Generating a new one.", e);
-            consumers.remove(topic);
-            client.close();
-            client = getConsumer(topic);
-            return TryToConsume(topic, client);
+            if (reader == null) {
+                reader = factory.apply(topic);
+            }
+            List<TopicPartition> partitions = new ArrayList<>();
+            List<PartitionInfo> infos = reader.partitionsFor(topic);
+            if (infos != null) {
+                infos.forEach(info -> partitions.add(new TopicPartition(topic, info.partition())));
+            }
+            reader.assign(partitions);
+            List<TopicPartition> unread = new ArrayList<>();
+            for (TopicPartition partition : partitions) {
+                Long offset = offsets.get(partition.partition());
+                if (offset == null) {
+                    unread.add(partition);
+                } else {
+                    reader.seek(partition, offset);
+                }
+            }
+            if (!unread.isEmpty()) {
+                reader.seekToBeginning(unread);
+            }
+            List<byte[]> result = new ArrayList<>();
+            if (!partitions.isEmpty()) {
+                ConsumerRecords<String, byte[]> records = reader.poll(Duration.ofMillis(Math.max(pollTimeoutMillis, options.getWaitMillis())));
+                long bytes = 0;
+                for (TopicPartition partition : records.partitions()) {
+                    for (ConsumerRecord<String, byte[]> record : records.records(partition)) {
+                        if (result.size() >= options.getMaxRecords() || bytes >= options.getMaxBytes()) {
+                            break;
+                        }
+                        result.add(record.value());
+                        bytes += record.value() == null ? 0 : record.value().length;
+                        offsets.put(partition.partition(), record.offset() + 1);
+                    }
+                }
+            }
+            reusable = true;
+            return new CursorPage<>(result, cursor(offsets));
+        } catch (Exception e) {
+            throw new ConsumeException("Error reading from Kafka Topic: " + topic, e);
+        } finally {
+            if (reader != null && !(reusable && readers.offer(reader))) {
+                reader.close();
+            }
         }
     }
 
-    private List<String> TryToConsume(String topic, KafkaConsumer<String, String> client) {
-        ConsumerRecords<String, String> records = client.poll(Duration.ofMillis(100));
-        LOG.debug("Records read from " + topic + ": " + records.count());
-        client.commitAsync();
-        List<String> result = new ArrayList<>();
-        records.forEach(v -> result.add(v.value()));
-        return result;
+    /**
+     * @return the partition offsets of a cursor, encoded as partition:offset pairs.
+     * @throws IllegalArgumentException if the cursor does not hold partition offsets.
+     */
+    private static Map<Integer, Long> offsets(final String cursor) {
+        Map<Integer, Long> offsets = new TreeMap<>();
+        String position = CursorPage.decodeText(cursor);
+        if (position == null || position.isEmpty()) {
+            return offsets;
+        }
+        for (String pair : position.split(",")) {
+            String[] values = pair.split(":");
+            if (values.length != 2) {
+                throw new IllegalArgumentException("Invalid Kafka cursor");
+            }
+            offsets.put(Integer.parseInt(values[0]), Long.parseLong(values[1]));
+        }
+        return offsets;
+    }
+
+    private static String cursor(final Map<Integer, Long> offsets) {
+        StringBuilder position = new StringBuilder();
+        offsets.forEach((partition, offset) -> {
+            if (position.length() > 0) {
+                position.append(',');
+            }
+            position.append(partition).append(':').append(offset);
+        });
+        return CursorPage.encode(position.toString());
     }
 
-    private KafkaConsumer<String, String> getConsumer(final String topic) {
-        if (!consumers.containsKey(topic)) {
-            KafkaConsumer<String, String> consumer = new KafkaConsumer(properties);
-            consumer.subscribe(Collections.singletonList(topic));
-            consumers.put(topic, consumer);
+    /**
+     * {@inheritDoc}
+     * It lists the topics with a pooled reader, waiting up to KAFKA_POLL_TIMEOUT_MS, so the group is not involved and no topic is created.
+     */
+    @Override
+    public void probe() throws ConsumeException {
+        Consumer<String, byte[]> reader = readers.poll();
+        boolean reusable = false;
+        try {
+            if (reader == null) {
+                reader = factory.apply(HEALTH_TOPIC);
+            }
+            reader.listTopics(Duration.ofMillis(pollTimeoutMillis));
+            reusable = true;
+        } catch (Exception e) {
+            throw new ConsumeException("Kafka is not reachable", e);
+        } finally {
+            if (reader != null && !(reusable && readers.offer(reader))) {
+                reader.close();
+            }
         }
-        return consumers.get(topic);
     }
 
     /**
-     * Closes kafka producer.
+     * Closes the topic pollers, the idle readers and their kafka consumers.
      */
     @Override
     public void close() {
-        consumers.values().forEach(KafkaConsumer::close);
+        pollers.close();
+        executor.shutdown();
+        Consumer<String, byte[]> reader;
+        while ((reader = readers.poll()) != null) {
+            reader.close();
+        }
     }
 }
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Owns the Kafka {@link Consumer}s of a topic. {@link Consumer} is not thread safe, so each one is only used from its own member poll loop,
+ * that prefetches the records into a lock-free queue drained by the requests.
+ * All the members join the same consumer group, so the broker splits the partitions between them and they are fetched concurrently.
+ * Every partition is polled by a single member, that adds its records in offset order, so the queue keeps the order of every partition.
+ * When the prefetched records reach the max records or the max bytes, the assigned partitions are paused, and they are resumed once the queue is drained below them.
+ * The limits are checked after every poll, so a single poll can exceed them by up to max.poll.records.
+ * Requests that find no prefetched records can wait for the members, that wake them up when a poll returns records.
+ * Only the offsets of the drained records are committed, so records that were prefetched but not drained are delivered again after a restart or rebalance.
+ * When partitions are revoked from a member, or its consumer is created again, the drained offsets of its partitions are committed and their prefetched records
+ * are dropped, so they are not delivered after the new owner starts, and stale offsets are never committed when the partitions come back.
+ */
+class KafkaTopicPoller implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaTopicPoller.class);
+
+    private final String topic;
+    private final Function<String, Consumer<String, byte[]>> factory;
+    private final Duration pollTimeout;
+    private final int maxRecords;
+    private final long maxBytes;
+    private final Queue<ConsumerRecord<String, byte[]>> records = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedRecords = new AtomicInteger();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final Map<TopicPartition, OffsetAndMetadata> drainedOffsets = new ConcurrentHashMap<>();
+    private final Object arrivals = new Object();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final List<Member> members = new ArrayList<>();
+    private final CountDownLatch stopped;
+    private volatile Exception failure;
+    private volatile boolean running = true;
+
+    /**
+     * KafkaTopicPoller constructor. It starts polling immediately.
+     * @param topic to be polled.
+     * @param factory creates the {@link Consumer}. It is subscribed to the topic by the poller, and created again if it fails.
+     * @param pollTimeoutMillis max time a poll waits for records.
+     * @param maxRecords max number of prefetched records before the partitions are paused.
+     * @param maxBytes max size of the prefetched records before the partitions are paused.
+     */
+    KafkaTopicPoller(final String topic, final Function<String, Consumer<String, byte[]>> factory,
+                     final long pollTimeoutMillis, final int maxRecords, final long maxBytes) {
+        this(topic, factory, pollTimeoutMillis, maxRecords, maxBytes, 1, runnable -> {
+            Thread thread = new Thread(runnable, "kafka-poller-" + topic);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * KafkaTopicPoller constructor with many group members. It starts polling immediately.
+     * @param topic to be polled.
+     * @param factory creates the {@link Consumer} of every member. It is subscribed to the topic by the poller, and created again if it fails.
+     * @param pollTimeoutMillis max time a poll waits for records.
+     * @param maxRecords max number of prefetched records before the partitions are paused.
+     * @param maxBytes max size of the prefetched records before the partitions are paused.
+     * @param members number of group members. Members beyond the partition count are not assigned any partition.
+     * @param executor runs the poll loop of every member until the poller is closed, so it needs a thread per member.
+     */
+    KafkaTopicPoller(final String topic, final Function<String, Consumer<String, byte[]>> factory,
+                     final long pollTimeoutMillis, final int maxRecords, final long maxBytes,
+                     final int members, final Executor executor) {
+        this.topic = topic;
+        this.factory = factory;
+        this.pollTimeout = Duration.ofMillis(pollTimeoutMillis);
+        this.maxRecords = Math.max(1, maxRecords);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.stopped = new CountDownLatch(Math.max(1, members));
+        for (int i = 0; i < Math.max(1, members); i++) {
+            Member member = new Member(i);
+            this.members.add(member);
+            executor.execute(member::run);
+        }
+    }
+
+    /**
+     * Takes up to max prefetched records. It does not wait for new records.
+     * @param max number of records to be returned.
+     * @return {@link List} of binary messages, in partition order.
+     * @throws ConsumeException if there are no prefetched records and the last poll failed.
+     */
+    List<byte[]> drain(final int max) throws ConsumeException {
+        return drain(new ConsumeOptions(max, 0, 0));
+    }
+
+    /**
+     * Takes the prefetched records within the limits of the options, waiting for the members until there is at least one of them or the wait expires.
+     * @param options limits of the request.
+     * @return {@link List} of binary messages, in partition order.
+     * @throws ConsumeException if there are no prefetched records and the last poll failed, or the wait was interrupted.
+     */
+    List<byte[]> drain(final ConsumeOptions options) throws ConsumeException {
+        long deadline = options.deadline();
+        List<byte[]> result = take(options);
+        while (result.isEmpty() && failure == null && deadline - System.nanoTime() > 0) {
+            waiting.incrementAndGet();
+            try {
+                synchronized (arrivals) {
+                    if (records.isEmpty()) {
+                        TimeUnit.NANOSECONDS.timedWait(arrivals, deadline - System.nanoTime());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConsumeException("Interrupted consuming from Kafka Topic: " + topic, e);
+            } finally {
+                waiting.decrementAndGet();
+            }
+            result = take(options);
+        }
+        Exception lastFailure = failure;
+        if (result.isEmpty() && lastFailure != null) {
+            throw new ConsumeException("Error consuming from Kafka Topic: " + topic, lastFailure);
+        }
+        return result;
+    }
+
+    private List<byte[]> take(final ConsumeOptions options) {
+        List<byte[]> result = new ArrayList<>(Math.min(options.getMaxRecords(), bufferedRecords.get()));
+        long bytes = 0;
+        ConsumerRecord<String, byte[]> record;
+        while (result.size() < options.getMaxRecords() && bytes < options.getMaxBytes() && (record = records.poll()) != null) {
+            long size = size(record);
+            bufferedRecords.decrementAndGet();
+            bufferedBytes.addAndGet(-size);
+            drainedOffsets.merge(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1),
+                    (current, next) -> next.offset() > current.offset() ? next : current);
+            result.add(record.value());
+            bytes += size;
+        }
+        return result;
+    }
+
+    /**
+     * @return number of prefetched records.
+     */
+    int getBufferedRecords() {
+        return bufferedRecords.get();
+    }
+
+    /**
+     * @return size of the prefetched records.
+     */
+    long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * Drops the prefetched records and the pending drained offsets of the given partitions.
+     */
+    private void purge(final Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        drainedOffsets.keySet().removeAll(partitions);
+        int dropped = 0;
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (partitions.contains(new TopicPartition(record.topic(), record.partition())) && records.remove(record)) {
+                bufferedRecords.decrementAndGet();
+                bufferedBytes.addAndGet(-size(record));
+                dropped++;
+            }
+        }
+        LOG.debug("Dropped " + dropped + " prefetched records of " + partitions);
+    }
+
+    private void backOff() {
+        try {
+            Thread.sleep(pollTimeout.toMillis());
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    private static long size(final ConsumerRecord<String, byte[]> record) {
+        return record.value() == null ? 0 : record.value().length;
+    }
+
+    /**
+     * @return number of group members.
+     */
+    int getMembers() {
+        return members.size();
+    }
+
+    /**
+     * Stops polling, commits the drained offsets and closes the {@link Consumer}s from their member poll loops.
+     */
+    @Override
+    public void close() {
+        running = false;
+        members.forEach(Member::wakeup);
+        try {
+            stopped.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Group member with its own {@link Consumer}, only used from its poll loop.
+     */
+    private final class Member implements ConsumerRebalanceListener {
+
+        private final int index;
+        private final Set<TopicPartition> assigned = new HashSet<>();
+        private volatile Consumer<String, byte[]> consumer;
+
+        private Member(final int index) {
+            this.index = index;
+        }
+
+        private void run() {
+            Thread current = Thread.currentThread();
+            String name = current.getName();
+            current.setName("kafka-poller-" + topic + "-" + index);
+            try {
+                poll();
+            } finally {
+                current.setName(name);
+                stopped.countDown();
+            }
+        }
+
+        private void poll() {
+            while (running) {
+                try {
+                    if (consumer == null) {
+                        consumer = factory.apply(topic);
+                        consumer.subscribe(Collections.singletonList(topic), this);
+                    }
+                    commitDrained();
+                    if (bufferedRecords.get() >= maxRecords || bufferedBytes.get() >= maxBytes) {
+                        consumer.pause(consumer.assignment());
+                    } else if (!consumer.paused().isEmpty()) {
+                        consumer.resume(consumer.paused());
+                    }
+                    ConsumerRecords<String, byte[]> polled = consumer.poll(pollTimeout);
+                    for (ConsumerRecord<String, byte[]> record : polled) {
+                        bufferedRecords.incrementAndGet();
+                        bufferedBytes.addAndGet(size(record));
+                        records.add(record);
+                    }
+                    failure = null;
+                    if (!polled.isEmpty() && waiting.get() > 0) {
+                        synchronized (arrivals) {
+                            arrivals.notifyAll();
+                        }
+                    }
+                } catch (WakeupException e) {
+                    LOG.debug("Poller of " + topic + " woken up.");
+                } catch (Exception e) {
+                    LOG.warn("Kafka consumer of " + topic + " failed. Generating a new one.", e);
+                    failure = e;
+                    synchronized (arrivals) {
+                        arrivals.notifyAll();
+                    }
+                    closeConsumer();
+                    backOff();
+                }
+            }
+            closeConsumer();
+        }
+
+        /**
+         * Commits the drained offsets of the revoked partitions, and drops their prefetched records. It runs inside the poll of this member.
+         */
+        @Override
+        public void onPartitionsRevoked(final Collection<TopicPartition> partitions) {
+            commitDrained(partitions);
+            purge(partitions);
+            assigned.removeAll(partitions);
+        }
+
+        /**
+         * Drops the prefetched records of the lost partitions. Their offsets cannot be committed, as other member may already own them.
+         */
+        @Override
+        public void onPartitionsLost(final Collection<TopicPartition> partitions) {
+            purge(partitions);
+            assigned.removeAll(partitions);
+        }
+
+        /**
+         * Drops the drained offsets left by a previous owner of the assigned partitions, so they cannot rewind the group.
+         */
+        @Override
+        public void onPartitionsAssigned(final Collection<TopicPartition> partitions) {
+            drainedOffsets.keySet().removeAll(partitions);
+            assigned.addAll(partitions);
+        }
+
+        /**
+         * @return the drained offsets of the given partitions, removed from the pending ones.
+         */
+        private Map<TopicPartition, OffsetAndMetadata> takeDrainedOffsets(final Collection<TopicPartition> partitions) {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = drainedOffsets.remove(partition);
+                if (offset != null) {
+                    offsets.put(partition, offset);
+                }
+            }
+            return offsets;
+        }
+
+        private void commitDrained() {
+            if (drainedOffsets.isEmpty()) {
+                return;
+            }
+            Map<TopicPartition, OffsetAndMetadata> offsets = takeDrainedOffsets(consumer.assignment());
+            if (offsets.isEmpty()) {
+                return;
+            }
+            consumer.commitAsync(offsets, (committed, e) -> {
+                if (e != null) {
+                    LOG.debug("Offsets of " + topic + " could not be committed.", e);
+                }
+            });
+        }
+
+        /**
+         * Commits synchronously the drained offsets of the given partitions.
+         */
+        private void commitDrained(final Collection<TopicPartition> partitions) {
+            try {
+                Map<TopicPartition, OffsetAndMetadata> offsets = takeDrainedOffsets(partitions);
+                if (!offsets.isEmpty()) {
+                    consumer.commitSync(offsets);
+                }
+            } catch (Exception e) {
+                LOG.debug("Offsets of " + topic + " could not be committed.", e);
+            }
+        }
+
+        /**
+         * Commits the drained offsets and drops the prefetched records of this member before closing its consumer,
+         * so a consumer created again does not leave records behind that another member may already poll.
+         */
+        private void closeConsumer() {
+            if (consumer == null) {
+                return;
+            }
+            Set<TopicPartition> owned = new HashSet<>(assigned);
+            assigned.clear();
+            try {
+                owned.addAll(consumer.assignment());
+            } catch (Exception e) {
+                LOG.debug("Assignment of " + topic + " could not be read.", e);
+            }
+            commitDrained(owned);
+            purge(owned);
+            try {
+                consumer.close();
+            } catch (Exception e) {
+                LOG.warn("Kafka consumer of " + topic + " could not be closed.", e);
+            }
+            consumer = null;
+        }
+
+        private void wakeup() {
+            Consumer<String, byte[]> current = consumer;
+            if (current != null) {
+                current.wakeup();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * {@link ConsumeClient} implementation that consumes the messages kept in the memory of the service, on the lock-free ring buffers of {@link MemoryTopics}.
+ * It has no backing service, so it is the throughput ceiling of the service to benchmark the other adapters against.
+ * It cannot be selected with CONSUME_CLIENT: nothing in the consumer service adds messages to the memory topics, and the producer service keeps its own,
+ * so it is only used by the tests and the benchmarks, that add the messages to the topics directly.
+ * It is configured using:
+ * MEMORY_POLL_INTERVAL_MICROS time between polls of an empty topic while a long-poll consume waits. Default 100.
+ */
+class MemoryConsumeClient implements ConsumeClient {
+
+    private final MemoryTopics topics;
+    private final long pollIntervalNanos;
+
+    /**
+     * MemoryConsumeClient constructor with custom topics, so tests and benchmarks can add the messages.
+     * @param topics where the messages are kept.
+     */
+    MemoryConsumeClient(final MemoryTopics topics) {
+        this.topics = topics;
+        this.pollIntervalNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, getLong("MEMORY_POLL_INTERVAL_MICROS", 100)));
+    }
+
+    /**
+     * Consume method implementation for memory topics, limited as {@link ConsumeOptions#DEFAULT}.
+     * @param topic from where the messages will be consumed.
+     * @return {@link List} of {@link String} messages
+     */
+    @Override
+    public List<String> consume(final String topic) {
+        return consume(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Binary consume method implementation for memory topics, limited as {@link ConsumeOptions#DEFAULT}.
+     * @param topic from where the messages will be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(final String topic) {
+        return consumeBytes(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Long-poll consume method implementation for memory topics, decoding the messages as UTF-8.
+     * @param topic from where the messages will be consumed.
+     * @param options limits of the request.
+     * @return {@link List} of {@link String} messages
+     */
+    @Override
+    public List<String> consume(final String topic, final ConsumeOptions options) {
+        List<byte[]> messages = consumeBytes(topic, options);
+        List<String> result = new ArrayList<>(messages.size());
+        messages.forEach(message -> result.add(new String(message, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary long-poll consume method implementation for memory topics. It takes the messages at the head of the topic within the options limits,
+     * polling the topic every MEMORY_POLL_INTERVAL_MICROS while it is empty, up to the options wait.
+     * @param topic from where the messages will be consumed.
+     * @param options limits of the request.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(final String topic, final ConsumeOptions options) {
+        List<byte[]> result = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getWaitMillis());
+        while (topics.drain(topic, result, options.getMaxRecords(), options.getMaxBytes()) == 0 && deadline - System.nanoTime() > 0) {
+            LockSupport.parkNanos(pollIntervalNanos);
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops all the kept messages.
+     */
+    @Override
+    public void close() {
+        topics.clear();
+    }
+}
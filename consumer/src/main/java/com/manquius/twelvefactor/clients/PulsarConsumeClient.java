@@ -15,41 +15,100 @@ import org.apache.pulsar.client.api.ConsumerBuilder;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.Consumer;
-import org.apache.pulsar.client.api.Messages;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Reader;
+import org.apache.pulsar.client.api.SubscriptionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getString;
 import static java.util.Optional.ofNullable;
 
 /**
  * {@link ConsumeClient} implementation for a Pulsar Backing Service.
+ * The topic consumers are long lived: they are subscribed on the first consume of a topic and kept in a bounded {@link TopicCache}.
+ * Configured with the environment variables:
+ * TWELVEFACTOR_PULSAR_PROXY_SERVICE_HOST default localhost
+ * TWELVEFACTOR_PULSAR_PROXY_SERVICE_PORT_PULSAR default 6650
+ * PULSAR_PROTO default pulsar
+ * PULSAR_CONSUMER_CACHE_SIZE max number of subscribed topic consumers, the least recently used is closed when exceeded. Default 100.
+ * PULSAR_CONSUMER_IDLE_MS time a consumer can remain unused before it is closed. Default 60000.
+ * PULSAR_SUBSCRIPTION_TYPE Exclusive, Shared, Failover or Key_Shared. Default Failover, so every replica can keep its consumer subscribed.
+ * Cursor reads do not use the subscription: every read opens a {@link Reader} on the message id of the cursor.
  */
 class PulsarConsumeClient implements ConsumeClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(PulsarConsumeClient.class);
+    private static final String SUBSCRIPTION = "12factor";
+    private static final String HEALTH_TOPIC = "twelvefactor-health";
     private final PulsarClient client;
-    private final ConsumerBuilder<String> builder;
+    private final SubscriptionType subscriptionType;
+    private final TopicCache<Consumer<byte[]>> consumers;
 
     /**
      * PulsarConsumeClient constructor
      * @throws ClientCreationException
      */
     public PulsarConsumeClient() throws ClientCreationException {
+        this(createClient(), subscriptionType());
+    }
+
+    private PulsarConsumeClient(final PulsarClient client, final SubscriptionType subscriptionType) {
+        this(client, subscriptionType, subscriber(client, subscriptionType));
+    }
+
+    /**
+     * PulsarConsumeClient constructor with a custom subscriber, used to run the adapter against in-process stand-ins.
+     * @param subscriber subscribes a {@link Consumer} to a topic.
+     */
+    PulsarConsumeClient(final Subscriber subscriber) {
+        this(null, subscriptionType(), subscriber);
+    }
+
+    private PulsarConsumeClient(final PulsarClient client, final SubscriptionType subscriptionType, final Subscriber subscriber) {
+        this.client = client;
+        this.subscriptionType = subscriptionType;
+        this.consumers = new TopicCache<>("pulsar-consumers",
+                getInt("PULSAR_CONSUMER_CACHE_SIZE", 100),
+                getLong("PULSAR_CONSUMER_IDLE_MS", 60000),
+                subscriber::subscribe,
+                Consumer::closeAsync);
+    }
+
+    private static PulsarClient createClient() throws ClientCreationException {
         String host = ofNullable(System.getenv("TWELVEFACTOR_PULSAR_PROXY_SERVICE_HOST")).orElse("localhost");
         String port = ofNullable(System.getenv("TWELVEFACTOR_PULSAR_PROXY_SERVICE_PORT_PULSAR")).orElse("6650");
         String protocol = ofNullable(System.getenv("PULSAR_PROTO")).orElse("pulsar");
         String pulsarBrokerRootUrl = protocol + "://" + host + ":" + port;
         try {
-            client = PulsarClient.builder().serviceUrl(pulsarBrokerRootUrl).build();
-            builder = client.newConsumer(Schema.STRING);
+            return PulsarClient.builder().serviceUrl(pulsarBrokerRootUrl).build();
         } catch (PulsarClientException e) {
             throw new ClientCreationException("Error creating pulsar client.", e);
         }
     }
 
+    private static SubscriptionType subscriptionType() {
+        return SubscriptionType.valueOf(getString("PULSAR_SUBSCRIPTION_TYPE", SubscriptionType.Failover.name()));
+    }
+
+    private static Subscriber subscriber(final PulsarClient client, final SubscriptionType subscriptionType) {
+        ConsumerBuilder<byte[]> builder = client.newConsumer(Schema.BYTES)
+                .subscriptionName(SUBSCRIPTION)
+                .subscriptionType(subscriptionType);
+        return topic -> builder.clone().topic(topic).subscribeAsync();
+    }
+
     /**
      * Consume method implementation for Pulsar backing service.
      * @param topic from where the message will be consumed.
@@ -58,24 +117,165 @@ class PulsarConsumeClient implements ConsumeClient {
      */
     @Override
     public List<String> consume(final String topic) throws ConsumeException {
-        try{
-            Consumer<String> consumer = builder.topic(topic).subscriptionName("12factor").subscribe();
-            Messages<String> messages = consumer.batchReceive();
-            consumer.acknowledge(messages);
-            consumer.close();
-            List<String> result = new ArrayList<>();
-            messages.forEach(stringMessage -> result.add(stringMessage.getValue()));
+        List<byte[]> messages = consumeBytes(topic);
+        List<String> result = new ArrayList<>(messages.size());
+        messages.forEach(value -> result.add(new String(value, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary consume method implementation for Pulsar backing service, within the {@link ConsumeOptions#DEFAULT} limits.
+     * @param topic from where the message will be consumed.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(final String topic) throws ConsumeException {
+        return consumeBytes(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Binary long-poll consume method implementation for Pulsar backing service. The messages are read with {@link Schema#BYTES}, so the payload is returned as it was produced.
+     * It waits for the first message up to the options wait, and then takes the messages already received by the consumer within the options limits.
+     * A batch receive policy is set per consumer, so it cannot apply the limits of each request. The messages are acknowledged asynchronously.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(final String topic, final ConsumeOptions options) throws ConsumeException {
+        try (TopicCache.Lease<Consumer<byte[]>> lease = consumers.acquire(topic)) {
+            Consumer<byte[]> consumer = lease.get().get();
+            List<byte[]> result = new ArrayList<>();
+            List<MessageId> ids = new ArrayList<>();
+            long bytes = 0;
+            Message<byte[]> message = consumer.receive((int) Math.min(Integer.MAX_VALUE, options.getWaitMillis()), TimeUnit.MILLISECONDS);
+            while (message != null) {
+                result.add(message.getValue());
+                ids.add(message.getMessageId());
+                bytes += message.getValue().length;
+                if (result.size() >= options.getMaxRecords() || bytes >= options.getMaxBytes()) {
+                    break;
+                }
+                message = consumer.receive(0, TimeUnit.MILLISECONDS);
+            }
+            acknowledge(topic, consumer, ids);
             return result;
-        } catch (PulsarClientException e) {
+        } catch (PulsarClientException | ExecutionException e) {
             throw new ConsumeException("Error consuming from Pulsar Topic: " + topic, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted consuming from Pulsar Topic: " + topic, e);
+        }
+    }
+
+    /**
+     * Cursor read method implementation for Pulsar backing service. The cursor holds the id of the last returned message, and a non durable {@link Reader} is opened after it,
+     * so the subscription is not involved and the reads can be repeated. It waits for the first message up to the options wait, and then takes the messages already received within the options limits.
+     * Readers do not support partitioned topics.
+     * @param topic from where the messages will be read.
+     * @param cursor returned by the previous read, or null to read from the earliest message.
+     * @param options limits of the request.
+     * @throws ConsumeException if the messages could not be read.
+     * @return {@link CursorPage} with the binary messages and the next cursor.
+     */
+    @Override
+    public CursorPage<byte[]> read(final String topic, final String cursor, final ConsumeOptions options) throws ConsumeException {
+        if (client == null) {
+            throw new UnsupportedOperationException("Cursor reads are not supported without a Pulsar client");
+        }
+        MessageId start = startMessageId(cursor);
+        try (Reader<byte[]> reader = client.newReader(Schema.BYTES).topic(topic).startMessageId(start).create()) {
+            List<byte[]> result = new ArrayList<>();
+            MessageId last = start;
+            long bytes = 0;
+            Message<byte[]> message = reader.readNext((int) Math.min(Integer.MAX_VALUE, options.getWaitMillis()), TimeUnit.MILLISECONDS);
+            while (message != null) {
+                result.add(message.getValue());
+                last = message.getMessageId();
+                bytes += message.getValue().length;
+                if (result.size() >= options.getMaxRecords() || bytes >= options.getMaxBytes()) {
+                    break;
+                }
+                message = reader.readNext(0, TimeUnit.MILLISECONDS);
+            }
+            return new CursorPage<>(result, last == MessageId.earliest ? cursor : CursorPage.encode(last.toByteArray()));
+        } catch (IOException e) {
+            throw new ConsumeException("Error reading from Pulsar Topic: " + topic, e);
+        }
+    }
+
+    /**
+     * @return the message id of the cursor, or the earliest one if there is no cursor.
+     * @throws IllegalArgumentException if the cursor is not a message id.
+     */
+    private static MessageId startMessageId(final String cursor) {
+        byte[] position = CursorPage.decode(cursor);
+        if (position == null) {
+            return MessageId.earliest;
+        }
+        try {
+            return MessageId.fromByteArray(position);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid Pulsar cursor", e);
         }
     }
 
     /**
-     * Closes Pulsar client.
+     * Acknowledges the consumed messages asynchronously, cumulatively up to the last one unless the subscription is Shared or Key_Shared, which do not support it.
+     */
+    private void acknowledge(final String topic, final Consumer<byte[]> consumer, final List<MessageId> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Void> acknowledged;
+        if (subscriptionType == SubscriptionType.Shared || subscriptionType == SubscriptionType.Key_Shared) {
+            acknowledged = CompletableFuture.allOf(ids.stream().map(consumer::acknowledgeAsync).toArray(CompletableFuture[]::new));
+        } else {
+            acknowledged = consumer.acknowledgeCumulativeAsync(ids.get(ids.size() - 1));
+        }
+        acknowledged.exceptionally(e -> {
+            LOG.warn("Error acknowledging Pulsar Topic: " + topic, e);
+            return null;
+        });
+    }
+
+    /**
+     * Subscribes a {@link Consumer} to a topic.
+     */
+    interface Subscriber {
+        CompletableFuture<Consumer<byte[]>> subscribe(String topic);
+    }
+
+    /**
+     * {@inheritDoc}
+     * It looks up the partitions of the health topic, which reaches a broker without creating the topic.
+     */
+    @Override
+    public void probe() throws ConsumeException {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.getPartitionsForTopic(HEALTH_TOPIC).get();
+        } catch (ExecutionException e) {
+            throw new ConsumeException("Pulsar is not reachable", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted probing Pulsar", e);
+        }
+    }
+
+    /**
+     * Closes the topic consumers and the Pulsar client.
      */
     @Override
     public void close() {
+        consumers.close();
+        if (client == null) {
+            return;
+        }
         try {
             client.close();
         } catch (Exception e) {
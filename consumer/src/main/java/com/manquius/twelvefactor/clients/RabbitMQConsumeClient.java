@@ -10,53 +10,114 @@
 
 package com.manquius.twelvefactor.clients;
 
-import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.GetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static java.util.Optional.ofNullable;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getString;
 
 /**
- * {@link ConsumeClient} implementation for a RabbitMQ Backing Service.
+ * {@link ConsumeClient} implementation for a RabbitMQ Backing Service. Every topic is a durable queue with the same name.
+ * Every consumed topic has its own {@link RabbitMQTopicConsumer}, a channel subscribed with basic consume, kept in a bounded {@link TopicCache}.
+ * The topic consumers are subscribed on a dedicated executor, so the blocking connect and subscription calls do not run inside the cache.
  * It can be configured using the following environment variables:
  *  TWELVEFACTOR_RABBITMQ_SERVICE_HOST default localhost
  *  TWELVEFACTOR_RABBITMQ_SERVICE_PORT default 5672
+ *  RABBITMQ_USERNAME default guest
+ *  RABBITMQ_PASSWORD default guest
+ *  RABBITMQ_VHOST default /
+ *  RABBITMQ_PREFETCH max number of unacknowledged messages pushed to each topic consumer. Default 500.
+ *  RABBITMQ_CONSUMER_CACHE_SIZE max number of subscribed topics, the least recently used is closed when exceeded. Default 100.
+ *  RABBITMQ_CONSUMER_IDLE_MS time a topic can remain unconsumed before its consumer is closed. Default 60000.
  */
 class RabbitMQConsumeClient implements ConsumeClient {
 
-    private final Connection conn;
+    private static final Logger LOG = LoggerFactory.getLogger(RabbitMQConsumeClient.class);
+
+    private final Connector connector;
+    private final ExecutorService subscriber;
+    private final TopicCache<RabbitMQTopicConsumer> consumers;
+    private Connection conn;
+
+    /**
+     * RabbitMQConsumeClient constructor. It connects with the environment variables on the first consume.
+     */
+    public RabbitMQConsumeClient() {
+        this(RabbitMQConsumeClient::connect);
+    }
+
+    /**
+     * RabbitMQConsumeClient constructor with a custom connector, used to run the adapter against in-process stand-ins.
+     * @param connector opens the {@link Connection} shared by the topic consumers. It is closed with the client.
+     */
+    RabbitMQConsumeClient(final Connector connector) {
+        this.connector = connector;
+        int prefetch = getInt("RABBITMQ_PREFETCH", 500);
+        AtomicInteger threads = new AtomicInteger();
+        this.subscriber = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "rabbitmq-subscriber-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.consumers = new TopicCache<>("rabbitmq-consumers",
+                getInt("RABBITMQ_CONSUMER_CACHE_SIZE", 100),
+                getLong("RABBITMQ_CONSUMER_IDLE_MS", 60000),
+                topic -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return new RabbitMQTopicConsumer(topic, getConnection(), prefetch);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, subscriber),
+                RabbitMQTopicConsumer::close);
+    }
+
+    private synchronized Connection getConnection() throws IOException {
+        if (conn == null) {
+            conn = connector.connect();
+        }
+        return conn;
+    }
 
     /**
-     * KafkaConsumeClient constructor
-     *  It can be configured using the following environment variables:
-     *  KAFKA_SERVICE_PROTOCOL default PLAINTEXT
-     *  TWELVEFACTOR_RABBITMQ_SERVICE_HOST default localhost
-     *  TWELVEFACTOR_RABBITMQ_SERVICE_PORT default 5672
-     * @throws ClientCreationException
+     * Opens a connection with the environment variables. The connection and its channels are recovered automatically after network failures.
      */
-    public RabbitMQConsumeClient() throws ClientCreationException {
+    private static Connection connect() throws IOException {
         try {
             ConnectionFactory factory = new ConnectionFactory();
-            String hostname = ofNullable(System.getenv("TWELVEFACTOR_RABBITMQ_SERVICE_HOST")).orElse("localhost");
-            String port = ofNullable(System.getenv("TWELVEFACTOR_RABBITMQ_SERVICE_PORT")).orElse("5672");
-
-            factory.setUri("amqp://userName:password@\" + hostname + \":" + port + "/virtualHost");
-            conn = factory.newConnection();
-        } catch (URISyntaxException | NoSuchAlgorithmException | KeyManagementException | TimeoutException | IOException e) {
-            throw new ClientCreationException("Error creating RabbitMQ client", e);
+            factory.setHost(getString("TWELVEFACTOR_RABBITMQ_SERVICE_HOST", "localhost"));
+            factory.setPort(getInt("TWELVEFACTOR_RABBITMQ_SERVICE_PORT", 5672));
+            factory.setUsername(getString("RABBITMQ_USERNAME", "guest"));
+            factory.setPassword(getString("RABBITMQ_PASSWORD", "guest"));
+            factory.setVirtualHost(getString("RABBITMQ_VHOST", "/"));
+            factory.setAutomaticRecoveryEnabled(true);
+            return factory.newConnection("consumer-service");
+        } catch (TimeoutException e) {
+            throw new IOException("Timeout connecting to RabbitMQ", e);
         }
     }
 
+    /**
+     * Opens a RabbitMQ {@link Connection}.
+     */
+    interface Connector {
+        Connection connect() throws IOException;
+    }
+
     /**
      * Consume method implementation for RabbitMQ backing service.
      * @param topic from where the message will be consumed.
@@ -65,25 +126,74 @@ class RabbitMQConsumeClient implements ConsumeClient {
      */
     @Override
     public List<String> consume(String topic) throws ConsumeException {
+        List<byte[]> messages = consumeBytes(topic);
+        List<String> result = new ArrayList<>(messages.size());
+        messages.forEach(value -> result.add(new String(value, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary consume method implementation for RabbitMQ backing service. The message bodies are returned as they are.
+     * It only drains the messages already pushed to the topic consumer, within the {@link ConsumeOptions#DEFAULT} limits, so it does not wait for the broker.
+     * @param topic from where the message will be consumed.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic) throws ConsumeException {
+        return consumeBytes(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Binary long-poll consume method implementation for RabbitMQ backing service. It waits for the topic consumer until a message is pushed or the wait expires.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic, ConsumeOptions options) throws ConsumeException {
+        try (TopicCache.Lease<RabbitMQTopicConsumer> lease = consumers.acquire(topic)) {
+            return lease.get().join().drain(options);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted consuming from RabbitMQ topic: " + topic, e);
+        } catch (CompletionException e) {
+            throw new ConsumeException("Error consuming from RabbitMQ topic: " + topic, e.getCause());
+        } catch (IOException e) {
+            throw new ConsumeException("Error consuming from RabbitMQ topic: " + topic, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * It opens the connection if it was not open yet, and checks it is still open. The connection is recovered automatically, so it is closed while RabbitMQ is not reachable.
+     */
+    @Override
+    public void probe() throws ConsumeException {
         try {
-            Channel channel = conn.createChannel();
-            List<String> result = new ArrayList<>();
-            while(channel.consumerCount(topic) >0){
-                GetResponse response = channel.basicGet(topic, true);
-                String message = Arrays.toString(response.getBody());
-                result.add(message);
+            if (!getConnection().isOpen()) {
+                throw new ConsumeException("RabbitMQ connection is closed");
             }
-            return result;
         } catch (IOException e) {
-            throw new ConsumeException("Error consuming from RabbitMQ topic: " + topic, e);
+            throw new ConsumeException("RabbitMQ is not reachable", e);
         }
     }
 
     /**
-     * Closes RabbitMQ connection.
+     * Closes the topic consumers and the RabbitMQ connection.
      */
     @Override
-    public void close() throws Exception {
-        conn.close();
+    public synchronized void close() {
+        consumers.close();
+        subscriber.shutdown();
+        try {
+            if (conn != null && conn.isOpen()) {
+                conn.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("RabbitMQ connection could not be closed.", e);
+        }
+        conn = null;
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push consumer of a RabbitMQ queue. It keeps its own channel subscribed with basic consume, and the broker pushes up to the prefetch count of unacknowledged messages into its buffer,
+ * so requests only drain the buffer instead of asking the broker for every message.
+ * Drained messages are acknowledged together, with a single multiple ack of the last delivery tag.
+ * If the channel is closed by the broker it subscribes again on the next drain, releasing the old channel and its buffer, and the unacknowledged messages are delivered again.
+ */
+class RabbitMQTopicConsumer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RabbitMQTopicConsumer.class);
+
+    private final String topic;
+    private final Connection connection;
+    private final int prefetch;
+    private volatile Subscription subscription;
+
+    /**
+     * RabbitMQTopicConsumer constructor. It declares the durable queue of the topic and subscribes to it.
+     * @param topic queue name.
+     * @param connection shared connection where the channel is created.
+     * @param prefetch max number of unacknowledged messages pushed by the broker, which bounds the buffer.
+     * @throws IOException if the channel could not be subscribed.
+     */
+    RabbitMQTopicConsumer(final String topic, final Connection connection, final int prefetch) throws IOException {
+        this.topic = topic;
+        this.connection = connection;
+        this.prefetch = Math.max(1, prefetch);
+        this.subscription = subscribe();
+    }
+
+    private Subscription subscribe() throws IOException {
+        Channel channel = connection.createChannel();
+        channel.queueDeclare(topic, true, false, false, null);
+        channel.basicQos(prefetch);
+        Subscription created = new Subscription(channel, new LinkedBlockingQueue<>(prefetch));
+        channel.basicConsume(topic, false, new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(final String consumerTag, final Envelope envelope, final AMQP.BasicProperties properties, final byte[] body) {
+                if (!created.buffer.offer(new Delivery(envelope, properties, body))) {
+                    LOG.warn("Buffer of " + topic + " is full. The delivery will be sent again when the channel is closed.");
+                }
+            }
+        });
+        return created;
+    }
+
+    private synchronized Subscription getSubscription() throws IOException {
+        if (!subscription.channel.isOpen()) {
+            LOG.warn("Channel of " + topic + " was closed. Subscribing again.");
+            subscription.abort();
+            subscription = subscribe();
+        }
+        return subscription;
+    }
+
+    /**
+     * Drains the buffered messages within the options limits, waiting up to the options wait for the first one, and acknowledges them.
+     * @return drained message bodies, in delivery order.
+     * @throws IOException if the messages could not be acknowledged.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    List<byte[]> drain(final ConsumeOptions options) throws IOException, InterruptedException {
+        Subscription current = getSubscription();
+        List<byte[]> result = new ArrayList<>();
+        Delivery delivery = current.buffer.poll(options.getWaitMillis(), TimeUnit.MILLISECONDS);
+        long lastTag = -1;
+        long bytes = 0;
+        while (delivery != null) {
+            result.add(delivery.getBody());
+            lastTag = delivery.getEnvelope().getDeliveryTag();
+            bytes += delivery.getBody().length;
+            if (result.size() >= options.getMaxRecords() || bytes >= options.getMaxBytes()) {
+                break;
+            }
+            delivery = current.buffer.poll();
+        }
+        current.acknowledge(lastTag);
+        return result;
+    }
+
+    /**
+     * @return number of messages pushed by the broker and not drained yet.
+     */
+    int getBufferedMessages() {
+        return subscription.buffer.size();
+    }
+
+    /**
+     * Closes the channel. The buffered messages were not acknowledged, so the broker delivers them again.
+     */
+    @Override
+    public void close() {
+        try {
+            if (subscription.channel.isOpen()) {
+                subscription.channel.close();
+            }
+        } catch (Exception e) {
+            LOG.warn("Channel of " + topic + " could not be closed.", e);
+        }
+    }
+
+    private static final class Subscription {
+        private final Channel channel;
+        private final BlockingQueue<Delivery> buffer;
+        private long acknowledgedTag = -1;
+
+        private Subscription(final Channel channel, final BlockingQueue<Delivery> buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Releases the channel and drops the buffered deliveries, which the broker delivers again as they were not acknowledged.
+         * The channel is aborted instead of closed, so a channel already closed by the broker does not fail.
+         */
+        private void abort() {
+            buffer.clear();
+            try {
+                channel.abort();
+            } catch (IOException e) {
+                LOG.debug("Channel could not be aborted.", e);
+            }
+        }
+
+        /**
+         * Acknowledges all the deliveries up to the given tag. The buffer is drained in order, so every lower tag was drained too.
+         * Concurrent drains may finish out of order, and a tag is never acknowledged twice, as the broker closes the channel on unknown tags.
+         */
+        private synchronized void acknowledge(final long tag) throws IOException {
+            if (tag > acknowledgedTag) {
+                channel.basicAck(tag, true);
+                acknowledgedTag = tag;
+            }
+        }
+    }
+}
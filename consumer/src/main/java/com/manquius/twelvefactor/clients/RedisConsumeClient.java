@@ -12,13 +12,20 @@ package com.manquius.twelvefactor.clients;
 
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
 import static java.util.Optional.ofNullable;
 
 /**
@@ -35,11 +42,43 @@ class RedisConsumeClient implements ConsumeClient {
      */
     public static final int REDIS_DEFAULT_PORT = 6379;
 
-    private StatefulRedisConnection<String, String> connection;
-    private RedisCommands<String, String> sync;
+    /**
+     * Pops up to ARGV[1] messages from the tail of the KEYS[1] list, stopping once they reach ARGV[2] bytes, and returns them oldest first.
+     */
+    private static final String POP_SCRIPT =
+            "local items = redis.call('LRANGE', KEYS[1], -tonumber(ARGV[1]), -1) "
+            + "local maxBytes = tonumber(ARGV[2]) "
+            + "local result = {} "
+            + "local bytes = 0 "
+            + "for i = #items, 1, -1 do "
+            + "  result[#result + 1] = items[i] "
+            + "  bytes = bytes + string.len(items[i]) "
+            + "  if bytes >= maxBytes then break end "
+            + "end "
+            + "if #result > 0 then redis.call('LTRIM', KEYS[1], 0, -#result - 1) end "
+            + "return result";
+
+    private RedisClient redisClient;
+    private StatefulRedisConnection<String, byte[]> connection;
+    private RedisCommands<String, byte[]> sync;
     private final RedisURI redisUri;
 
     public RedisConsumeClient() throws ClientCreationException {
+        this(environmentUri());
+    }
+
+    /**
+     * RedisConsumeClient constructor for a given Redis server.
+     * @param redisUri {@link RedisURI} of the Redis server.
+     */
+    RedisConsumeClient(final RedisURI redisUri) {
+        this.redisUri = redisUri;
+    }
+
+    /**
+     * Reads the {@link RedisURI} of the Redis server from the environment variables, shared by the Redis adapters.
+     */
+    static RedisURI environmentUri() {
         String host = System.getenv("TWELVEFACTOR_REDIS_MASTER_SERVICE_HOST");
         LOG.debug("Reading Redis host configuration from TWELVEFACTOR_REDIS_MASTER_SERVICE_HOST: " + host);
         if(host == null){
@@ -68,15 +107,18 @@ class RedisConsumeClient implements ConsumeClient {
                 port = REDIS_DEFAULT_PORT;
             }
         }
-        redisUri = RedisURI.Builder.redis(host)
+        return RedisURI.Builder.redis(host)
                 .withPort(port)
                 .build();
     }
 
-    private RedisCommands<String, String> getCommands() {
+    /**
+     * Connects lazily, with String keys and binary values, so the messages are read without any charset conversion.
+     */
+    private synchronized RedisCommands<String, byte[]> getCommands() {
         if (sync == null) {
-            RedisClient redisClient = RedisClient.create(redisUri);
-            StatefulRedisConnection<String, String> connection = redisClient.connect();
+            redisClient = RedisClient.create(redisUri);
+            connection = redisClient.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
             sync = connection.sync();
         }
         return sync;
@@ -90,18 +132,83 @@ class RedisConsumeClient implements ConsumeClient {
      */
     @Override
     public List<String> consume(String topic) throws ConsumeException {
+        List<byte[]> messages = consumeBytes(topic);
+        List<String> result = new ArrayList<>(messages.size());
+        messages.forEach(value -> result.add(new String(value, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary consume method implementation for Redis backing service. It pops up to {@link ConsumeOptions#DEFAULT} messages without waiting.
+     * @param topic from where the message will be consumed.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic) throws ConsumeException {
+        return consumeBytes(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Binary long-poll consume method implementation for Redis backing service. The messages are popped from the tail of the topic list, in the order they were produced,
+     * by a single script that reads and trims the list atomically, so the cost of a consume depends on the batch and not on the list length.
+     * The shared connection cannot be blocked, so while the list is empty it is checked again every LONG_POLL_INTERVAL_MS (default 10) until the wait expires.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic, ConsumeOptions options) throws ConsumeException {
+        long deadline = options.deadline();
+        long intervalMillis = Math.max(1, getLong("LONG_POLL_INTERVAL_MS", 10L));
         try {
-            return getCommands().lrange("key", 0, -1);
-        }catch (Exception e) {
+            List<byte[]> result = pop(topic, options);
+            while (result.isEmpty() && deadline - System.nanoTime() > 0) {
+                Thread.sleep(Math.min(intervalMillis, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+                result = pop(topic, options);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted consuming from Redis.", e);
+        } catch (Exception e) {
             throw new ConsumeException("Error consuming from Redis.", e);
         }
     }
 
+    private List<byte[]> pop(String topic, ConsumeOptions options) {
+        List<Object> popped = getCommands().eval(POP_SCRIPT, ScriptOutputType.MULTI, new String[]{topic},
+                Integer.toString(options.getMaxRecords()).getBytes(StandardCharsets.US_ASCII),
+                Long.toString(options.getMaxBytes()).getBytes(StandardCharsets.US_ASCII));
+        List<byte[]> result = new ArrayList<>(popped.size());
+        popped.forEach(message -> result.add((byte[]) message));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * It sends a PING on the shared connection.
+     */
+    @Override
+    public void probe() throws ConsumeException {
+        try {
+            getCommands().ping();
+        } catch (RuntimeException e) {
+            throw new ConsumeException("Redis is not reachable", e);
+        }
+    }
+
     /**
      * Closes Redis connection.
      */
     @Override
-    public void close() {
-        connection.close();
+    public synchronized void close() {
+        if (connection != null) {
+            connection.close();
+            redisClient.shutdown();
+            connection = null;
+            sync = null;
+        }
     }
 }
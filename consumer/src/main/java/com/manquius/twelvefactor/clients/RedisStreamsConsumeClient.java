@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.lettuce.core.Consumer;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XGroupCreateArgs;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getString;
+import static java.util.Optional.ofNullable;
+
+/**
+ * {@link ConsumeClient} implementation for a Redis Streams Backing Service. Every topic is a stream, read with XREADGROUP by a consumer group shared by all the replicas,
+ * so every message is delivered to one of them and each read only costs the returned batch.
+ * The messages are acknowledged with XACK before they are returned. Messages that were read but left out by the byte limit stay pending, and are returned first on the next consume.
+ * Entries left pending by other consumers, like a replica that died between XREADGROUP and XACK, are found with XPENDING and taken over with XCLAIM once they are idle
+ * for REDIS_STREAMS_CLAIM_IDLE_MS. XCLAIM returns them, so they are returned as the entries read by this consumer.
+ * It can be configured using the following environment variables:
+ * TWELVEFACTOR_REDIS_MASTER_SERVICE_HOST or TWELVEFACTOR_REDIS_ANNOUNCE_0_SERVICE_HOST default localhost
+ * TWELVEFACTOR_REDIS_MASTER_SERVICE_PORT or TWELVEFACTOR_REDIS_ANNOUNCE_0_SERVICE_PORT default 6379
+ * REDIS_STREAMS_GROUP consumer group name. Default 12factor.
+ * REDIS_STREAMS_CONSUMER consumer name within the group. Default HOSTNAME, or a random name if it is not set.
+ * REDIS_STREAMS_MAX_COUNT max number of entries read by a single XREADGROUP or XREAD. Default 1000.
+ * REDIS_STREAMS_CLAIM_IDLE_MS time an entry pending on another consumer must be idle to be claimed. Each topic is checked with XPENDING at most once per this time. Zero disables claiming. Default 60000.
+ * Cursor reads use XREAD from the entry id of the cursor instead, without the consumer group.
+ */
+class RedisStreamsConsumeClient implements ConsumeClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisStreamsConsumeClient.class);
+    /**
+     * Field of the stream entries that holds the message. It must match the producer one.
+     */
+    static final String MESSAGE_FIELD = "message";
+
+    private RedisClient redisClient;
+    private StatefulRedisConnection<String, byte[]> connection;
+    private RedisCommands<String, byte[]> sync;
+    private final RedisURI redisUri;
+    private final String group;
+    private final Consumer<String> consumer;
+    private final int maxCount;
+    private final long claimIdleMillis;
+    private final Map<String, TopicState> topics = new ConcurrentHashMap<>();
+
+    public RedisStreamsConsumeClient() throws ClientCreationException {
+        this(RedisConsumeClient.environmentUri());
+    }
+
+    /**
+     * RedisStreamsConsumeClient constructor for a given Redis server.
+     * @param redisUri {@link RedisURI} of the Redis server.
+     */
+    RedisStreamsConsumeClient(final RedisURI redisUri) {
+        this.redisUri = redisUri;
+        this.group = getString("REDIS_STREAMS_GROUP", "12factor");
+        String name = getString("REDIS_STREAMS_CONSUMER", ofNullable(System.getenv("HOSTNAME")).orElse(UUID.randomUUID().toString()));
+        this.consumer = Consumer.from(group, name);
+        this.maxCount = Math.max(1, getInt("REDIS_STREAMS_MAX_COUNT", 1000));
+        this.claimIdleMillis = Math.max(0, getLong("REDIS_STREAMS_CLAIM_IDLE_MS", 60000));
+    }
+
+    /**
+     * RedisStreamsConsumeClient constructor for given commands, so the adapter can be tested without a Redis server.
+     * @param commands {@link RedisCommands} used instead of a connection.
+     */
+    RedisStreamsConsumeClient(final RedisCommands<String, byte[]> commands) {
+        this((RedisURI) null);
+        this.sync = commands;
+    }
+
+    /**
+     * Connects lazily, with String keys and binary values, so the messages are read without any charset conversion.
+     */
+    private synchronized RedisCommands<String, byte[]> getCommands() {
+        if (sync == null) {
+            redisClient = RedisClient.create(redisUri);
+            connection = redisClient.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+            sync = connection.sync();
+        }
+        return sync;
+    }
+
+    /**
+     * Consume method implementation for Redis Streams backing service.
+     * @param topic from where the message will be consumed.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of {@link String} messages
+     */
+    @Override
+    public List<String> consume(String topic) throws ConsumeException {
+        List<byte[]> messages = consumeBytes(topic);
+        List<String> result = new ArrayList<>(messages.size());
+        messages.forEach(value -> result.add(new String(value, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    /**
+     * Binary consume method implementation for Redis Streams backing service. It reads up to {@link ConsumeOptions#DEFAULT} messages without waiting.
+     * @param topic from where the message will be consumed.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic) throws ConsumeException {
+        return consumeBytes(topic, ConsumeOptions.DEFAULT);
+    }
+
+    /**
+     * Binary long-poll consume method implementation for Redis Streams backing service.
+     * The shared connection cannot be blocked, so XREADGROUP is not sent with BLOCK: while there are no new entries it is sent again every LONG_POLL_INTERVAL_MS (default 10) until the wait expires.
+     * @param topic from where the message will be consumed.
+     * @param options limits of the request.
+     * @throws ConsumeException if the message could not be consumed.
+     * @return {@link List} of binary messages
+     */
+    @Override
+    public List<byte[]> consumeBytes(String topic, ConsumeOptions options) throws ConsumeException {
+        long deadline = options.deadline();
+        long intervalMillis = Math.max(1, getLong("LONG_POLL_INTERVAL_MS", 10L));
+        TopicState state = topics.computeIfAbsent(topic, key -> new TopicState());
+        try {
+            List<byte[]> result = read(topic, state, options);
+            while (result.isEmpty() && deadline - System.nanoTime() > 0) {
+                Thread.sleep(Math.min(intervalMillis, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+                result = read(topic, state, options);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted consuming from Redis Streams.", e);
+        } catch (Exception e) {
+            throw new ConsumeException("Error consuming from Redis Streams topic: " + topic, e);
+        }
+    }
+
+    /**
+     * Reads the pending entries of this consumer, or the ones claimed from other consumers, or the new ones if there are none, and acknowledges the ones returned.
+     * The reads of a topic are serialized, so concurrent requests never get the same pending entries.
+     */
+    private List<byte[]> read(String topic, TopicState state, ConsumeOptions options) {
+        synchronized (state) {
+            RedisCommands<String, byte[]> commands = getCommands();
+            try {
+                if (!state.groupCreated) {
+                    createGroup(commands, topic);
+                    state.groupCreated = true;
+                }
+                int count = Math.min(options.getMaxRecords(), maxCount);
+                XReadArgs args = XReadArgs.Builder.count(count);
+                List<StreamMessage<String, byte[]>> entries = Collections.emptyList();
+                if (!state.pending && claimIdleMillis > 0 && System.nanoTime() - state.nextClaim >= 0) {
+                    state.nextClaim = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(claimIdleMillis);
+                    entries = claim(commands, topic, count);
+                }
+                if (state.pending) {
+                    entries = commands.xreadgroup(consumer, args, offsets(XReadArgs.StreamOffset.from(topic, "0")));
+                    state.pending = !entries.isEmpty();
+                }
+                if (entries.isEmpty()) {
+                    entries = commands.xreadgroup(consumer, args, offsets(XReadArgs.StreamOffset.lastConsumed(topic)));
+                }
+                List<byte[]> result = new ArrayList<>(entries.size());
+                List<String> ids = new ArrayList<>(entries.size());
+                long bytes = 0;
+                for (StreamMessage<String, byte[]> entry : entries) {
+                    if (bytes >= options.getMaxBytes()) {
+                        state.pending = true;
+                        break;
+                    }
+                    ids.add(entry.getId());
+                    byte[] message = entry.getBody() == null ? null : entry.getBody().get(MESSAGE_FIELD);
+                    if (message == null) {
+                        LOG.debug("Skipping trimmed or foreign entry " + entry.getId() + " of " + topic);
+                        continue;
+                    }
+                    result.add(message);
+                    bytes += message.length;
+                }
+                if (!ids.isEmpty()) {
+                    commands.xack(topic, group, ids.toArray(new String[0]));
+                }
+                return result;
+            } catch (RuntimeException e) {
+                state.groupCreated = false;
+                state.pending = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Claims the entries pending on other consumers of the group that are idle for REDIS_STREAMS_CLAIM_IDLE_MS.
+     * XCLAIM checks the idle time again, so an entry is never taken from a consumer that read it meanwhile.
+     * @return the claimed entries, now pending on this consumer.
+     */
+    private List<StreamMessage<String, byte[]>> claim(RedisCommands<String, byte[]> commands, String topic, int count) {
+        List<String> ids = new ArrayList<>();
+        for (Object pending : commands.xpending(topic, group, Range.create("-", "+"), Limit.from(count))) {
+            // entries of id, consumer, idle time and delivery count. The bulk strings are decoded by the byte[] value codec
+            List<?> entry = (List<?>) pending;
+            if (!consumer.getName().equals(text(entry.get(1))) && ((Number) entry.get(2)).longValue() >= claimIdleMillis) {
+                ids.add(text(entry.get(0)));
+            }
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<StreamMessage<String, byte[]>> claimed = commands.xclaim(topic, consumer, claimIdleMillis, ids.toArray(new String[0]));
+        if (!claimed.isEmpty()) {
+            LOG.info("Claimed " + claimed.size() + " idle entries of other consumers of " + topic);
+        }
+        return claimed;
+    }
+
+    private static String text(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    /**
+     * Cursor read method implementation for Redis Streams backing service. The cursor holds the id of the last returned entry, and the entries after it are read with XREAD,
+     * so the consumer group is not involved and the reads can be repeated. While there are no new entries XREAD is sent again every LONG_POLL_INTERVAL_MS (default 10) until the wait expires.
+     * @param topic from where the messages will be read.
+     * @param cursor returned by the previous read, or null to read from the beginning of the stream.
+     * @param options limits of the request.
+     * @throws ConsumeException if the messages could not be read.
+     * @return {@link CursorPage} with the binary messages and the next cursor.
+     */
+    @Override
+    public CursorPage<byte[]> read(String topic, String cursor, ConsumeOptions options) throws ConsumeException {
+        String lastId = ofNullable(CursorPage.decodeText(cursor)).orElse("0-0");
+        long deadline = options.deadline();
+        long intervalMillis = Math.max(1, getLong("LONG_POLL_INTERVAL_MS", 10L));
+        try {
+            XReadArgs args = XReadArgs.Builder.count(Math.min(options.getMaxRecords(), maxCount));
+            List<StreamMessage<String, byte[]>> entries = getCommands().xread(args, offsets(XReadArgs.StreamOffset.from(topic, lastId)));
+            while (entries.isEmpty() && deadline - System.nanoTime() > 0) {
+                Thread.sleep(Math.min(intervalMillis, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+                entries = getCommands().xread(args, offsets(XReadArgs.StreamOffset.from(topic, lastId)));
+            }
+            List<byte[]> result = new ArrayList<>(entries.size());
+            long bytes = 0;
+            for (StreamMessage<String, byte[]> entry : entries) {
+                if (bytes >= options.getMaxBytes()) {
+                    break;
+                }
+                lastId = entry.getId();
+                byte[] message = entry.getBody() == null ? null : entry.getBody().get(MESSAGE_FIELD);
+                if (message != null) {
+                    result.add(message);
+                    bytes += message.length;
+                }
+            }
+            return new CursorPage<>(result, CursorPage.encode(lastId));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsumeException("Interrupted reading from Redis Streams.", e);
+        } catch (Exception e) {
+            throw new ConsumeException("Error reading from Redis Streams topic: " + topic, e);
+        }
+    }
+
+    /**
+     * Creates the consumer group from the start of the stream, creating the stream if it does not exist.
+     */
+    private void createGroup(RedisCommands<String, byte[]> commands, String topic) {
+        try {
+            commands.xgroupCreate(XReadArgs.StreamOffset.from(topic, "0"), group, XGroupCreateArgs.Builder.mkstream());
+        } catch (RedisCommandExecutionException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * It sends a PING on the shared connection.
+     */
+    @Override
+    public void probe() throws ConsumeException {
+        try {
+            getCommands().ping();
+        } catch (RuntimeException e) {
+            throw new ConsumeException("Redis is not reachable", e);
+        }
+    }
+
+    /**
+     * Closes Redis connection.
+     */
+    @Override
+    public synchronized void close() {
+        if (connection != null) {
+            connection.close();
+            redisClient.shutdown();
+            connection = null;
+            sync = null;
+        }
+    }
+
+    /**
+     * @return the stream offset as the array taken by XREAD and XREADGROUP, so the calls do not create a generic varargs array. It is only read by Lettuce.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static XReadArgs.StreamOffset<String>[] offsets(final XReadArgs.StreamOffset<String> offset) {
+        return new XReadArgs.StreamOffset[]{offset};
+    }
+
+    private static final class TopicState {
+        private boolean groupCreated;
+        private boolean pending = true;
+        private long nextClaim = System.nanoTime();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getBoolean;
+
+/**
+ * Latencies of the stages of the requests, recorded on HdrHistogram {@link Recorder}s so they can stay enabled in production.
+ * Each stage has its own fixed size recorder, up to one minute with 2 significant digits, so recording is wait-free and does not allocate:
+ * it is a {@link System#nanoTime()} call and a few atomic increments.
+ * The latencies are read by interval: every {@link #snapshot()} returns the ones recorded since the previous snapshot.
+ * It can be configured using the following environment variables:
+ * LATENCY_STAGES records the stage latencies. Default true.
+ */
+public final class StageLatencies {
+
+    /**
+     * Stages of a request. Not every stage is recorded by both services.
+     */
+    public enum Stage {
+        /**
+         * Decoding done by the controller: the split of newline delimited batches, or the messages of a cursor read into text.
+         */
+        DECODE,
+        /**
+         * Lookup of the shared client in the client provider.
+         */
+        PROVIDER,
+        /**
+         * Whole call through the circuit breaker or fan-in client, including its retries and failovers.
+         */
+        BREAKER,
+        /**
+         * Every single call to a backing service adapter.
+         */
+        ADAPTER,
+        /**
+         * Writing of the consumed messages into the response body.
+         */
+        SERIALIZATION;
+
+        /**
+         * @return the stage name, in lower case.
+         */
+        public String getLabel() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final boolean ENABLED = getBoolean("LATENCY_STAGES", true);
+    private static final long HIGHEST_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final Stage[] STAGES = Stage.values();
+    private static final Recorder[] RECORDERS = new Recorder[STAGES.length];
+    private static final Histogram[] INTERVALS = new Histogram[STAGES.length];
+    private static long intervalStart = System.nanoTime();
+
+    static {
+        for (int i = 0; i < RECORDERS.length; i++) {
+            RECORDERS[i] = new Recorder(1, HIGHEST_NANOS, 2);
+        }
+    }
+
+    private StageLatencies() {
+    }
+
+    /**
+     * Records a stage started at the given {@link System#nanoTime()}. Latencies beyond one minute are recorded as one minute.
+     */
+    public static void record(final Stage stage, final long startNanos) {
+        if (ENABLED) {
+            RECORDERS[stage.ordinal()].recordValue(Math.min(HIGHEST_NANOS, Math.max(0, System.nanoTime() - startNanos)));
+        }
+    }
+
+    /**
+     * Takes the latencies recorded since the previous snapshot, and starts a new interval.
+     * @return the latencies of every stage in the interval.
+     */
+    public static synchronized Interval snapshot() {
+        long now = System.nanoTime();
+        List<StageSnapshot> stages = new ArrayList<>(STAGES.length);
+        for (int i = 0; i < STAGES.length; i++) {
+            INTERVALS[i] = RECORDERS[i].getIntervalHistogram(INTERVALS[i]);
+            stages.add(new StageSnapshot(STAGES[i].getLabel(), INTERVALS[i]));
+        }
+        Interval interval = new Interval(TimeUnit.NANOSECONDS.toMillis(now - intervalStart), stages);
+        intervalStart = now;
+        return interval;
+    }
+
+    /**
+     * Latencies of every stage recorded in an interval.
+     */
+    public static final class Interval {
+
+        private final long intervalMillis;
+        private final List<StageSnapshot> stages;
+
+        private Interval(final long intervalMillis, final List<StageSnapshot> stages) {
+            this.intervalMillis = intervalMillis;
+            this.stages = Collections.unmodifiableList(stages);
+        }
+
+        /**
+         * @return duration of the interval.
+         */
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        /**
+         * @return latencies of every stage, in request order.
+         */
+        public List<StageSnapshot> getStages() {
+            return stages;
+        }
+    }
+
+    /**
+     * Latencies of a stage in an interval, in nanoseconds. All of them are zero if the stage was not recorded.
+     */
+    public static final class StageSnapshot {
+
+        private final String stage;
+        private final long count;
+        private final long minNanos;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long maxNanos;
+
+        private StageSnapshot(final String stage, final Histogram histogram) {
+            this.stage = stage;
+            this.count = histogram.getTotalCount();
+            this.minNanos = count == 0 ? 0 : histogram.getMinValue();
+            this.meanNanos = count == 0 ? 0 : (long) histogram.getMean();
+            this.p50Nanos = histogram.getValueAtPercentile(50);
+            this.p90Nanos = histogram.getValueAtPercentile(90);
+            this.p99Nanos = histogram.getValueAtPercentile(99);
+            this.p999Nanos = histogram.getValueAtPercentile(99.9);
+            this.maxNanos = histogram.getMaxValue();
+        }
+
+        /**
+         * @return stage name.
+         */
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * @return number of recorded latencies.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return lowest latency.
+         */
+        public long getMinNanos() {
+            return minNanos;
+        }
+
+        /**
+         * @return mean latency.
+         */
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * @return median latency.
+         */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /**
+         * @return 90th percentile latency.
+         */
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        /**
+         * @return 99th percentile latency.
+         */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * @return 99.9th percentile latency.
+         */
+        public long getP999Nanos() {
+            return p999Nanos;
+        }
+
+        /**
+         * @return highest latency.
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+}
@@ -10,21 +10,36 @@
 package com.manquius.twelvefactor.api;
 
 import com.manquius.twelvefactor.clients.ClientCreationException;
+import com.manquius.twelvefactor.clients.ClientMetrics;
 import com.manquius.twelvefactor.clients.ConsumeClient;
 import com.manquius.twelvefactor.clients.ConsumeClientProvider;
 import com.manquius.twelvefactor.clients.ConsumeException;
+import com.manquius.twelvefactor.clients.ConsumeOptions;
+import com.manquius.twelvefactor.clients.CursorPage;
+import io.micrometer.core.instrument.Timer;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
+import io.micronaut.http.sse.Event;
+import io.reactivex.Flowable;
+import io.netty.buffer.ByteBuf;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ConsumeControllerTest {
@@ -42,30 +57,102 @@ public class ConsumeControllerTest {
 
     @Test
     void should_consume_a_message() throws ConsumeException {
-        when(client.consume("topic")).thenReturn(messages);
+        when(client.consumeBytes(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList("message".getBytes()));
         ConsumeController controller = new ConsumeController(clientProvider);
-        HttpResponse<List<String>> rsp = controller.consume("topic");
+        assertEquals("[\"message\"]", body(controller.consume("topic", 500, 1048576, 0)));
+    }
+
+    @Test
+    void should_time_requests() throws ConsumeException {
+        when(client.consumeBytes(eq("timed"), any(ConsumeOptions.class))).thenThrow(new ConsumeException("Error consuming in Mock"));
+        ConsumeController controller = new ConsumeController(clientProvider);
+        controller.consumeBytes("timed", 500, 1048576, 0);
+        Timer timer = ClientMetrics.registry().get("twelvefactor.consume.requests")
+                .tags("client", client.getClass().getSimpleName(), "operation", "bytes", "topic", "timed", "outcome", "failure").timer();
+        assertEquals(1, timer.count());
+        assertEquals(0.0, ClientMetrics.registry().get("twelvefactor.consume.inflight").gauge().value());
+    }
+
+    @Test
+    void should_long_poll_with_request_limits() throws ConsumeException {
+        when(client.consumeBytes(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.emptyList());
+        ConsumeController controller = new ConsumeController(clientProvider);
+        assertEquals("[]", body(controller.consume("topic", 10, 2048, 60000000)));
+        verify(client).consumeBytes(eq("topic"), argThat(options -> options.getMaxRecords() == 10
+                && options.getMaxBytes() == 2048
+                && options.getWaitMillis() == 30000));
+    }
+
+    @Test
+    void should_consume_length_prefixed_binary_messages() throws ConsumeException {
+        byte[] message = {0, 1, 2};
+        when(client.consumeBytes(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList(message));
+        ConsumeController controller = new ConsumeController(clientProvider);
+        HttpResponse<ByteBuf> rsp = controller.consumeBytes("topic", 500, 1048576, 0);
+        assertEquals(HttpStatus.OK.getCode(), rsp.code());
+        assertNotNull(rsp.body());
+        ByteBuf body = rsp.body();
+        assertEquals(message.length, body.readInt());
+        byte[] read = new byte[body.readableBytes()];
+        body.readBytes(read);
+        assertArrayEquals(message, read);
+    }
+
+    @Test
+    void should_stream_messages_as_events() {
+        when(client.stream("topic")).thenReturn(Flowable.fromIterable(messages));
+        ConsumeController controller = new ConsumeController(clientProvider);
+        List<Event<String>> events = controller.stream("topic").toList().blockingGet();
+        assertEquals(1, events.size());
+        assertEquals("message", events.get(0).getData());
+    }
+
+    @Test
+    void should_read_from_cursor() throws ConsumeException {
+        when(client.read(eq("topic"), eq("cursor"), any(ConsumeOptions.class)))
+                .thenReturn(new CursorPage<>(Collections.singletonList("message".getBytes()), "next"));
+        ConsumeController controller = new ConsumeController(clientProvider);
+        HttpResponse<CursorPage<String>> rsp = controller.read("topic", "cursor", 500, 1048576, 0);
         assertEquals(HttpStatus.OK.getCode(), rsp.code());
         assertNotNull(rsp.body());
-        assertEquals(1, rsp.body().size());
-        assertEquals("message", rsp.body().get(0));
+        assertEquals(messages, rsp.body().getMessages());
+        assertEquals("next", rsp.body().getCursor());
+    }
+
+    @Test
+    void should_reject_invalid_cursor() throws ConsumeException {
+        when(client.read(eq("topic"), eq("cursor"), any(ConsumeOptions.class))).thenThrow(new IllegalArgumentException());
+        ConsumeController controller = new ConsumeController(clientProvider);
+        assertEquals(HttpStatus.BAD_REQUEST.getCode(), controller.read("topic", "cursor", 500, 1048576, 0).code());
+    }
+
+    @Test
+    void should_fail_if_read_is_not_supported() throws ConsumeException {
+        when(client.read(eq("topic"), eq(""), any(ConsumeOptions.class))).thenThrow(new UnsupportedOperationException());
+        ConsumeController controller = new ConsumeController(clientProvider);
+        assertEquals(HttpStatus.NOT_IMPLEMENTED.getCode(), controller.read("topic", "", 500, 1048576, 0).code());
     }
 
     @Test
     void should_fail_if_consume_fails() throws ConsumeException {
-        when(client.consume("topic")).thenThrow(new ConsumeException("Error Producing in Mock"));
+        when(client.consumeBytes(eq("topic"), any(ConsumeOptions.class))).thenThrow(new ConsumeException("Error Producing in Mock"));
         ConsumeController controller = new ConsumeController(clientProvider);
-        HttpResponse<List<String>> rsp = controller.consume("topic");
-        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.getCode(), rsp.code());
-        assertNull(rsp.body());
+        controller.consume("topic", 500, 1048576, 0).test().awaitDone(5, TimeUnit.SECONDS).assertError(ConsumeException.class);
     }
 
     @Test
     void should_fail_if_client_fails() throws ClientCreationException {
         when(clientProvider.getClient()).thenThrow(new ClientCreationException());
         ConsumeController controller = new ConsumeController(clientProvider);
-        HttpResponse<List<String>> rsp = controller.consume("topic");
-        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.getCode(), rsp.code());
-        assertNull(rsp.body());
+        controller.consume("topic", 500, 1048576, 0).test().awaitDone(5, TimeUnit.SECONDS).assertError(ClientCreationException.class);
+    }
+
+    private static String body(final Flowable<ByteBuf> chunks) {
+        StringBuilder body = new StringBuilder();
+        chunks.blockingForEach(chunk -> {
+            body.append(chunk.toString(StandardCharsets.UTF_8));
+            chunk.release();
+        });
+        return body.toString();
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonArrayChunksTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void should_write_empty_array() throws IOException {
+        assertEquals("[]", write(Collections.emptyList(), 16));
+    }
+
+    @Test
+    void should_write_the_same_json_as_decoded_strings() throws IOException {
+        List<String> messages = Arrays.asList("message", "", "quote \" and \\ backslash", "line\nbreak\ttab\u0001", "ñandú €uro 😀", "");
+        List<byte[]> values = new ArrayList<>();
+        messages.forEach(message -> values.add(message.getBytes(StandardCharsets.UTF_8)));
+        for (int chunkBytes : new int[]{6, 7, 11, 16384}) {
+            String json = write(values, chunkBytes);
+            assertEquals(messages, Arrays.asList(mapper.readValue(json, String[].class)), "Chunk bytes: " + chunkBytes);
+        }
+    }
+
+    @Test
+    void should_replace_invalid_utf8() throws IOException {
+        byte[] invalid = {'a', (byte) 0xC3, 'b', (byte) 0xFF, (byte) 0xF0};
+        String json = write(Collections.singletonList(invalid), 16);
+        assertEquals("a\uFFFDb\uFFFD\uFFFD", mapper.readValue(json, String[].class)[0]);
+    }
+
+    @Test
+    void should_bound_chunks_size() {
+        List<byte[]> values = Collections.nCopies(100, new byte[1000]);
+        List<ByteBuf> chunks = JsonArrayChunks.of(values, UnpooledByteBufAllocator.DEFAULT, 4096).toList().blockingGet();
+        assertTrue(chunks.size() > 1);
+        chunks.forEach(chunk -> assertTrue(chunk.readableBytes() <= 4096));
+    }
+
+    private static String write(final List<byte[]> values, final int chunkBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonArrayChunks.of(values, UnpooledByteBufAllocator.DEFAULT, chunkBytes).blockingForEach(chunk -> {
+            byte[] bytes = new byte[chunk.readableBytes()];
+            chunk.readBytes(bytes);
+            chunk.release();
+            out.write(bytes);
+        });
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BackendHealthTest {
+
+    private final ConsumeClientProvider provider = mock(ConsumeClientProvider.class);
+    private final ConsumeClient client = mock(ConsumeClient.class);
+
+    @Test
+    void should_not_be_ready_before_probing() {
+        BackendHealth health = new BackendHealth(provider, 0);
+        assertFalse(health.isReady());
+    }
+
+    @Test
+    void should_be_ready_when_probe_succeeds() throws ClientCreationException {
+        when(provider.getClient()).thenReturn(client);
+        BackendHealth health = new BackendHealth(provider, 0);
+        health.probe();
+        assertNull(health.getNotReadyReason());
+    }
+
+    @Test
+    void should_not_be_ready_when_probe_fails() throws ClientCreationException, ConsumeException {
+        when(provider.getClient()).thenReturn(client);
+        doThrow(new ConsumeException("No healthy backing service")).when(client).probe();
+        BackendHealth health = new BackendHealth(provider, 0);
+        health.probe();
+        assertEquals("No healthy backing service", health.getNotReadyReason());
+    }
+
+    @Test
+    void should_not_be_ready_when_probe_times_out() throws Exception {
+        when(provider.getClient()).thenReturn(client);
+        doAnswer(invocation -> {
+            Thread.sleep(1000);
+            return null;
+        }).when(client).probe();
+        withEnvironmentVariable("HEALTH_PROBE_TIMEOUT_MS", "50").execute(() -> {
+            BackendHealth health = new BackendHealth(provider, 0);
+            health.probe();
+            assertEquals("Backing services did not answer in 50ms", health.getNotReadyReason());
+            health.close();
+        });
+    }
+
+    @Test
+    void should_not_be_ready_when_saturated() throws Exception {
+        when(provider.getClient()).thenReturn(client);
+        withEnvironmentVariable("READINESS_MAX_IN_FLIGHT", "2").execute(() -> {
+            BackendHealth health = new BackendHealth(provider, 0);
+            health.probe();
+            AtomicInteger inFlight = ClientMetrics.gauge(BackendHealth.IN_FLIGHT_GAUGE);
+            inFlight.addAndGet(2);
+            try {
+                assertFalse(health.isReady());
+            } finally {
+                inFlight.addAndGet(-2);
+            }
+            assertTrue(health.isReady());
+        });
+    }
+}
@@ -18,6 +18,10 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 public class CircuitBreakerConsumeClientTest {
@@ -62,6 +66,66 @@ public class CircuitBreakerConsumeClientTest {
         assertEquals(1, result.size());
     }
 
+    @Test
+    void should_consume_bytes_from_client2() throws ConsumeException {
+        List<byte[]> binary = Collections.singletonList(new byte[]{0, 1, 2});
+        when(client1.consumeBytes("topic")).thenThrow(new ConsumeException());
+        when(client2.consumeBytes("topic")).thenReturn(binary);
+        List<byte[]> result = client.consumeBytes("topic");
+        verify(client1, times(10)).consumeBytes("topic");
+        verify(client2, never()).consume("topic");
+        assertEquals(binary, result);
+    }
+
+    @Test
+    void should_stream_only_requested_batches() throws ConsumeException {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Arrays.asList("Message1", "Message2"), Collections.emptyList(), messages);
+        List<String> result = client.stream("topic").take(3).toList().blockingGet();
+        assertEquals(Arrays.asList("Message1", "Message2", "Message"), result);
+        verify(client1, atLeast(3)).consume(eq("topic"), argThat(options -> options.getWaitMillis() > 0));
+    }
+
+    @Test
+    void should_skip_client1_while_open() throws ConsumeException {
+        when(client1.consume("topic")).thenThrow(new ConsumeException());
+        when(client2.consume("topic")).thenReturn(messages);
+        client.consume("topic");
+        client.consume("topic");
+        verify(client1, times(10)).consume("topic");
+        verify(client2, times(2)).consume("topic");
+    }
+
+    @Test
+    void should_prefix_cursor_with_read_level() throws ConsumeException {
+        when(client1.read(eq("topic"), isNull(), any(ConsumeOptions.class))).thenThrow(new UnsupportedOperationException());
+        when(client2.read(eq("topic"), isNull(), any(ConsumeOptions.class))).thenReturn(new CursorPage<>(Collections.singletonList(new byte[]{1}), "abc"));
+        CursorPage<byte[]> page = client.read("topic", null, ConsumeOptions.DEFAULT);
+        assertEquals(1, page.getMessages().size());
+        assertEquals("1.abc", page.getCursor());
+    }
+
+    @Test
+    void should_read_from_cursor_level_only() throws ConsumeException {
+        when(client2.read(eq("topic"), eq("abc"), any(ConsumeOptions.class))).thenThrow(new ConsumeException());
+        assertThrows(ConsumeException.class, () -> client.read("topic", "1.abc", ConsumeOptions.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () -> client.read("topic", "abc", ConsumeOptions.DEFAULT));
+        verify(client1, never()).read(any(), any(), any());
+    }
+
+    @Test
+    void should_be_healthy_while_a_level_is() throws ConsumeException {
+        doThrow(new ConsumeException("Down")).when(client1).probe();
+        client.probe();
+        verify(client2, times(1)).probe();
+    }
+
+    @Test
+    void should_not_be_healthy_without_healthy_levels() throws ConsumeException {
+        doThrow(new ConsumeException("Down")).when(client1).probe();
+        doThrow(new ConsumeException("Down")).when(client2).probe();
+        assertThrows(ConsumeException.class, () -> client.probe());
+    }
+
     @Test
     void should_fail_to_produce() throws ConsumeException {
         when(client1.consume("topic")).thenThrow(new ConsumeException());
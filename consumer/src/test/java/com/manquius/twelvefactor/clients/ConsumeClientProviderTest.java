@@ -44,6 +44,14 @@ public class ConsumeClientProviderTest {
         });
     }
 
+    @Test
+    void should_return_redis_streams() throws Exception {
+        withEnvironmentVariable("CONSUME_CLIENT", "redis_streams").execute(() -> {
+            ConsumeClient client = provider.getClient();
+            assertEquals(RedisStreamsConsumeClient.class, client.getClass());
+        });
+    }
+
     @Test
     void should_return_pulsar() throws Exception {
         withEnvironmentVariable("CONSUME_CLIENT", "pulsar").execute(() -> {
@@ -52,6 +60,37 @@ public class ConsumeClientProviderTest {
         });
     }
 
+    @Test
+    void should_return_rabbitmq() throws Exception {
+        withEnvironmentVariable("CONSUME_CLIENT", "rabbitmq").execute(() -> {
+            ConsumeClient client = provider.getClient();
+            assertEquals(RabbitMQConsumeClient.class, client.getClass());
+        });
+    }
+
+    @Test
+    void should_not_return_memory() throws Exception {
+        withEnvironmentVariable("CONSUME_CLIENT", "memory").execute(() -> {
+            assertThrows(ClientCreationException.class, () -> provider.getClient());
+        });
+    }
+
+    @Test
+    void should_return_circuit_breaker_chain() throws Exception {
+        withEnvironmentVariable("CONSUME_CLIENT", "kafka/redis").execute(() -> {
+            ConsumeClient client = provider.getClient();
+            assertEquals(CircuitBreakerConsumeClient.class, client.getClass());
+        });
+    }
+
+    @Test
+    void should_return_fan_in_chain() throws Exception {
+        withEnvironmentVariable("CONSUME_CLIENT", "kafka/redis").and("CONSUME_MODE", "fan_in").execute(() -> {
+            ConsumeClient client = provider.getClient();
+            assertEquals(FanInConsumeClient.class, client.getClass());
+        });
+    }
+
     @Test
     void should_fail_when_wrong() throws Exception {
         withEnvironmentVariable("CONSUME_CLIENT", "anything").execute(() -> {
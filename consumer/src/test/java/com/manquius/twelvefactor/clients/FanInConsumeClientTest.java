@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FanInConsumeClientTest {
+
+    private final ConsumeClient client1 = mock(ConsumeClient.class);
+    private final ConsumeClient client2 = mock(ConsumeClient.class);
+    private final List<ConsumeClient> clients = new ArrayList<>();
+    private FanInConsumeClient client;
+
+    @BeforeEach
+    void setUp() {
+        clients.add(client1);
+        clients.add(client2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Test
+    void should_merge_all_levels_in_order() throws ConsumeException {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList("Message1"));
+        when(client2.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList("Message2"));
+        client = new FanInConsumeClient(clients);
+        assertEquals(Arrays.asList("Message1", "Message2"), client.consume("topic"));
+    }
+
+    @Test
+    void should_skip_failing_level() throws ConsumeException {
+        when(client1.consumeBytes(eq("topic"), any(ConsumeOptions.class))).thenThrow(new ConsumeException());
+        when(client2.consumeBytes(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList(new byte[]{1}));
+        client = new FanInConsumeClient(clients);
+        List<byte[]> result = client.consumeBytes("topic");
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    void should_fail_when_all_levels_fail() throws ConsumeException {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenThrow(new ConsumeException());
+        when(client2.consume(eq("topic"), any(ConsumeOptions.class))).thenThrow(new ConsumeException());
+        client = new FanInConsumeClient(clients);
+        assertThrows(ConsumeException.class, () -> client.consume("topic"));
+    }
+
+    @Test
+    void should_not_read_levels_without_share_of_messages() throws ConsumeException {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList("Message1"));
+        client = new FanInConsumeClient(clients);
+        assertEquals(Collections.singletonList("Message1"), client.consume("topic", new ConsumeOptions(1, 0, 0)));
+        verify(client2, never()).consume(eq("topic"), any(ConsumeOptions.class));
+    }
+
+    @Test
+    void should_cancel_levels_that_do_not_answer() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                cancelled.countDown();
+                throw new ConsumeException("Interrupted", e);
+            }
+            return Collections.singletonList("Late");
+        });
+        when(client2.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList("Message2"));
+        withEnvironmentVariable("FAN_IN_LEVEL_BUDGET_MS", "50").execute(() -> {
+            client = new FanInConsumeClient(clients);
+            assertEquals(Collections.singletonList("Message2"), client.consume("topic"));
+            assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+        });
+    }
+
+    @Test
+    void should_not_start_reads_that_cannot_answer_in_time() throws Exception {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return Collections.emptyList();
+        });
+        withEnvironmentVariable("FAN_IN_LEVEL_BUDGET_MS", "50").and("FAN_IN_THREADS", "1").execute(() -> {
+            client = new FanInConsumeClient(clients);
+            assertThrows(ConsumeException.class, () -> client.consume("topic"));
+            Thread.sleep(100);
+            verify(client2, never()).consume(eq("topic"), any(ConsumeOptions.class));
+        });
+    }
+
+    @Test
+    void should_not_wait_for_idle_level_when_messages_were_consumed() throws Exception {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.singletonList("Message1"));
+        when(client2.consume(eq("topic"), any(ConsumeOptions.class))).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return Collections.emptyList();
+        });
+        withEnvironmentVariable("FAN_IN_LEVEL_BUDGET_MS", "50").execute(() -> {
+            client = new FanInConsumeClient(clients);
+            long started = System.nanoTime();
+            assertEquals(Collections.singletonList("Message1"), client.consume("topic", new ConsumeOptions(10, 0, 5000)));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 1000);
+        });
+    }
+
+    @Test
+    void should_split_limits_among_levels() throws ConsumeException {
+        when(client1.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.emptyList());
+        when(client2.consume(eq("topic"), any(ConsumeOptions.class))).thenReturn(Collections.emptyList());
+        client = new FanInConsumeClient(clients);
+        client.consume("topic", new ConsumeOptions(5, 1000, 300));
+        ArgumentCaptor<ConsumeOptions> primary = ArgumentCaptor.forClass(ConsumeOptions.class);
+        ArgumentCaptor<ConsumeOptions> fallback = ArgumentCaptor.forClass(ConsumeOptions.class);
+        verify(client1, atLeast(2)).consume(eq("topic"), primary.capture());
+        verify(client2, atLeast(2)).consume(eq("topic"), fallback.capture());
+        assertEquals(5, primary.getValue().getMaxRecords() + fallback.getValue().getMaxRecords());
+        assertEquals(1000, primary.getValue().getMaxBytes() + fallback.getValue().getMaxBytes());
+        assertTrue(primary.getAllValues().get(0).getWaitMillis() > 100);
+        assertTrue(primary.getAllValues().get(0).getWaitMillis() <= FanInConsumeClient.DEFAULT_LEVEL_BUDGET_MILLIS);
+        assertTrue(fallback.getAllValues().get(0).getWaitMillis() <= FanInConsumeClient.DEFAULT_LEVEL_BUDGET_MILLIS);
+        assertTrue(primary.getValue().getWaitMillis() <= 100);
+    }
+}
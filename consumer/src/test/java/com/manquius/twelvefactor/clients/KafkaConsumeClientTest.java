@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class KafkaConsumeClientTest {
+
+    private final TopicPartition partition = new TopicPartition("topic", 0);
+
+    @Test
+    void should_read_from_cursor() throws ConsumeException {
+        KafkaConsumeClient client = new KafkaConsumeClient(topic -> topicConsumer(3));
+        try {
+            ConsumeOptions options = new ConsumeOptions(2, 0, 0);
+            CursorPage<byte[]> first = client.read("topic", null, options);
+            assertEquals(2, first.getMessages().size());
+            CursorPage<byte[]> second = client.read("topic", first.getCursor(), options);
+            assertEquals(1, second.getMessages().size());
+            assertArrayEquals(new byte[]{2}, second.getMessages().get(0));
+            CursorPage<byte[]> last = client.read("topic", second.getCursor(), options);
+            assertEquals(0, last.getMessages().size());
+            assertEquals(second.getCursor(), last.getCursor());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void should_replay_a_cursor() throws ConsumeException {
+        KafkaConsumeClient client = new KafkaConsumeClient(topic -> topicConsumer(3));
+        try {
+            ConsumeOptions options = new ConsumeOptions(1, 0, 0);
+            String cursor = client.read("topic", null, options).getCursor();
+            assertArrayEquals(new byte[]{1}, client.read("topic", cursor, options).getMessages().get(0));
+            assertArrayEquals(new byte[]{1}, client.read("topic", cursor, options).getMessages().get(0));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void should_reject_invalid_cursor() {
+        KafkaConsumeClient client = new KafkaConsumeClient(topic -> topicConsumer(3));
+        try {
+            assertThrows(IllegalArgumentException.class, () -> client.read("topic", CursorPage.encode("offset"), ConsumeOptions.DEFAULT));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Consumer of a single partition topic that holds the given records from offset 0 every time it is assigned.
+     */
+    private MockConsumer<String, byte[]> topicConsumer(final int records) {
+        MockConsumer<String, byte[]> consumer = new MockConsumer<String, byte[]>(OffsetResetStrategy.EARLIEST) {
+            @Override
+            public synchronized void assign(final Collection<TopicPartition> partitions) {
+                super.assign(partitions);
+                for (int offset = 0; offset < records; offset++) {
+                    addRecord(new ConsumerRecord<>(partition.topic(), partition.partition(), offset, null, new byte[]{(byte) offset}));
+                }
+            }
+        };
+        consumer.updatePartitions(partition.topic(), Collections.singletonList(new PartitionInfo(partition.topic(), partition.partition(), null, null, null)));
+        consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+        return consumer;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KafkaTopicPollerTest {
+
+    private final TopicPartition partition = new TopicPartition("topic", 0);
+
+    @Test
+    void should_prefetch_and_commit_drained_records() throws Exception {
+        MockConsumer<String, byte[]> consumer = subscribedConsumer();
+        addRecords(consumer, 3);
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> consumer, 10, 100, 1024)) {
+            await(() -> poller.getBufferedRecords() == 3);
+            List<byte[]> drained = poller.drain(2);
+            assertEquals(2, drained.size());
+            assertEquals(1, poller.getBufferedRecords());
+            await(() -> committed(consumer) == 2);
+        }
+    }
+
+    @Test
+    void should_wait_until_records_arrive() throws Exception {
+        MockConsumer<String, byte[]> consumer = subscribedConsumer();
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> consumer, 10, 100, 1024)) {
+            await(() -> assigned(consumer));
+            Thread producer = new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                consumer.addRecord(new ConsumerRecord<>("topic", 0, 0, null, new byte[]{1}));
+            });
+            producer.start();
+            long start = System.currentTimeMillis();
+            List<byte[]> drained = poller.drain(new ConsumeOptions(10, 1024, 10000));
+            assertEquals(1, drained.size());
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            producer.join();
+        }
+    }
+
+    @Test
+    void should_limit_drained_bytes() throws Exception {
+        MockConsumer<String, byte[]> consumer = subscribedConsumer();
+        addRecords(consumer, 3);
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> consumer, 10, 100, 1024)) {
+            await(() -> poller.getBufferedRecords() == 3);
+            assertEquals(2, poller.drain(new ConsumeOptions(10, 2, 0)).size());
+            assertEquals(1, poller.getBufferedBytes());
+        }
+    }
+
+    @Test
+    void should_pause_while_buffer_is_full() throws Exception {
+        MockConsumer<String, byte[]> consumer = subscribedConsumer();
+        addRecords(consumer, 2);
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> consumer, 10, 2, 1024)) {
+            await(() -> paused(consumer));
+            poller.drain(2);
+            await(() -> !paused(consumer));
+        }
+    }
+
+    @Test
+    void should_fail_drain_while_consumer_fails() {
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> {
+            throw new IllegalStateException("Broken consumer");
+        }, 10, 2, 1024)) {
+            assertThrows(ConsumeException.class, () -> {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (System.currentTimeMillis() < deadline) {
+                    poller.drain(1);
+                    Thread.sleep(1);
+                }
+            });
+        }
+    }
+
+    @Test
+    void should_poll_partitions_with_many_members() throws Exception {
+        TopicPartition other = new TopicPartition("topic", 1);
+        MockConsumer<String, byte[]> consumer = subscribedConsumer(partition);
+        MockConsumer<String, byte[]> otherConsumer = subscribedConsumer(other);
+        addRecords(consumer, partition, 3);
+        addRecords(otherConsumer, other, 3);
+        Iterator<MockConsumer<String, byte[]>> consumers = Arrays.asList(consumer, otherConsumer).iterator();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> consumers.next(), 10, 100, 1024, 2, executor)) {
+            assertEquals(2, poller.getMembers());
+            await(() -> poller.getBufferedRecords() == 6);
+            List<byte[]> drained = poller.drain(6);
+            List<Byte> first = new ArrayList<>();
+            List<Byte> second = new ArrayList<>();
+            drained.forEach(value -> (value[0] < 10 ? first : second).add(value[0]));
+            assertEquals(Arrays.asList((byte) 0, (byte) 1, (byte) 2), first);
+            assertEquals(Arrays.asList((byte) 10, (byte) 11, (byte) 12), second);
+            await(() -> committed(consumer, partition) == 3 && committed(otherConsumer, other) == 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void should_commit_and_drop_revoked_partitions_on_rebalance() throws Exception {
+        TopicPartition other = new TopicPartition("topic", 1);
+        RebalancingConsumer consumer = new RebalancingConsumer(Arrays.asList(partition, other));
+        addRecords(consumer, partition, 3);
+        addRecords(consumer, other, 3);
+        try (KafkaTopicPoller poller = new KafkaTopicPoller("topic", topic -> consumer, 10, 100, 1024)) {
+            await(() -> poller.getBufferedRecords() == 6);
+            int drainedFromOther = 0;
+            int drainedFromPartition = 0;
+            while (drainedFromOther == 0) {
+                byte value = poller.drain(1).get(0)[0];
+                if (value < 10) {
+                    drainedFromPartition++;
+                } else {
+                    drainedFromOther++;
+                }
+            }
+            int expectedCommit = drainedFromOther;
+            consumer.schedulePollTask(() -> consumer.reassign(Collections.singletonList(partition)));
+            await(() -> consumer.committedOnRevoke(other) == expectedCommit);
+            int remaining = 3 - drainedFromPartition;
+            await(() -> poller.getBufferedRecords() == remaining);
+            assertEquals(remaining, poller.getBufferedBytes());
+            for (byte[] value : poller.drain(10)) {
+                assertTrue(value[0] < 10, "Record of a revoked partition delivered after the rebalance");
+            }
+        }
+    }
+
+    /**
+     * Consumer that calls its rebalance listener on every reassignment, as {@link MockConsumer#rebalance(Collection)} does not.
+     * It keeps the offsets committed when the partitions were revoked, as {@link MockConsumer#committed(Set)} only returns the ones of assigned partitions.
+     */
+    private static final class RebalancingConsumer extends MockConsumer<String, byte[]> {
+
+        private final List<TopicPartition> initial;
+        private final Map<TopicPartition, Long> revokedCommits = new HashMap<>();
+        private ConsumerRebalanceListener listener;
+
+        private RebalancingConsumer(final List<TopicPartition> initial) {
+            super(OffsetResetStrategy.EARLIEST);
+            this.initial = initial;
+        }
+
+        @Override
+        public synchronized void subscribe(final Collection<String> topics, final ConsumerRebalanceListener listener) {
+            super.subscribe(topics, listener);
+            this.listener = listener;
+            Map<TopicPartition, Long> offsets = new HashMap<>();
+            initial.forEach(assigned -> offsets.put(assigned, 0L));
+            updateBeginningOffsets(offsets);
+            reassign(initial);
+        }
+
+        private synchronized void reassign(final List<TopicPartition> next) {
+            Set<TopicPartition> revoked = new HashSet<>(assignment());
+            revoked.removeAll(next);
+            listener.onPartitionsRevoked(revoked);
+            committed(revoked).forEach((partition, offset) -> revokedCommits.put(partition, offset == null ? -1 : offset.offset()));
+            Set<TopicPartition> added = new HashSet<>(next);
+            added.removeAll(assignment());
+            rebalance(next);
+            listener.onPartitionsAssigned(added);
+        }
+
+        private synchronized long committedOnRevoke(final TopicPartition revoked) {
+            return revokedCommits.getOrDefault(revoked, -1L);
+        }
+    }
+
+    private MockConsumer<String, byte[]> subscribedConsumer() {
+        return subscribedConsumer(partition);
+    }
+
+    private MockConsumer<String, byte[]> subscribedConsumer(final TopicPartition assigned) {
+        return new MockConsumer<String, byte[]>(OffsetResetStrategy.EARLIEST) {
+            @Override
+            public synchronized void subscribe(final Collection<String> topics, final ConsumerRebalanceListener listener) {
+                super.subscribe(topics, listener);
+                rebalance(Collections.singletonList(assigned));
+                updateBeginningOffsets(Collections.singletonMap(assigned, 0L));
+            }
+        };
+    }
+
+    private void addRecords(final MockConsumer<String, byte[]> consumer, final int count) {
+        addRecords(consumer, partition, count);
+    }
+
+    /**
+     * Schedules records whose value is ten times the partition plus the offset.
+     */
+    private void addRecords(final MockConsumer<String, byte[]> consumer, final TopicPartition target, final int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new ConsumerRecord<>("topic", target.partition(), i, null, new byte[]{(byte) (target.partition() * 10 + i)}));
+        }
+        consumer.schedulePollTask(() -> records.forEach(consumer::addRecord));
+    }
+
+    private boolean assigned(final MockConsumer<String, byte[]> consumer) {
+        synchronized (consumer) {
+            return consumer.assignment().contains(partition);
+        }
+    }
+
+    private boolean paused(final MockConsumer<String, byte[]> consumer) {
+        synchronized (consumer) {
+            return consumer.paused().contains(partition);
+        }
+    }
+
+    private long committed(final MockConsumer<String, byte[]> consumer) {
+        return committed(consumer, partition);
+    }
+
+    private long committed(final MockConsumer<String, byte[]> consumer, final TopicPartition target) {
+        synchronized (consumer) {
+            OffsetAndMetadata committed = consumer.committed(Collections.singleton(target)).get(target);
+            return committed == null ? -1 : committed.offset();
+        }
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+}
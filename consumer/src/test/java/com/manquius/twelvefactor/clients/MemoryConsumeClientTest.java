@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MemoryConsumeClientTest {
+
+    private final MemoryTopics topics = new MemoryTopics(8, MemoryTopics.Overflow.REJECT, 10);
+    private final MemoryConsumeClient client = new MemoryConsumeClient(topics);
+
+    @Test
+    void should_consume_within_limits() {
+        topics.offer("topic", "Message1".getBytes());
+        topics.offer("topic", "Message2".getBytes());
+        topics.offer("topic", "Message3".getBytes());
+        assertEquals(Arrays.asList("Message1", "Message2"), client.consume("topic", new ConsumeOptions(2, Long.MAX_VALUE, 0)));
+        assertEquals(Collections.singletonList("Message3"), client.consume("topic", new ConsumeOptions(10, 1, 0)));
+        assertTrue(client.consume("topic").isEmpty());
+    }
+
+    @Test
+    void should_wait_for_messages() throws Exception {
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            topics.offer("topic", "Late".getBytes());
+        });
+        producer.start();
+        List<String> messages = client.consume("topic", new ConsumeOptions(10, Long.MAX_VALUE, 5000));
+        producer.join();
+        assertEquals(Collections.singletonList("Late"), messages);
+    }
+
+    @Test
+    void should_consume_while_primary_level_fails() throws ConsumeException {
+        ConsumeClient kafka = mock(ConsumeClient.class);
+        when(kafka.consume(eq("topic"), any(ConsumeOptions.class))).thenThrow(new ConsumeException());
+        topics.offer("topic", "Message".getBytes());
+        List<ConsumeClient> levels = Arrays.asList(kafka, client);
+        assertEquals(Collections.singletonList("Message"), new CircuitBreakerConsumeClient(levels).consume("topic", ConsumeOptions.DEFAULT));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PulsarConsumeClientTest {
+
+    private final PulsarConsumeClient.Subscriber subscriber = mock(PulsarConsumeClient.Subscriber.class);
+    @SuppressWarnings("unchecked")
+    private final Consumer<byte[]> consumer = mock(Consumer.class);
+    private final MessageId id1 = mock(MessageId.class);
+    private final MessageId id2 = mock(MessageId.class);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(subscriber.subscribe(anyString())).thenReturn(CompletableFuture.completedFuture(consumer));
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(consumer.acknowledgeCumulativeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(consumer.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        Message<byte[]> message1 = message("Message1", id1);
+        Message<byte[]> message2 = message("Message2", id2);
+        when(consumer.receive(anyInt(), any(TimeUnit.class))).thenReturn(message1, message2, null);
+    }
+
+    @Test
+    void should_subscribe_once_per_topic() throws Exception {
+        try (PulsarConsumeClient client = new PulsarConsumeClient(subscriber)) {
+            assertEquals(Arrays.asList("Message1", "Message2"), client.consume("topic"));
+            assertEquals(Collections.emptyList(), client.consume("topic"));
+        }
+        verify(subscriber, times(1)).subscribe("topic");
+    }
+
+    @Test
+    void should_stop_at_max_records() throws Exception {
+        try (PulsarConsumeClient client = new PulsarConsumeClient(subscriber)) {
+            assertEquals(1, client.consumeBytes("topic", new ConsumeOptions(1, 1000, 0)).size());
+        }
+        verify(consumer).acknowledgeCumulativeAsync(id1);
+    }
+
+    @Test
+    void should_acknowledge_cumulatively_on_failover() throws Exception {
+        withEnvironmentVariable("PULSAR_SUBSCRIPTION_TYPE", "Failover").execute(() -> {
+            try (PulsarConsumeClient client = new PulsarConsumeClient(subscriber)) {
+                client.consume("topic");
+            }
+        });
+        verify(consumer).acknowledgeCumulativeAsync(id2);
+        verify(consumer, never()).acknowledgeAsync(any(MessageId.class));
+    }
+
+    @Test
+    void should_acknowledge_individually_on_shared() throws Exception {
+        assertIndividualAcknowledge("Shared");
+    }
+
+    @Test
+    void should_acknowledge_individually_on_key_shared() throws Exception {
+        assertIndividualAcknowledge("Key_Shared");
+    }
+
+    @Test
+    void should_close_idle_consumers() throws Exception {
+        withEnvironmentVariable("PULSAR_CONSUMER_IDLE_MS", "20").execute(() -> {
+            try (PulsarConsumeClient client = new PulsarConsumeClient(subscriber)) {
+                client.consume("topic");
+                verify(consumer, timeout(5000)).closeAsync();
+                client.consume("topic");
+            }
+        });
+        verify(subscriber, times(2)).subscribe("topic");
+    }
+
+    private void assertIndividualAcknowledge(final String subscriptionType) throws Exception {
+        withEnvironmentVariable("PULSAR_SUBSCRIPTION_TYPE", subscriptionType).execute(() -> {
+            try (PulsarConsumeClient client = new PulsarConsumeClient(subscriber)) {
+                client.consume("topic");
+            }
+        });
+        verify(consumer).acknowledgeAsync(id1);
+        verify(consumer).acknowledgeAsync(id2);
+        verify(consumer, never()).acknowledgeCumulativeAsync(any(MessageId.class));
+    }
+
+    private static Message<byte[]> message(final String value, final MessageId id) {
+        @SuppressWarnings("unchecked")
+        Message<byte[]> message = mock(Message.class);
+        when(message.getValue()).thenReturn(value.getBytes(StandardCharsets.UTF_8));
+        when(message.getMessageId()).thenReturn(id);
+        return message;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RabbitMQConsumeClientTest {
+
+    private final Connection connection = mock(Connection.class);
+    private final Channel channel = mock(Channel.class);
+    private RabbitMQConsumeClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+        client = new RabbitMQConsumeClient(() -> connection);
+    }
+
+    @Test
+    void should_subscribe_with_prefetch() throws Exception {
+        client.consume("topic");
+        verify(channel).queueDeclare("topic", true, false, false, null);
+        verify(channel).basicQos(500);
+        verify(channel).basicConsume(eq("topic"), eq(false), any(Consumer.class));
+        client.consume("topic");
+        verify(connection, times(1)).createChannel();
+        client.close();
+    }
+
+    @Test
+    void should_drain_pushed_messages_with_a_single_ack() throws Exception {
+        client.consume("topic");
+        Consumer consumer = subscribedConsumer();
+        deliver(consumer, 1, "Message1");
+        deliver(consumer, 2, "Message2");
+        deliver(consumer, 3, "Message3");
+        assertEquals(Arrays.asList("Message1", "Message2"), client.consume("topic", new ConsumeOptions(2, 0, 0)));
+        verify(channel).basicAck(2, true);
+        assertEquals(Collections.singletonList("Message3"), client.consume("topic"));
+        verify(channel).basicAck(3, true);
+        client.close();
+    }
+
+    @Test
+    void should_wait_for_pushed_messages() throws Exception {
+        client.consume("topic");
+        Consumer consumer = subscribedConsumer();
+        Thread broker = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                deliver(consumer, 1, "Message");
+            } catch (Exception e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        broker.start();
+        long start = System.currentTimeMillis();
+        List<String> messages = client.consume("topic", new ConsumeOptions(10, 0, 10000));
+        assertEquals(Collections.singletonList("Message"), messages);
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        broker.join();
+        client.close();
+    }
+
+    @Test
+    void should_not_ack_empty_drains() throws Exception {
+        assertTrue(client.consume("topic").isEmpty());
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        client.close();
+    }
+
+    @Test
+    void should_subscribe_again_when_channel_is_closed() throws Exception {
+        client.consume("topic");
+        when(channel.isOpen()).thenReturn(false);
+        client.consume("topic");
+        verify(connection, times(2)).createChannel();
+        verify(channel, times(1)).abort();
+        client.close();
+    }
+
+    private Consumer subscribedConsumer() throws IOException {
+        ArgumentCaptor<Consumer> consumer = ArgumentCaptor.forClass(Consumer.class);
+        verify(channel).basicConsume(eq("topic"), eq(false), consumer.capture());
+        return consumer.getValue();
+    }
+
+    private static void deliver(final Consumer consumer, final long tag, final String message) throws IOException {
+        consumer.handleDelivery("tag", new Envelope(tag, false, "", "topic"), new AMQP.BasicProperties(), message.getBytes());
+    }
+}
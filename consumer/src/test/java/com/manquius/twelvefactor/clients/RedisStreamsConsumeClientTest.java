@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.lettuce.core.Consumer;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XGroupCreateArgs;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedisStreamsConsumeClientTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisCommands<String, byte[]> commands = mock(RedisCommands.class);
+
+    @Test
+    void should_create_the_group_once() throws Exception {
+        when(commands.xgroupCreate(any(), eq("12factor"), any(XGroupCreateArgs.class))).thenThrow(new RedisCommandExecutionException("BUSYGROUP Consumer Group name already exists"));
+        withEnvironmentVariable("REDIS_STREAMS_CONSUMER", "me").execute(() -> {
+            RedisStreamsConsumeClient client = new RedisStreamsConsumeClient(commands);
+            assertEquals(Collections.emptyList(), client.consume("topic"));
+            assertEquals(Collections.emptyList(), client.consume("topic"));
+        });
+        verify(commands, times(1)).xgroupCreate(argThat(offset -> "topic".equals(offset.getName()) && "0".equals(offset.getOffset())),
+                eq("12factor"), any(XGroupCreateArgs.class));
+    }
+
+    @Test
+    void should_return_pending_entries_first() throws Exception {
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset("0"))).thenReturn(Collections.singletonList(entry("1-0", "pending")))
+                .thenReturn(Collections.emptyList());
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset(">"))).thenReturn(Collections.singletonList(entry("2-0", "new")));
+        withEnvironmentVariable("REDIS_STREAMS_CONSUMER", "me").execute(() -> {
+            RedisStreamsConsumeClient client = new RedisStreamsConsumeClient(commands);
+            assertEquals(Collections.singletonList("pending"), client.consume("topic"));
+            assertEquals(Collections.singletonList("new"), client.consume("topic"));
+        });
+        verify(commands).xack("topic", "12factor", "1-0");
+        verify(commands).xack("topic", "12factor", "2-0");
+    }
+
+    @Test
+    void should_keep_entries_beyond_byte_limit_pending() throws Exception {
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset("0"))).thenReturn(Collections.emptyList())
+                .thenReturn(Collections.singletonList(entry("3-0", "message3")));
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset(">")))
+                .thenReturn(Arrays.asList(entry("1-0", "message1"), entry("2-0", "message2"), entry("3-0", "message3")));
+        withEnvironmentVariable("REDIS_STREAMS_CONSUMER", "me").execute(() -> {
+            RedisStreamsConsumeClient client = new RedisStreamsConsumeClient(commands);
+            assertEquals(Arrays.asList("message1", "message2"), client.consume("topic", new ConsumeOptions(10, 10, 0)));
+            assertEquals(Collections.singletonList("message3"), client.consume("topic", new ConsumeOptions(10, 10, 0)));
+        });
+        verify(commands).xack("topic", "12factor", "1-0", "2-0");
+        verify(commands).xack("topic", "12factor", "3-0");
+    }
+
+    @Test
+    void should_claim_idle_entries_of_other_consumers() throws Exception {
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset("0"))).thenReturn(Collections.emptyList());
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset(">"))).thenReturn(Collections.emptyList());
+        when(commands.xpending(eq("topic"), eq("12factor"), any(Range.class), any(Limit.class))).thenReturn(Arrays.asList(
+                pending("1-0", "dead", 120000), pending("2-0", "me", 120000), pending("3-0", "alive", 10)));
+        when(commands.xclaim(eq("topic"), any(), anyLong(), anyString())).thenReturn(Collections.singletonList(entry("1-0", "claimed")));
+        withEnvironmentVariable("REDIS_STREAMS_CONSUMER", "me").and("REDIS_STREAMS_CLAIM_IDLE_MS", "60000").execute(() -> {
+            RedisStreamsConsumeClient client = new RedisStreamsConsumeClient(commands);
+            assertEquals(Collections.emptyList(), client.consume("topic"));
+            assertEquals(Collections.singletonList("claimed"), client.consume("topic"));
+            assertEquals(Collections.emptyList(), client.consume("topic"));
+        });
+        verify(commands, times(1)).xpending(eq("topic"), eq("12factor"), eq(Range.create("-", "+")), any(Limit.class));
+        verify(commands).xclaim("topic", Consumer.from("12factor", "me"), 60000, "1-0");
+        verify(commands).xack("topic", "12factor", "1-0");
+    }
+
+    @Test
+    void should_not_claim_when_disabled() throws Exception {
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset("0"))).thenReturn(Collections.emptyList());
+        when(commands.xreadgroup(any(), any(XReadArgs.class), offset(">"))).thenReturn(Collections.emptyList());
+        withEnvironmentVariable("REDIS_STREAMS_CLAIM_IDLE_MS", "0").execute(() -> {
+            RedisStreamsConsumeClient client = new RedisStreamsConsumeClient(commands);
+            client.consume("topic");
+            client.consume("topic");
+        });
+        verify(commands, never()).xpending(anyString(), anyString(), any(Range.class), any(Limit.class));
+    }
+
+    private static XReadArgs.StreamOffset<String> offset(final String offset) {
+        return argThat(streamOffset -> streamOffset != null && offset.equals(streamOffset.getOffset()));
+    }
+
+    private static StreamMessage<String, byte[]> entry(final String id, final String message) {
+        return new StreamMessage<>("topic", id, Collections.singletonMap(RedisStreamsConsumeClient.MESSAGE_FIELD, message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * XPENDING entry as decoded by the byte[] value codec.
+     */
+    private static List<Object> pending(final String id, final String consumer, final long idleMillis) {
+        return Arrays.asList(id.getBytes(StandardCharsets.UTF_8), consumer.getBytes(StandardCharsets.UTF_8), idleMillis, 1L);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StageLatenciesTest {
+
+    @BeforeEach
+    void setUp() {
+        StageLatencies.snapshot();
+    }
+
+    @Test
+    void should_report_recorded_stages() {
+        long started = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5);
+        StageLatencies.record(StageLatencies.Stage.DECODE, started);
+        StageLatencies.StageSnapshot decode = stage(StageLatencies.snapshot(), StageLatencies.Stage.DECODE);
+        assertEquals(1, decode.getCount());
+        assertTrue(decode.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(decode.getP99Nanos() >= decode.getP50Nanos());
+        assertEquals(0, stage(StageLatencies.snapshot(), StageLatencies.Stage.DECODE).getCount());
+    }
+
+    @Test
+    void should_cap_latencies_beyond_one_minute() {
+        StageLatencies.record(StageLatencies.Stage.DECODE, System.nanoTime() - TimeUnit.HOURS.toNanos(1));
+        StageLatencies.StageSnapshot decode = stage(StageLatencies.snapshot(), StageLatencies.Stage.DECODE);
+        assertEquals(1, decode.getCount());
+        assertTrue(decode.getMaxNanos() >= TimeUnit.MINUTES.toNanos(1));
+        assertTrue(decode.getMaxNanos() < TimeUnit.MINUTES.toNanos(2));
+    }
+
+    private static StageLatencies.StageSnapshot stage(final StageLatencies.Interval interval, final StageLatencies.Stage stage) {
+        StageLatencies.StageSnapshot snapshot = interval.getStages().get(stage.ordinal());
+        assertEquals(stage.getLabel(), snapshot.getStage());
+        return snapshot;
+    }
+}
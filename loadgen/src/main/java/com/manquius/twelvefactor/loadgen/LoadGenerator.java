@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.loadgen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Open-loop load generator for the producer and consumer services.
+ * A single dispatcher thread hands every request of the {@link Schedule} to a pool of workers at the time it is meant to be sent,
+ * whether the previous responses arrived or not, and the latency is measured from that time (see {@link LoadReport}).
+ * Requests still waiting for a worker when the timeout after the last one is over are not sent, and the ones in flight are recorded when they time out.
+ * Requests are a deterministic mix of POST /topic/{topic} to the producer and GET /topic/{topic} to the consumer.
+ * It can be configured using the following environment variables:
+ * LOADGEN_PRODUCER_URL producer service base url. Default http://localhost:30001, as in docker-compose.
+ * LOADGEN_CONSUMER_URL consumer service base url. Default http://localhost:30002, as in docker-compose.
+ * LOADGEN_TOPIC topic of the requests. Default loadgen.
+ * LOADGEN_RATE requests per second of a constant schedule. Default 100.
+ * LOADGEN_DURATION_S duration of a constant schedule, in seconds. Default 60.
+ * LOADGEN_STEPS stepped schedule like 1000:30,2000:30 (rate:seconds), that replaces the constant one when defined.
+ * LOADGEN_PRODUCE_RATIO fraction of the requests that are produces, from 0 to 1. Default 0.5.
+ * LOADGEN_MESSAGE_BYTES size of the produced messages. Default 100.
+ * LOADGEN_WORKERS max number of requests in flight, and of connections. Default 64.
+ * LOADGEN_TIMEOUT_MS connect and read timeout of every request. Default 10000.
+ */
+public final class LoadGenerator {
+
+    private final String producerUrl;
+    private final String consumerUrl;
+    private final Schedule schedule;
+    private final double produceRatio;
+    private final byte[] message;
+    private final int workers;
+    private final int timeoutMillis;
+
+    /**
+     * LoadGenerator constructor.
+     * @param producerUrl producer service base url.
+     * @param consumerUrl consumer service base url.
+     * @param topic topic of the requests.
+     * @param schedule time every request is sent.
+     * @param produceRatio fraction of the requests that are produces, from 0 to 1.
+     * @param messageBytes size of the produced messages.
+     * @param workers max number of requests in flight.
+     * @param timeoutMillis connect and read timeout of every request.
+     */
+    public LoadGenerator(final String producerUrl, final String consumerUrl, final String topic, final Schedule schedule,
+                         final double produceRatio, final int messageBytes, final int workers, final int timeoutMillis) {
+        String path = "/topic/" + encode(topic);
+        this.producerUrl = producerUrl + path;
+        this.consumerUrl = consumerUrl + path;
+        this.schedule = schedule;
+        this.produceRatio = produceRatio;
+        this.message = message(messageBytes);
+        this.workers = workers;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs the load configured by the environment variables, printing a summary every second and the full report at the end.
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        String steps = System.getenv("LOADGEN_STEPS");
+        Schedule schedule = steps != null ? Schedule.parse(steps)
+                : Schedule.constant(Double.parseDouble(env("LOADGEN_RATE", "100")), TimeUnit.SECONDS.toMillis(Long.parseLong(env("LOADGEN_DURATION_S", "60"))));
+        int workers = Integer.parseInt(env("LOADGEN_WORKERS", "64"));
+        System.setProperty("http.maxConnections", String.valueOf(workers));
+        LoadGenerator generator = new LoadGenerator(env("LOADGEN_PRODUCER_URL", "http://localhost:30001"), env("LOADGEN_CONSUMER_URL", "http://localhost:30002"),
+                env("LOADGEN_TOPIC", "loadgen"), schedule, Double.parseDouble(env("LOADGEN_PRODUCE_RATIO", "0.5")),
+                Integer.parseInt(env("LOADGEN_MESSAGE_BYTES", "100")), workers, Integer.parseInt(env("LOADGEN_TIMEOUT_MS", "10000")));
+        System.out.printf("Sending %d requests in %ds to %s and %s%n", schedule.count(), TimeUnit.MILLISECONDS.toSeconds(schedule.durationMillis()),
+                generator.producerUrl, generator.consumerUrl);
+        generator.run(System.out);
+    }
+
+    /**
+     * Sends every request of the schedule and waits for the responses, up to the timeout after the last one is sent.
+     * @param out where the summary of every second and the full report are printed, or null to print nothing.
+     * @return results of the run.
+     */
+    public LoadReport run(final PrintStream out) throws InterruptedException {
+        LoadReport report = new LoadReport();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "loadgen-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loadgen-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        if (out != null) {
+            reporter.scheduleAtFixedRate(() -> out.println(report.interval(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))), 1, 1, TimeUnit.SECONDS);
+        }
+        try {
+            for (long request = 0; request < schedule.count(); request++) {
+                long intended = start + schedule.intendedNanos(request);
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                pool.execute(new Request(Operation.of(request, produceRatio), intended, report));
+            }
+        } finally {
+            pool.shutdown();
+            if (!pool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                long end = System.nanoTime();
+                for (Runnable unsent : pool.shutdownNow()) {
+                    Request request = (Request) unsent;
+                    report.unsent(request.operation, request.intended, end);
+                }
+                // the requests in flight are recorded when they time out
+                pool.awaitTermination(2L * timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            reporter.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+        String last = report.interval(TimeUnit.NANOSECONDS.toMillis(elapsed));
+        if (out != null) {
+            out.println(last);
+            report.print(out, elapsed);
+        }
+        return report;
+    }
+
+    /**
+     * Request of the schedule, sent by a worker.
+     */
+    private final class Request implements Runnable {
+        private final Operation operation;
+        private final long intended;
+        private final LoadReport report;
+
+        Request(final Operation operation, final long intended, final LoadReport report) {
+            this.operation = operation;
+            this.intended = intended;
+            this.report = report;
+        }
+
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            boolean success;
+            try {
+                success = operation == Operation.PRODUCE ? produce() : consume();
+            } catch (IOException e) {
+                success = false;
+            }
+            report.record(operation, intended, started, System.nanoTime(), success);
+        }
+    }
+
+    private boolean produce() throws IOException {
+        HttpURLConnection connection = connect(producerUrl);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(message.length);
+        try (OutputStream body = connection.getOutputStream()) {
+            body.write(message);
+        }
+        return complete(connection);
+    }
+
+    private boolean consume() throws IOException {
+        HttpURLConnection connection = connect(consumerUrl);
+        connection.setRequestMethod("GET");
+        return complete(connection);
+    }
+
+    private HttpURLConnection connect(final String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        return connection;
+    }
+
+    /**
+     * Reads the whole response, so the connection is kept alive for the next request of the worker.
+     */
+    private static boolean complete(final HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // discarded
+                }
+            }
+        }
+        return status >= 200 && status < 300;
+    }
+
+    private static byte[] message(final int size) {
+        byte[] alphabet = "abcdefghijklmnopqrstuvwxyz0123456789".getBytes(StandardCharsets.US_ASCII);
+        byte[] message = new byte[Math.max(1, size)];
+        Random random = new Random(42);
+        for (int i = 0; i < message.length; i++) {
+            message[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return message;
+    }
+
+    private static String encode(final String topic) {
+        try {
+            return URLEncoder.encode(topic, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String env(final String name, final String defaultValue) {
+        return ofNullable(System.getenv(name)).orElse(defaultValue);
+    }
+}
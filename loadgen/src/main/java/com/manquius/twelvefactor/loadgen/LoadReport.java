@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of a load run, per {@link Operation}.
+ * Every response records two latencies, in microseconds, on HdrHistogram recorders:
+ * the latency from the time the request was meant to be sent, that includes the time it waited for a free worker or connection
+ * and so does not hide the stalls of the service (coordinated omission), and the service time from the time it was actually sent.
+ * Failed responses and timeouts are recorded as the successful ones, up to the time they failed, and also counted as errors.
+ * Requests never sent because the run ended record the latency from their intended send time to the end of the run, and are counted as unsent,
+ * so a stalled service shows up in the percentiles instead of only in the counters.
+ */
+public final class LoadReport {
+
+    private static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final Map<Operation, Results> results = new EnumMap<>(Operation.class);
+
+    /**
+     * LoadReport constructor.
+     */
+    public LoadReport() {
+        for (Operation operation : Operation.values()) {
+            results.put(operation, new Results());
+        }
+    }
+
+    /**
+     * Records a response.
+     * @param intendedNanos time the request was meant to be sent, from {@link System#nanoTime()}.
+     * @param startNanos time the request was actually sent.
+     * @param endNanos time the response was received.
+     * @param success whether the response was successful.
+     */
+    void record(final Operation operation, final long intendedNanos, final long startNanos, final long endNanos, final boolean success) {
+        Results result = results.get(operation);
+        result.latency.recordValue(micros(endNanos - intendedNanos));
+        result.serviceTime.recordValue(micros(endNanos - startNanos));
+        (success ? result.successes : result.errors).increment();
+    }
+
+    /**
+     * Records a request that was never sent, because the run ended before a worker was free.
+     * @param intendedNanos time the request was meant to be sent, from {@link System#nanoTime()}.
+     * @param endNanos time the run ended.
+     */
+    void unsent(final Operation operation, final long intendedNanos, final long endNanos) {
+        Results result = results.get(operation);
+        result.latency.recordValue(micros(endNanos - intendedNanos));
+        result.unsent.increment();
+    }
+
+    /**
+     * Moves the responses recorded since the previous interval to the totals.
+     * @param elapsedMillis time since the start of the run.
+     * @return one line summary of the interval.
+     */
+    synchronized String interval(final long elapsedMillis) {
+        StringBuilder line = new StringBuilder(String.format("%6.1fs", elapsedMillis / 1000.0));
+        for (Map.Entry<Operation, Results> entry : results.entrySet()) {
+            Results result = entry.getValue();
+            result.intervalLatency = result.latency.getIntervalHistogram(result.intervalLatency);
+            result.intervalServiceTime = result.serviceTime.getIntervalHistogram(result.intervalServiceTime);
+            result.totalLatency.add(result.intervalLatency);
+            result.totalServiceTime.add(result.intervalServiceTime);
+            long successes = result.successes.sum();
+            long errors = result.errors.sum();
+            Histogram interval = result.intervalLatency;
+            line.append(String.format(" | %s %d ok %d errors p50=%.2fms p99=%.2fms max=%.2fms",
+                    entry.getKey().name().toLowerCase(), successes - result.reportedSuccesses, errors - result.reportedErrors,
+                    millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)), millis(interval.getMaxValue())));
+            result.reportedSuccesses = successes;
+            result.reportedErrors = errors;
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return number of successful responses.
+     */
+    public long count(final Operation operation) {
+        return results.get(operation).successes.sum();
+    }
+
+    /**
+     * @return number of failed responses.
+     */
+    public long errors(final Operation operation) {
+        return results.get(operation).errors.sum();
+    }
+
+    /**
+     * @return number of requests that were never sent.
+     */
+    public long unsent(final Operation operation) {
+        return results.get(operation).unsent.sum();
+    }
+
+    /**
+     * @return number of requests that were never sent, of all the operations.
+     */
+    public long unsent() {
+        long unsent = 0;
+        for (Results result : results.values()) {
+            unsent += result.unsent.sum();
+        }
+        return unsent;
+    }
+
+    /**
+     * @return copy of the latencies from the intended send time of all the requests moved to the totals, in microseconds.
+     */
+    public synchronized Histogram latency(final Operation operation) {
+        return results.get(operation).totalLatency.copy();
+    }
+
+    /**
+     * @return copy of the service times of the sent requests moved to the totals, in microseconds.
+     */
+    public synchronized Histogram serviceTime(final Operation operation) {
+        return results.get(operation).totalServiceTime.copy();
+    }
+
+    /**
+     * Prints the throughput and the full latency percentile distribution of every operation with responses, in milliseconds.
+     * @param elapsedNanos duration of the run.
+     */
+    synchronized void print(final PrintStream out, final long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        for (Map.Entry<Operation, Results> entry : results.entrySet()) {
+            Results result = entry.getValue();
+            if (result.totalLatency.getTotalCount() == 0) {
+                continue;
+            }
+            long count = result.successes.sum();
+            out.printf("%n%s: %d ok, %d errors, %d unsent in %.1fs, %.1f req/s%n", entry.getKey(), count, result.errors.sum(), result.unsent.sum(),
+                    seconds, count / seconds);
+            out.printf("Latency from intended send time, of all the requests (ms):%n");
+            result.totalLatency.outputPercentileDistribution(out, 5, 1000.0);
+            out.printf("Service time of the sent requests (ms): p50=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    millis(result.totalServiceTime.getValueAtPercentile(50)), millis(result.totalServiceTime.getValueAtPercentile(99)),
+                    millis(result.totalServiceTime.getValueAtPercentile(99.9)), millis(result.totalServiceTime.getMaxValue()));
+        }
+    }
+
+    private static long micros(final long nanos) {
+        return Math.max(1, Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    private static double millis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    private static final class Results {
+        private final Recorder latency = new Recorder(1, MAX_MICROS, 3);
+        private final Recorder serviceTime = new Recorder(1, MAX_MICROS, 3);
+        private final Histogram totalLatency = new Histogram(1, MAX_MICROS, 3);
+        private final Histogram totalServiceTime = new Histogram(1, MAX_MICROS, 3);
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder unsent = new LongAdder();
+        private Histogram intervalLatency;
+        private Histogram intervalServiceTime;
+        private long reportedSuccesses;
+        private long reportedErrors;
+    }
+}
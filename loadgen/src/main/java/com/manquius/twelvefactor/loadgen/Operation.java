@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.loadgen;
+
+/**
+ * Request sent by the load generator: POST /topic/{topic} to the producer, or GET /topic/{topic} to the consumer.
+ */
+public enum Operation {
+    PRODUCE,
+    CONSUME;
+
+    /**
+     * Spreads the produces evenly along the schedule instead of drawing them at random, so every run sends the same mix in the same order.
+     * @param request index of the request in the schedule.
+     * @param produceRatio fraction of the requests that are produces, from 0 to 1.
+     * @return operation of the request.
+     */
+    public static Operation of(final long request, final double produceRatio) {
+        double ratio = Math.max(0, Math.min(1, produceRatio));
+        return Math.floor((request + 1) * ratio) > Math.floor(request * ratio) ? PRODUCE : CONSUME;
+    }
+}
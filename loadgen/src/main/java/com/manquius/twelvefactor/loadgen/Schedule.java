@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.loadgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop arrival schedule: the time every request is meant to be sent, fixed before the load starts,
+ * so a slow response never delays the requests after it.
+ * It is made of consecutive steps, each one sending requests at a constant rate for a duration.
+ */
+public final class Schedule {
+
+    private final List<Step> steps;
+    private final long count;
+
+    private Schedule(final List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+        long total = 0;
+        for (Step step : steps) {
+            total += step.count;
+        }
+        this.count = total;
+    }
+
+    /**
+     * @param rate requests per second.
+     * @param durationMillis how long the requests are sent.
+     * @return a schedule sending requests at a constant rate.
+     */
+    public static Schedule constant(final double rate, final long durationMillis) {
+        return new Schedule(Collections.singletonList(new Step(rate, durationMillis)));
+    }
+
+    /**
+     * Parses a stepped schedule like "1000:30,2000:30", that sends 1000 requests per second for 30 seconds and then 2000 requests per second for 30 seconds.
+     * @param steps comma separated list of rate:seconds steps.
+     * @return a schedule sending requests at the rate of every step, one after the other.
+     * @throws IllegalArgumentException if the steps are not valid.
+     */
+    public static Schedule parse(final String steps) {
+        List<Step> parsed = new ArrayList<>();
+        for (String step : steps.split(",")) {
+            String[] parts = step.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid step, expected rate:seconds: " + step);
+            }
+            try {
+                parsed.add(new Step(Double.parseDouble(parts[0].trim()), TimeUnit.SECONDS.toMillis(Long.parseLong(parts[1].trim()))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid step, expected rate:seconds: " + step);
+            }
+        }
+        return new Schedule(parsed);
+    }
+
+    /**
+     * @return total number of requests of the schedule.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return duration of the schedule, in milliseconds.
+     */
+    public long durationMillis() {
+        long duration = 0;
+        for (Step step : steps) {
+            duration += step.durationMillis;
+        }
+        return duration;
+    }
+
+    /**
+     * @param request index of the request, from 0 to {@link #count()} - 1.
+     * @return time the request is meant to be sent, in nanoseconds since the start of the schedule.
+     */
+    public long intendedNanos(final long request) {
+        long start = 0;
+        long index = request;
+        for (Step step : steps) {
+            if (index < step.count) {
+                return start + (long) (index * 1e9 / step.rate);
+            }
+            index -= step.count;
+            start += TimeUnit.MILLISECONDS.toNanos(step.durationMillis);
+        }
+        throw new IndexOutOfBoundsException("Request " + request + " is not in the schedule of " + count + " requests");
+    }
+
+    private static final class Step {
+        private final double rate;
+        private final long durationMillis;
+        private final long count;
+
+        private Step(final double rate, final long durationMillis) {
+            if (rate <= 0 || durationMillis <= 0) {
+                throw new IllegalArgumentException("Rate and duration must be positive: " + rate + ":" + durationMillis + "ms");
+            }
+            this.rate = rate;
+            this.durationMillis = durationMillis;
+            this.count = (long) (rate * durationMillis / 1000);
+        }
+    }
+}
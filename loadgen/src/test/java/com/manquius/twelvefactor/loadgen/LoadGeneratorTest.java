@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.loadgen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoadGeneratorTest {
+
+    private final AtomicInteger produced = new AtomicInteger();
+    private final AtomicInteger consumed = new AtomicInteger();
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void should_send_the_mix_of_the_schedule() throws Exception {
+        String url = start(0, 200);
+        LoadReport report = new LoadGenerator(url, url, "my topic", Schedule.constant(200, 500), 0.5, 10, 4, 5000).run(null);
+        assertEquals(50, produced.get());
+        assertEquals(50, consumed.get());
+        assertEquals(50, report.count(Operation.PRODUCE));
+        assertEquals(50, report.count(Operation.CONSUME));
+        assertEquals(0, report.errors(Operation.PRODUCE));
+        assertEquals(0, report.unsent());
+    }
+
+    @Test
+    void should_count_failed_responses_as_errors() throws Exception {
+        String url = start(0, 503);
+        LoadReport report = new LoadGenerator(url, url, "mytopic", Schedule.constant(100, 200), 1, 10, 2, 5000).run(null);
+        assertEquals(20, report.errors(Operation.PRODUCE));
+        assertEquals(0, report.count(Operation.PRODUCE));
+    }
+
+    @Test
+    void should_record_latency_from_intended_send_time() throws Exception {
+        String url = start(50, 200);
+        LoadReport report = new LoadGenerator(url, url, "mytopic", Schedule.constant(100, 200), 1, 10, 1, 5000).run(null);
+        assertEquals(20, report.count(Operation.PRODUCE));
+        long serviceTime = report.serviceTime(Operation.PRODUCE).getMaxValue();
+        long latency = report.latency(Operation.PRODUCE).getMaxValue();
+        assertTrue(serviceTime >= TimeUnit.MILLISECONDS.toMicros(50));
+        assertTrue(latency >= TimeUnit.MILLISECONDS.toMicros(20 * 50 - 200), "Latency " + latency + " hides the queueing behind a slow response");
+    }
+
+    @Test
+    void should_record_latency_of_timeouts_and_unsent_requests() throws Exception {
+        String url = start(2000, 200);
+        LoadReport report = new LoadGenerator(url, url, "mytopic", Schedule.constant(100, 500), 1, 10, 2, 300).run(null);
+        assertEquals(0, report.count(Operation.PRODUCE));
+        assertTrue(report.errors(Operation.PRODUCE) >= 2);
+        assertTrue(report.unsent(Operation.PRODUCE) > 0);
+        assertEquals(50, report.errors(Operation.PRODUCE) + report.unsent(Operation.PRODUCE));
+        Histogram latency = report.latency(Operation.PRODUCE);
+        assertEquals(50, latency.getTotalCount());
+        long p99 = latency.getValueAtPercentile(99);
+        assertTrue(p99 >= TimeUnit.MILLISECONDS.toMicros(500), "p99 " + p99 + " hides the stalled server");
+    }
+
+    private String start(final long delayMillis, final int status) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/topic/", exchange -> respond(exchange, delayMillis, status));
+        server.start();
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private void respond(final HttpExchange exchange, final long delayMillis, final int status) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            while (body.read() >= 0) {
+                // discarded
+            }
+        }
+        if ("POST".equals(exchange.getRequestMethod())) {
+            produced.incrementAndGet();
+        } else {
+            consumed.incrementAndGet();
+        }
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] response = "[]".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, response.length);
+        exchange.getResponseBody().write(response);
+        exchange.close();
+    }
+}
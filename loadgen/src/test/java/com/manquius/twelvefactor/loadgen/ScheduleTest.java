@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ScheduleTest {
+
+    @Test
+    void should_space_requests_at_constant_rate() {
+        Schedule schedule = Schedule.constant(1000, 2000);
+        assertEquals(2000, schedule.count());
+        assertEquals(0, schedule.intendedNanos(0));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), schedule.intendedNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1999), schedule.intendedNanos(1999));
+    }
+
+    @Test
+    void should_start_every_step_after_the_previous_one() {
+        Schedule schedule = Schedule.parse("10:2, 100:1");
+        assertEquals(120, schedule.count());
+        assertEquals(3000, schedule.durationMillis());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1900), schedule.intendedNanos(19));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), schedule.intendedNanos(20));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2010), schedule.intendedNanos(21));
+        assertThrows(IndexOutOfBoundsException.class, () -> schedule.intendedNanos(120));
+    }
+
+    @Test
+    void should_reject_invalid_steps() {
+        assertThrows(IllegalArgumentException.class, () -> Schedule.parse("100"));
+        assertThrows(IllegalArgumentException.class, () -> Schedule.parse("fast:10"));
+        assertThrows(IllegalArgumentException.class, () -> Schedule.parse("0:10"));
+    }
+
+    @Test
+    void should_spread_produces_evenly() {
+        int produces = 0;
+        for (int request = 0; request < 100; request++) {
+            if (Operation.of(request, 0.25) == Operation.PRODUCE) {
+                produces++;
+            }
+            assertEquals(request % 4 == 3 ? Operation.PRODUCE : Operation.CONSUME, Operation.of(request, 0.25));
+        }
+        assertEquals(25, produces);
+        assertEquals(Operation.PRODUCE, Operation.of(7, 1));
+        assertEquals(Operation.CONSUME, Operation.of(7, 0));
+    }
+}
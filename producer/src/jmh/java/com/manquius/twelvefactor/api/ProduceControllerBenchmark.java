@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.api;
+
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.client.BlockingHttpClient;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.runtime.server.EmbeddedServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link ProduceController} request paths over HTTP, on an embedded server running the "benchmark" environment.
+ * The backing services are in-memory stand-ins, so the results include the HTTP codec, routing, body binding and the circuit breaker, but not the brokers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProduceControllerBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"100", "10000"})
+    public int messageBytes;
+
+    private EmbeddedServer server;
+    private HttpClient httpClient;
+    private BlockingHttpClient client;
+    private String message;
+    private byte[] binaryMessage;
+    private List<String> batch;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("micronaut.server.port", -1);
+        properties.put("micronaut.http.client.pool.enabled", true);
+        server = ApplicationContext.run(EmbeddedServer.class, properties, "benchmark");
+        httpClient = server.getApplicationContext().createBean(HttpClient.class, server.getURL());
+        client = httpClient.toBlocking();
+        char[] text = new char[messageBytes];
+        Arrays.fill(text, 'm');
+        message = new String(text);
+        binaryMessage = new byte[messageBytes];
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(message);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        httpClient.close();
+        server.getApplicationContext().close();
+    }
+
+    @Benchmark
+    public String produce() {
+        return client.retrieve(HttpRequest.POST("/topic/benchmark", message).contentType(MediaType.APPLICATION_FORM_URLENCODED_TYPE));
+    }
+
+    @Benchmark
+    public String produceBytes() {
+        return client.retrieve(HttpRequest.POST("/topic/benchmark", binaryMessage).contentType(MediaType.APPLICATION_OCTET_STREAM_TYPE));
+    }
+
+    @Benchmark
+    public String produceBatch() {
+        return client.retrieve(HttpRequest.POST("/topic/benchmark/batch", batch).contentType(MediaType.APPLICATION_JSON_TYPE));
+    }
+}
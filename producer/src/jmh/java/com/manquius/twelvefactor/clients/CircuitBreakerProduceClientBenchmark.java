@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link CircuitBreakerProduceClient} over calling an adapter directly, from 1 to 64 concurrent request threads.
+ * The adapters are in-memory stand-ins that acknowledge immediately, so the results only include the failover bookkeeping.
+ * The openPrimary benchmarks run with a failing primary level, whose circuit is open, so every message is produced to the second level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitBreakerProduceClientBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final String MESSAGE = "message";
+
+    private ProduceClient adapter;
+    private CircuitBreakerProduceClient circuitBreaker;
+    private CircuitBreakerProduceClient openPrimary;
+
+    @Setup
+    public void setUp() {
+        adapter = new StandInProduceClient();
+        circuitBreaker = new CircuitBreakerProduceClient(Arrays.asList(new StandInProduceClient(), new StandInProduceClient()));
+        openPrimary = new CircuitBreakerProduceClient(Arrays.asList(new FailingProduceClient(), new StandInProduceClient()));
+        for (int i = 0; i < 100; i++) {
+            openPrimary.produceAsync(TOPIC, MESSAGE).join();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        circuitBreaker.close();
+        openPrimary.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void adapterThreads1() {
+        adapter.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void adapterThreads8() {
+        adapter.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void adapterThreads64() {
+        adapter.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void circuitBreakerThreads1() {
+        circuitBreaker.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void circuitBreakerThreads8() {
+        circuitBreaker.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void circuitBreakerThreads64() {
+        circuitBreaker.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void openPrimaryThreads1() {
+        openPrimary.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void openPrimaryThreads8() {
+        openPrimary.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void openPrimaryThreads64() {
+        openPrimary.produceAsync(TOPIC, MESSAGE).join();
+    }
+
+    private static final class FailingProduceClient extends StandInProduceClient {
+
+        @Override
+        public CompletableFuture<Void> produceAsync(final String topic, final String message) {
+            return Batches.failed(new ProduceException("Stand-in failure"));
+        }
+
+        @Override
+        public CompletableFuture<Void> produceBatchAsync(final String topic, final List<String> messages) {
+            return Batches.failed(new BatchProduceException("Stand-in failure", 0, null));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-process stand-in for a backing service adapter used on benchmarks.
+ * It opens a TCP connection to a loopback server on creation, like the real adapters do with their brokers, and writes every message to it.
+ */
+class LoopbackProduceClient implements ProduceClient {
+
+    private final Socket socket;
+    private final OutputStream output;
+
+    LoopbackProduceClient(final int port) throws ClientCreationException {
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            output = socket.getOutputStream();
+        } catch (IOException e) {
+            throw new ClientCreationException("Error connecting to loopback server", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> produceAsync(final String topic, final String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> produceBytesAsync(final String topic, final byte[] message) {
+        try {
+            output.write(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return Batches.failed(new ProduceException("Error writing to loopback server", e));
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> produceBatchAsync(final String topic, final List<String> messages) {
+        for (String message : messages) {
+            CompletableFuture<Void> result = produceAsync(topic, message);
+            if (result.isCompletedExceptionally()) {
+                return result;
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> produceBytesBatchAsync(final String topic, final List<byte[]> messages) {
+        for (byte[] message : messages) {
+            CompletableFuture<Void> result = produceBytesAsync(topic, message);
+            if (result.isCompletedExceptionally()) {
+                return result;
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
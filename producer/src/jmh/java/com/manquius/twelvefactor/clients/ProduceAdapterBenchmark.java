@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.lettuce.core.RedisURI;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each {@link ProduceClient} adapter against in-process stand-ins of its backing service:
+ * Kafka runs on {@link StandInKafkaProducer}, Pulsar on {@link StandInPulsarProducer}, and Redis on the real Lettuce client connected to a loopback {@link RespServer}.
+ * The results include the adapter work, such as serialization and the completion of the futures, but not the broker.
+ * The {@link MemoryProduceClient} has no backing service at all, so it is the ceiling of the other adapters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProduceAdapterBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"100", "10000"})
+    public int messageBytes;
+
+    private String message;
+    private byte[] binaryMessage;
+    private List<String> batch;
+    private RespServer respServer;
+    private ProduceClient kafka;
+    private ProduceClient redis;
+    private ProduceClient pulsar;
+    private ProduceClient memory;
+
+    @Setup
+    public void setUp() throws IOException {
+        char[] text = new char[messageBytes];
+        Arrays.fill(text, 'm');
+        message = new String(text);
+        binaryMessage = new byte[messageBytes];
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(message);
+        }
+        respServer = new RespServer(0, new byte[0]);
+        kafka = new KafkaProduceClient(new StandInKafkaProducer());
+        redis = new RedisProduceClient(RedisURI.Builder.redis("127.0.0.1").withPort(respServer.getPort()).build());
+        pulsar = new PulsarProduceClient(null, topic -> CompletableFuture.completedFuture(new StandInPulsarProducer(topic)));
+        memory = new MemoryProduceClient(new MemoryTopics(65536, MemoryTopics.Overflow.DROP_OLDEST, 1));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        kafka.close();
+        redis.close();
+        pulsar.close();
+        memory.close();
+        respServer.close();
+    }
+
+    @Benchmark
+    public void kafkaProduce() {
+        kafka.produceAsync(TOPIC, message).join();
+    }
+
+    @Benchmark
+    public void kafkaProduceBytes() {
+        kafka.produceBytesAsync(TOPIC, binaryMessage).join();
+    }
+
+    @Benchmark
+    public void kafkaProduceBatch() {
+        kafka.produceBatchAsync(TOPIC, batch).join();
+    }
+
+    @Benchmark
+    public void redisProduce() {
+        redis.produceAsync(TOPIC, message).join();
+    }
+
+    @Benchmark
+    public void redisProduceBytes() {
+        redis.produceBytesAsync(TOPIC, binaryMessage).join();
+    }
+
+    @Benchmark
+    public void redisProduceBatch() {
+        redis.produceBatchAsync(TOPIC, batch).join();
+    }
+
+    @Benchmark
+    public void pulsarProduce() {
+        pulsar.produceAsync(TOPIC, message).join();
+    }
+
+    @Benchmark
+    public void pulsarProduceBytes() {
+        pulsar.produceBytesAsync(TOPIC, binaryMessage).join();
+    }
+
+    @Benchmark
+    public void pulsarProduceBatch() {
+        pulsar.produceBatchAsync(TOPIC, batch).join();
+    }
+
+    @Benchmark
+    public void memoryProduce() {
+        memory.produceAsync(TOPIC, message).join();
+    }
+
+    @Benchmark
+    public void memoryProduceBytes() {
+        memory.produceBytesAsync(TOPIC, binaryMessage).join();
+    }
+
+    @Benchmark
+    public void memoryProduceBatch() {
+        memory.produceBatchAsync(TOPIC, batch).join();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sharing the singleton {@link ProduceClientProvider} client among requests against the former behaviour of closing the client after every request, which forced a new connection per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProduceClientProviderBenchmark {
+
+    private LoopbackServer server;
+    private ProduceClientProvider singleton;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        singleton = new LoopbackProduceClientProvider(server.getPort());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        singleton.close();
+        server.close();
+    }
+
+    /**
+     * Shared client, created once and reused by every request.
+     */
+    @Benchmark
+    public void sharedClient() throws Exception {
+        singleton.getClient().produce("topic", "message");
+    }
+
+    /**
+     * Client closed after every request, so every request pays the connection.
+     */
+    @Benchmark
+    public void closePerRequest() throws Exception {
+        ProduceClientProvider provider = new LoopbackProduceClientProvider(server.getPort());
+        try (ProduceClient client = provider.getClient()) {
+            client.produce("topic", "message");
+        }
+    }
+
+    private static final class LoopbackProduceClientProvider extends ProduceClientProvider {
+
+        private final int port;
+
+        private LoopbackProduceClientProvider(final int port) {
+            this.port = port;
+        }
+
+        @Override
+        protected ProduceClient createClient() throws ClientCreationException {
+            return new LoopbackProduceClient(port);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * In-process stand-in for a Redis server used on benchmarks. It speaks enough of the RESP protocol to serve the Redis adapters over a loopback connection:
+ * LPUSH is acknowledged without storing the values, LRANGE returns a fixed list of messages, and any other command is answered with OK.
+ */
+class RespServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final byte[] lrangeReply;
+
+    /**
+     * RespServer constructor. It starts accepting connections on a random loopback port.
+     * @param messages number of messages returned by LRANGE.
+     * @param message value of each message returned by LRANGE.
+     */
+    RespServer(final int messages, final byte[] message) throws IOException {
+        StringBuilder reply = new StringBuilder("*").append(messages).append("\r\n");
+        String value = new String(message, StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < messages; i++) {
+            reply.append('$').append(message.length).append("\r\n").append(value).append("\r\n");
+        }
+        lrangeReply = reply.toString().getBytes(StandardCharsets.ISO_8859_1);
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "resp-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread connection = new Thread(() -> serve(socket), "resp-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try (Socket connection = socket;
+             InputStream input = new BufferedInputStream(connection.getInputStream());
+             OutputStream output = new BufferedOutputStream(connection.getOutputStream())) {
+            while (true) {
+                String command = readCommand(input);
+                if (command == null) {
+                    return;
+                }
+                if ("LPUSH".equalsIgnoreCase(command)) {
+                    output.write(":1\r\n".getBytes(StandardCharsets.US_ASCII));
+                } else if ("LRANGE".equalsIgnoreCase(command)) {
+                    output.write(lrangeReply);
+                } else {
+                    output.write("+OK\r\n".getBytes(StandardCharsets.US_ASCII));
+                }
+                if (input.available() == 0) {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed by the client.
+        }
+    }
+
+    /**
+     * Reads a RESP array of bulk strings, skipping all its arguments.
+     * @return the command name, or null if the connection was closed.
+     */
+    private static String readCommand(final InputStream input) throws IOException {
+        String header = readLine(input);
+        if (header == null) {
+            return null;
+        }
+        int arguments = Integer.parseInt(header.substring(1));
+        String command = null;
+        for (int i = 0; i < arguments; i++) {
+            int length = Integer.parseInt(readLine(input).substring(1));
+            byte[] argument = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int count = input.read(argument, read, length - read);
+                if (count < 0) {
+                    return null;
+                }
+                read += count;
+            }
+            readLine(input);
+            if (i == 0) {
+                command = new String(argument, StandardCharsets.US_ASCII);
+            }
+        }
+        return command;
+    }
+
+    private static String readLine(final InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int current;
+        while ((current = input.read()) != '\n') {
+            if (current < 0) {
+                return null;
+            }
+            if (current != '\r') {
+                line.append((char) current);
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a Kafka producer used on benchmarks.
+ * It serializes every record like the real producer does, and completes its callback immediately instead of sending it to a broker.
+ * Unlike {@link org.apache.kafka.clients.producer.MockProducer}, it does not keep the sent records, so it can run for any number of iterations.
+ */
+class StandInKafkaProducer implements Producer<String, byte[]> {
+
+    private final StringSerializer keySerializer = new StringSerializer();
+    private final ByteArraySerializer valueSerializer = new ByteArraySerializer();
+    private final AtomicLong offset = new AtomicLong();
+
+    @Override
+    public Future<RecordMetadata> send(final ProducerRecord<String, byte[]> record) {
+        return send(record, null);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(final ProducerRecord<String, byte[]> record, final Callback callback) {
+        byte[] key = keySerializer.serialize(record.topic(), record.key());
+        byte[] value = valueSerializer.serialize(record.topic(), record.value());
+        RecordMetadata metadata = new RecordMetadata(new TopicPartition(record.topic(), 0), 0, offset.getAndIncrement(), System.currentTimeMillis(),
+                null, key == null ? 0 : key.length, value == null ? 0 : value.length);
+        if (callback != null) {
+            callback.onCompletion(metadata, null);
+        }
+        return CompletableFuture.completedFuture(metadata);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(final String topic) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void close(final Duration timeout) {
+    }
+
+    @Override
+    public void initTransactions() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void beginTransaction() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendOffsetsToTransaction(final Map<TopicPartition, OffsetAndMetadata> offsets, final String consumerGroupId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void commitTransaction() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void abortTransaction() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory stand-in for a backing service adapter used on benchmarks. It acknowledges every message immediately, so only the caller overhead is measured.
+ */
+class StandInProduceClient implements ProduceClient {
+
+    private static final CompletableFuture<Void> ACKNOWLEDGED = CompletableFuture.completedFuture(null);
+
+    @Override
+    public CompletableFuture<Void> produceAsync(final String topic, final String message) {
+        return ACKNOWLEDGED;
+    }
+
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(final String topic, final List<String> messages) {
+        return ACKNOWLEDGED;
+    }
+
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(final String topic, final byte[] message) {
+        return ACKNOWLEDGED;
+    }
+
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(final String topic, final List<byte[]> messages) {
+        return ACKNOWLEDGED;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerStats;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a Pulsar producer used on benchmarks. It acknowledges every message immediately instead of sending it to a broker.
+ */
+class StandInPulsarProducer implements Producer<byte[]> {
+
+    private static final CompletableFuture<MessageId> ACKNOWLEDGED = CompletableFuture.completedFuture(MessageId.latest);
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final String topic;
+    private final AtomicLong sequence = new AtomicLong();
+
+    StandInPulsarProducer(final String topic) {
+        this.topic = topic;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public String getProducerName() {
+        return "stand-in";
+    }
+
+    @Override
+    public MessageId send(final byte[] message) {
+        return sendAsync(message).join();
+    }
+
+    @Override
+    public CompletableFuture<MessageId> sendAsync(final byte[] message) {
+        sequence.incrementAndGet();
+        return ACKNOWLEDGED;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public CompletableFuture<Void> flushAsync() {
+        return DONE;
+    }
+
+    @Override
+    public TypedMessageBuilder<byte[]> newMessage() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> TypedMessageBuilder<V> newMessage(final Schema<V> schema) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLastSequenceId() {
+        return sequence.get();
+    }
+
+    @Override
+    public ProducerStats getStats() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        return DONE;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+}
@@ -9,41 +9,66 @@
 
 package com.manquius.twelvefactor.api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.manquius.twelvefactor.clients.BackendHealth;
+import com.manquius.twelvefactor.clients.BatchProduceException;
+import com.manquius.twelvefactor.clients.ClientCreationException;
+import com.manquius.twelvefactor.clients.ClientMetrics;
 import com.manquius.twelvefactor.clients.ProduceClientProvider;
 import com.manquius.twelvefactor.clients.ProduceClient;
+import com.manquius.twelvefactor.clients.StageLatencies;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
 /**
  * ProduceController is the main controller in Produce Service. It allows to produce to a topic in the backing service.
+ * Requests are timed by the twelvefactor.produce.requests timer of the client, and the ones waiting for an acknowledgement are reported by the twelvefactor.produce.inflight gauge.
+ * The body decoding and the client lookup are recorded as {@link StageLatencies} stages.
  */
 @Controller("/topic")
 public class ProduceController {
 
+    /**
+     * Newline delimited JSON media type, accepted by the batch API.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private final ProduceClientProvider provider;
 
-    private static final Logger LOG = LoggerFactory.getLogger(ProduceController.class);
+    private final ObjectMapper mapper;
 
-    /**
-     * Main public constructor, using on production.
-     */
-    public ProduceController() {
-        this.provider = new ProduceClientProvider();
-    }
+    private final Map<String, ClientMetrics.Timers> requests = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = ClientMetrics.gauge(BackendHealth.IN_FLIGHT_GAUGE);
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProduceController.class);
 
     /**
-     * Protected constructor for testing purposes.
-     * @param provider
+     * Main public constructor.
+     * @param provider singleton {@link ProduceClientProvider} that shares the backing service clients among all the requests.
+     * @param mapper {@link ObjectMapper} that decodes the JSON bodies, so newline delimited messages are decoded as the JSON array ones.
      */
-    protected ProduceController(ProduceClientProvider provider) {
+    public ProduceController(ProduceClientProvider provider, ObjectMapper mapper) {
         this.provider = provider;
+        this.mapper = mapper;
     }
 
     /**
      * Main /topic method, allows the user to produce to backing service.
+     * The response is completed asynchronously when the backing service acknowledges the message, so the request thread is never blocked.
      * @param topic where the message will be produced.
      * @param message String message to be produced on the topic.
      * @return 200 Ok, or 500 Internal Server Error
@@ -51,14 +76,146 @@ public class ProduceController {
     @Post("/{topic}")
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-    public HttpResponse<String> produce(@PathVariable String topic, @Body String message) {
-        try (ProduceClient client = provider.getClient()) {
-            client.produce(topic, message);
-            return HttpResponse.ok("Ok");
-        } catch (Exception e) {
+    public CompletableFuture<HttpResponse<String>> produce(@PathVariable String topic, @Body String message) {
+        return produce(topic, client -> client.produceAsync(topic, message));
+    }
+
+    /**
+     * /topic method for binary payloads. The body is produced as it is, without being decoded into a String, so non-text payloads are not converted nor copied again.
+     * @param topic where the message will be produced.
+     * @param message bytes to be produced on the topic.
+     * @return 200 Ok, or 500 Internal Server Error
+     */
+    @Post("/{topic}")
+    @Produces(MediaType.TEXT_PLAIN)
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public CompletableFuture<HttpResponse<String>> produceBytes(@PathVariable String topic, @Body byte[] message) {
+        return produce(topic, client -> client.produceBytesAsync(topic, message));
+    }
+
+    private CompletableFuture<HttpResponse<String>> produce(String topic, Function<ProduceClient, CompletableFuture<Void>> operation) {
+        final ProduceClient client;
+        try {
+            client = client();
+        } catch (ClientCreationException e) {
             LOG.error("Error producing.", e);
-            return HttpResponse.serverError();
+            return CompletableFuture.completedFuture(HttpResponse.serverError());
         }
+        return measure(client, "single", topic, operation).handle((ignored, error) -> {
+            if (error != null) {
+                LOG.error("Error producing.", unwrap(error));
+                return HttpResponse.serverError();
+            }
+            return HttpResponse.ok("Ok");
+        });
+    }
+
+    /**
+     * /topic/{topic}/batch method, allows the user to produce many messages to backing service in a single request.
+     * The response is completed asynchronously when the backing service acknowledges the whole batch.
+     * @param topic where the messages will be produced.
+     * @param messages JSON array of String messages to be produced on the topic.
+     * @return 200 Ok, or 500 Internal Server Error with the number of messages produced before the failure.
+     */
+    @Post("/{topic}/batch")
+    @Produces(MediaType.TEXT_PLAIN)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public CompletableFuture<HttpResponse<String>> produceBatch(@PathVariable String topic, @Body List<String> messages) {
+        final ProduceClient client;
+        try {
+            client = client();
+        } catch (ClientCreationException e) {
+            LOG.error("Error producing batch.", e);
+            return CompletableFuture.completedFuture(HttpResponse.serverError());
+        }
+        return measure(client, "batch", topic, c -> c.produceBatchAsync(topic, messages)).handle((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                LOG.error("Error producing batch.", cause);
+                if (cause instanceof BatchProduceException) {
+                    return HttpResponse.serverError("Produced " + ((BatchProduceException) cause).getSent() + " of " + messages.size());
+                }
+                return HttpResponse.serverError();
+            }
+            return HttpResponse.ok("Ok");
+        });
+    }
+
+    /**
+     * /topic/{topic}/batch method for newline delimited JSON bodies, where each line is a JSON string with a message to be produced.
+     * @param topic where the messages will be produced.
+     * @param body newline delimited JSON strings to be produced on the topic. Empty lines are ignored.
+     * @return 200 Ok, 400 Bad Request with the first line that is not a JSON string, or 500 Internal Server Error with the number of messages produced before the failure.
+     */
+    @Post("/{topic}/batch")
+    @Produces(MediaType.TEXT_PLAIN)
+    @Consumes({APPLICATION_NDJSON, MediaType.APPLICATION_JSON_STREAM})
+    public CompletableFuture<HttpResponse<String>> produceNdjsonBatch(@PathVariable String topic, @Body String body) {
+        long started = System.nanoTime();
+        List<String> messages = new ArrayList<>();
+        String[] lines = body.split("\\r?\\n");
+        for (int line = 0; line < lines.length; line++) {
+            if (lines[line].trim().isEmpty()) {
+                continue;
+            }
+            String message = decode(lines[line]);
+            if (message == null) {
+                StageLatencies.record(StageLatencies.Stage.DECODE, started);
+                return CompletableFuture.completedFuture(HttpResponse.badRequest("Line " + (line + 1) + " is not a JSON string"));
+            }
+            messages.add(message);
+        }
+        StageLatencies.record(StageLatencies.Stage.DECODE, started);
+        return produceBatch(topic, messages);
+    }
+
+    /**
+     * @return the String of a JSON string line, decoded as the messages of the JSON array bodies, or null if it is not one.
+     */
+    private String decode(String line) {
+        try {
+            return mapper.readValue(line, String.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the shared client of the provider, recording the lookup.
+     */
+    private ProduceClient client() throws ClientCreationException {
+        long started = System.nanoTime();
+        try {
+            return provider.getClient();
+        } finally {
+            StageLatencies.record(StageLatencies.Stage.PROVIDER, started);
+        }
+    }
+
+    /**
+     * Runs an operation on the client, timing it and counting it as in flight until it completes.
+     */
+    private CompletableFuture<Void> measure(ProduceClient client, String operation, String topic, Function<ProduceClient, CompletableFuture<Void>> produce) {
+        ClientMetrics.Timers timers = requests.computeIfAbsent(client.getClass().getSimpleName() + '/' + operation,
+                key -> ClientMetrics.timers("twelvefactor.produce.requests", "client", client.getClass().getSimpleName(), "operation", operation));
+        long started = System.nanoTime();
+        inFlight.incrementAndGet();
+        CompletableFuture<Void> result;
+        try {
+            result = produce.apply(client);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            timers.record(topic, started, false);
+            throw e;
+        }
+        return result.whenComplete((ignored, error) -> {
+            inFlight.decrementAndGet();
+            timers.record(topic, started, error == null);
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * Readiness of the pod, used on the readiness probe so traffic is only routed to replicas that can serve it.
+ * The backing services are probed periodically from a background thread, and the result is cached, so checking the readiness costs nothing on the request path.
+ * The pod is not ready while no backing service level is healthy, or while it is saturated with requests waiting for the backing services.
+ * It can be configured using the following environment variables:
+ * HEALTH_PROBE_INTERVAL_MS interval between probes. Default 5000.
+ * HEALTH_PROBE_TIMEOUT_MS max time to wait for the probe of the backing services. Default 2000.
+ * READINESS_MAX_IN_FLIGHT number of in flight requests that makes the pod not ready. Default 1000.
+ */
+@Singleton
+public class BackendHealth implements AutoCloseable {
+
+    /**
+     * Gauge of the requests waiting for the backing services, updated by the controllers.
+     */
+    public static final String IN_FLIGHT_GAUGE = "twelvefactor.produce.inflight";
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackendHealth.class);
+
+    private final ProduceClientProvider provider;
+    private final long timeoutMillis;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = ClientMetrics.gauge(IN_FLIGHT_GAUGE);
+    private final AtomicInteger healthy = ClientMetrics.gauge("twelvefactor.backend.healthy");
+    private final ScheduledExecutorService scheduler;
+    private volatile String failure = "Backing services not probed yet";
+
+    /**
+     * BackendHealth constructor. It starts probing immediately.
+     * @param provider singleton {@link ProduceClientProvider} whose client is probed.
+     */
+    public BackendHealth(final ProduceClientProvider provider) {
+        this(provider, getLong("HEALTH_PROBE_INTERVAL_MS", 5000));
+    }
+
+    /**
+     * BackendHealth constructor with a custom interval.
+     * @param provider {@link ProduceClientProvider} whose client is probed.
+     * @param intervalMillis interval between probes, or 0 to only probe when {@link #probe()} is called.
+     */
+    BackendHealth(final ProduceClientProvider provider, final long intervalMillis) {
+        this.provider = provider;
+        this.timeoutMillis = getLong("HEALTH_PROBE_TIMEOUT_MS", 2000);
+        this.maxInFlight = Math.max(1, getInt("READINESS_MAX_IN_FLIGHT", 1000));
+        if (intervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "backend-health");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::probe, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Probes the backing services and caches the result.
+     */
+    void probe() {
+        String result;
+        try {
+            provider.getClient().probe().get(timeoutMillis, TimeUnit.MILLISECONDS);
+            result = null;
+        } catch (ClientCreationException e) {
+            result = "Client could not be created: " + e.getMessage();
+        } catch (ExecutionException e) {
+            result = e.getCause().getMessage();
+        } catch (TimeoutException e) {
+            result = "Backing services did not answer in " + timeoutMillis + "ms";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            result = e.toString();
+        }
+        if (result != null && failure == null) {
+            LOG.warn("Backing services are not healthy: " + result);
+        } else if (result == null && failure != null) {
+            LOG.info("Backing services are healthy.");
+        }
+        failure = result;
+        healthy.set(result == null ? 1 : 0);
+    }
+
+    /**
+     * @return null if the pod is ready, or the reason why it is not.
+     */
+    public String getNotReadyReason() {
+        String reason = failure;
+        if (reason != null) {
+            return reason;
+        }
+        int requests = inFlight.get();
+        return requests >= maxInFlight ? "Saturated: " + requests + " requests in flight" : null;
+    }
+
+    /**
+     * @return true if there is a healthy backing service and the pod is not saturated.
+     */
+    public boolean isReady() {
+        return getNotReadyReason() == null;
+    }
+
+    /**
+     * Stops probing on application shutdown.
+     */
+    @PreDestroy
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+/**
+ * Exception to be thrown if a batch of messages could not be fully produced.
+ * It carries the number of leading messages of the batch that were already produced, so the caller can retry only the remaining ones.
+ */
+public class BatchProduceException extends ProduceException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int sent;
+
+    public BatchProduceException(String message, int sent) {
+        super(message);
+        this.sent = sent;
+    }
+
+    public BatchProduceException(String message, int sent, Throwable cause) {
+        super(message, cause);
+        this.sent = sent;
+    }
+
+    /**
+     * @return number of leading messages of the batch that were produced before the failure.
+     */
+    public int getSent() {
+        return sent;
+    }
+}
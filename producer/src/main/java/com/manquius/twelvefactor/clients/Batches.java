@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Helper to combine the acknowledgements of the messages of a batch sent asynchronously.
+ */
+final class Batches {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Batches.class);
+
+    private Batches() {
+    }
+
+    /**
+     * Combines the acknowledgements of a batch.
+     * @param backend name of the backing service, used on the error message.
+     * @param results acknowledgements of the sent messages, in the same order as the batch.
+     * @param size number of messages in the batch. It may be greater than the results size if the batch could not be fully sent.
+     * @return {@link CompletableFuture} completed when all the messages are acknowledged, or completed exceptionally with a {@link BatchProduceException} holding the number of leading messages acknowledged.
+     */
+    static CompletableFuture<Void> acknowledged(final String backend, final List<? extends CompletableFuture<?>> results, final int size) {
+        CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            int sent = 0;
+            for (CompletableFuture<?> result : results) {
+                if (result.isCompletedExceptionally()) {
+                    break;
+                }
+                sent++;
+            }
+            if (sent < size) {
+                LOG.debug("Batch could not be fully acknowledged by " + backend + ". Sent: " + sent + " of " + size, error);
+                acknowledged.completeExceptionally(new BatchProduceException("Error producing batch to " + backend, sent, error));
+            } else {
+                acknowledged.complete(null);
+            }
+        });
+        return acknowledged;
+    }
+
+    /**
+     * @return a {@link CompletableFuture} already completed with the given error.
+     */
+    static <T> CompletableFuture<T> failed(final Throwable error) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(error);
+        return failed;
+    }
+}
@@ -9,133 +9,551 @@
 
 package com.manquius.twelvefactor.clients;
 
+import io.micrometer.core.instrument.Counter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Calendar;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
-import static java.util.Optional.ofNullable;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
 
 /**
  * Implementation of {@link ProduceClient} that handles a Circuit Breaker mechanism among the provided alternatives.
  * It is the default {@link ProduceClient}.
+ * Each backing service level is protected by its own {@link CircuitBreaker}: a level is skipped while its circuit is open, and only a limited number of probe requests reach it while it recovers.
+ * All the failover state is kept in the circuit breakers, so the client can be shared by all the request threads.
  * It can be configured Using the following environment variables:
- * CIRCUIT_BREAKER_MAX_ATTEMPTS: Number of attempts to produce to one backing service before passing to the next one. Default: 10.
- * CIRCUIT_BREAKER_LEVEL_RESET_MS: Number of milliseconds to keep producing to a secondary backing service, before trying to produce to the previous one. Default: 10000.
+ * CIRCUIT_BREAKER_MAX_ATTEMPTS: Number of attempts to produce to one backing service on a request before passing to the next one. Default: 10.
+ * The {@link CircuitBreaker} environment variables: CIRCUIT_BREAKER_LEVEL_RESET_MS, CIRCUIT_BREAKER_FAILURE_RATE, CIRCUIT_BREAKER_MIN_CALLS, CIRCUIT_BREAKER_WINDOW_MS and CIRCUIT_BREAKER_HALF_OPEN_PROBES.
+ * Optionally, single messages can be hedged: if the primary backing service did not acknowledge a message within a latency budget, the message is also produced to the next available level and the first acknowledgement wins.
+ * Only attempts that are still running on the primary level are hedged, as an attempt that already failed over has no faster level to race.
+ * Hedging duplicates the messages acknowledged by both levels, which is tracked by {@link #getDuplicates()}. It is configured using the following environment variables:
+ * CIRCUIT_BREAKER_HEDGE_DELAY_MS: Latency budget of the primary backing service before hedging. Default: 0, hedging disabled unless a percentile is configured.
+ * CIRCUIT_BREAKER_HEDGE_PERCENTILE: When greater than 0, the latency budget is the observed percentile (e.g. 99) of the primary backing service, recomputed every CIRCUIT_BREAKER_HEDGE_INTERVAL_MS. Default: 0.
+ * CIRCUIT_BREAKER_HEDGE_INTERVAL_MS: Interval of the percentile recomputation. Default: 10000.
+ * When a {@link SpillJournal} is configured with SPILL_JOURNAL_DIR, it is the last level: messages that no backing service could take are appended to the local journal,
+ * and a {@link SpillReplayer} produces them to the primary backing service once it recovers.
+ * Likewise, a {@link MemoryReplayer} produces the messages buffered by a MEMORY failover level to the primary backing service once it recovers.
+ * Every call to a backing service is timed by the twelvefactor.produce.calls timer of its adapter, and the retries and the failovers to the next level are counted by the
+ * twelvefactor.produce.retries and twelvefactor.produce.failovers counters. The whole calls and the adapter calls are also recorded as {@link StageLatencies} stages.
  */
 public class CircuitBreakerProduceClient implements ProduceClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerProduceClient.class);
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final int DEFAULT_HEDGE_INTERVAL_MILLIS = 10000;
 
     /**
-     * Max attempts to produce before move to next level of failover.
+     * Minimum number of samples of an interval to trust its percentile.
      */
-    private int maxAttempts;
+    private static final int MIN_HEDGE_SAMPLES = 100;
+
+    private static final int WAITING = 0;
+    private static final int HEDGED = 1;
+    private static final int PRIMARY_DONE = 2;
 
     /**
-     * Number of millis to wait before try to produce to level 0 again.
+     * Max attempts to produce on a request before move to next level of failover.
      */
-    private long levelResetMillis;
+    private final int maxAttempts;
+
+    protected final List<ProduceClient> clientAdapters;
 
     /**
-     * Calendar.
+     * One {@link CircuitBreaker} per level, in the same order as the adapters.
      */
-    private final Calendar cal = Calendar.getInstance();
+    private final List<CircuitBreaker> breakers;
 
     /**
-     * Last time.
+     * Call timers, retry and failover counters of every level, in the same order as the adapters.
      */
-    private final long lastResetTime = cal.getTimeInMillis();
+    private final List<ClientMetrics.Timers> calls;
+    private final List<Counter> retries;
+    private final List<Counter> failovers;
 
     /**
-     * Failover level.
+     * Hedging scheduler, null when hedging is disabled.
      */
-    private int level = 0;
+    private final ScheduledExecutorService hedgeScheduler;
 
     /**
-     * Current attempts on failing productions.
+     * Percentile of the primary latency used as hedging budget, or 0 to use a fixed budget.
      */
-    private int attempts = 1;
+    private final double hedgePercentile;
 
-    protected final List<ProduceClient> clientAdapters;
+    /**
+     * Current hedging budget in nanoseconds.
+     */
+    private volatile long hedgeDelayNanos;
+
+    /**
+     * Latency of the primary backing service acknowledgements on the current interval.
+     */
+    private final LatencyTracker primaryLatency = new LatencyTracker();
+
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Local journal used as last level, null when spilling is disabled.
+     */
+    private final SpillJournal journal;
+
+    private final SpillReplayer replayer;
+
+    private final List<MemoryReplayer> memoryReplayers = new ArrayList<>();
 
     /**
      * CircuitBreakerProduceClient contructor.
      * @param adapters Ordered {@link List} of {@link ProduceClient} that will connect to backing services. The default will be the first one, and it will call the next ones when the previous fails.
      *                 The max attempts to produce to a failing backing service is configured by CIRCUIT_BREAKER_MAX_ATTEMPTS environment variable. Default: 10.
-     *                 The time it will continue producing to a secondary backend before re-trying the previous one is configured by CIRCUIT_BREAKER_LEVEL_RESET_MS environment variable. Default:10000.
+     *                 The circuit breaker of each backing service is configured by the {@link CircuitBreaker} environment variables.
      */
     public CircuitBreakerProduceClient(final List<ProduceClient> adapters) {
-        try {
-            maxAttempts = Integer.valueOf(ofNullable("CIRCUIT_BREAKER_MAX_ATTEMPTS").orElse("10"));
-        } catch(NumberFormatException e) {
-            maxAttempts = 10;
+        this(adapters, null);
+    }
+
+    /**
+     * CircuitBreakerProduceClient contructor with a local journal as last level.
+     * @param adapters Ordered {@link List} of {@link ProduceClient} that will connect to backing services.
+     * @param journal {@link SpillJournal} where the messages are appended when all the backing services fail, or null to fail the request.
+     */
+    CircuitBreakerProduceClient(final List<ProduceClient> adapters, final SpillJournal journal) {
+        this.maxAttempts = Math.max(1, getInt("CIRCUIT_BREAKER_MAX_ATTEMPTS", DEFAULT_MAX_ATTEMPTS));
+        this.clientAdapters = adapters;
+        List<CircuitBreaker> levels = new ArrayList<>(adapters.size());
+        for (ProduceClient adapter : adapters) {
+            levels.add(CircuitBreaker.fromEnvironment(adapter.getClass().getSimpleName()));
         }
-        try {
-        levelResetMillis = Long.valueOf(ofNullable("CIRCUIT_BREAKER_LEVEL_RESET_MS").orElse("10000"));
-        } catch(NumberFormatException e) {
-            levelResetMillis = 10000;
+        this.breakers = Collections.unmodifiableList(levels);
+        this.calls = new ArrayList<>(levels.size());
+        this.retries = new ArrayList<>(levels.size());
+        this.failovers = new ArrayList<>(levels.size());
+        for (CircuitBreaker breaker : levels) {
+            calls.add(ClientMetrics.timers("twelvefactor.produce.calls", "adapter", breaker.getName()));
+            retries.add(ClientMetrics.counter("twelvefactor.produce.retries", "adapter", breaker.getName()));
+            failovers.add(ClientMetrics.counter("twelvefactor.produce.failovers", "adapter", breaker.getName()));
+        }
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(getLong("CIRCUIT_BREAKER_HEDGE_DELAY_MS", 0));
+        this.hedgePercentile = getInt("CIRCUIT_BREAKER_HEDGE_PERCENTILE", 0);
+        if (adapters.size() > 1 && (hedgeDelayNanos > 0 || hedgePercentile > 0)) {
+            hedgeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "produce-hedging");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = getLong("CIRCUIT_BREAKER_HEDGE_INTERVAL_MS", DEFAULT_HEDGE_INTERVAL_MILLIS);
+            hedgeScheduler.scheduleWithFixedDelay(this::updateHedgeDelay, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            hedgeScheduler = null;
+        }
+        this.journal = journal;
+        this.replayer = journal == null ? null : new SpillReplayer(journal, adapters.get(0), breakers.get(0));
+        for (int level = 1; level < adapters.size(); level++) {
+            if (adapters.get(level) instanceof MemoryProduceClient) {
+                memoryReplayers.add(new MemoryReplayer(((MemoryProduceClient) adapters.get(level)).getTopics(), adapters.get(0), breakers.get(0)));
+            }
         }
-        this.clientAdapters = adapters;
     }
 
     /**
-     * Produce method implementation with Circuit Breaker mechanism.
+     * Asynchronous produce method implementation with Circuit Breaker mechanism.
+     * Each attempt is chained on the completion of the previous one, so no thread is blocked while the backing services are retried.
      * @param topic where the message will be produced.
      * @param message to be produced in the topic
-     * @throws ProduceException if the message could not be produced.
+     * @return {@link CompletableFuture} completed when any backing service acknowledged the message, or completed exceptionally with a {@link ProduceException}.
+     */
+    @Override
+    public CompletableFuture<Void> produceAsync(String topic, String message) {
+        long started = System.nanoTime();
+        return timed(produce(topic, message, TEXT), started);
+    }
+
+    /**
+     * Asynchronous binary produce method implementation with Circuit Breaker mechanism. It is failed over and hedged as {@link #produceAsync(String, String)}.
+     * @param topic where the message will be produced.
+     * @param message bytes to be produced in the topic
+     * @return {@link CompletableFuture} completed when any backing service acknowledged the message, or completed exceptionally with a {@link ProduceException}.
      */
     @Override
-    public void produce(String topic, String message) throws ProduceException {
-        boolean sent = false;
-        if (level > 0) {
-            checkResetTime();
+    public CompletableFuture<Void> produceBytesAsync(String topic, byte[] message) {
+        long started = System.nanoTime();
+        return timed(produce(topic, message, BINARY), started);
+    }
+
+    private <T> CompletableFuture<Void> produce(String topic, T message, Payload<T> payload) {
+        CompletableFuture<Void> primary = new CompletableFuture<>();
+        AtomicInteger primaryLevel = new AtomicInteger();
+        tryToProduce(topic, message, payload, 0, 1, primary, primaryLevel);
+        long delay = hedgeDelayNanos;
+        if (hedgeScheduler == null || delay <= 0 || primary.isDone() || primaryLevel.get() != 0) {
+            return primary;
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicInteger state = new AtomicInteger(WAITING);
+        ScheduledFuture<?> timer = hedgeScheduler.schedule(() -> {
+            if (primaryLevel.get() == 0 && state.compareAndSet(WAITING, HEDGED)) {
+                hedge(topic, message, payload, 0, primary, result);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        primary.whenComplete((ignored, error) -> {
+            if (state.compareAndSet(WAITING, PRIMARY_DONE)) {
+                timer.cancel(false);
+                complete(result, error);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Produces the message to the next available level after the primary attempt's, while the primary attempt is still running.
+     * The first acknowledgement completes the result, and it only fails if both attempts fail. If no level is available the primary attempt completes the result alone.
+     */
+    private <T> void hedge(String topic, T message, Payload<T> payload, int primaryLevel, CompletableFuture<Void> primary, CompletableFuture<Void> result) {
+        int level = availableLevel(primaryLevel + 1);
+        if (level >= clientAdapters.size()) {
+            primary.whenComplete((ignored, error) -> complete(result, error));
+            return;
         }
-        while (!sent && level < clientAdapters.size()) {
-            sent = tryToProduce(topic, message);
+        hedges.incrementAndGet();
+        CompletableFuture<Void> hedged = new CompletableFuture<>();
+        produceTo(topic, message, payload, level, 1, hedged, null);
+        AtomicInteger remaining = new AtomicInteger(2);
+        AtomicBoolean acknowledged = new AtomicBoolean();
+        primary.whenComplete((ignored, error) -> hedgeCompleted(result, error, remaining, acknowledged, false));
+        hedged.whenComplete((ignored, error) -> hedgeCompleted(result, error, remaining, acknowledged, true));
+    }
+
+    private void hedgeCompleted(CompletableFuture<Void> result, Throwable error, AtomicInteger remaining, AtomicBoolean acknowledged, boolean isHedge) {
+        boolean last = remaining.decrementAndGet() == 0;
+        if (error == null) {
+            if (acknowledged.compareAndSet(false, true)) {
+                if (isHedge) {
+                    hedgeWins.incrementAndGet();
+                }
+                result.complete(null);
+            } else {
+                duplicates.incrementAndGet();
+                LOG.debug("Hedged message was produced twice.");
+            }
+        } else if (last) {
+            complete(result, error);
         }
-        if (!sent) {
-            LOG.error("Message could not be sent to any backend");
-            throw new ProduceException("Message could not be sent to any backend: " + message);
+    }
+
+    private static void complete(CompletableFuture<Void> result, Throwable error) {
+        if (error == null) {
+            result.complete(null);
+        } else {
+            result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
         }
     }
 
+    /**
+     * Recomputes the hedging budget from the primary latency percentile of the last interval.
+     */
+    private void updateHedgeDelay() {
+        if (hedgePercentile > 0 && primaryLatency.count() >= MIN_HEDGE_SAMPLES) {
+            hedgeDelayNanos = primaryLatency.percentile(hedgePercentile);
+        }
+        primaryLatency.reset();
+        LOG.debug("Hedging budget: " + TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos) + "ms. Hedged: " + hedges.get()
+                + ", hedge wins: " + hedgeWins.get() + ", duplicates: " + duplicates.get());
+    }
 
     /**
-     * Tries to produce a request to the current background service level.
-     *
-     * @return boolean indicating if the message was produced successfully to any backing service.
+     * @return number of requests that were hedged to the next level.
      */
-    private boolean tryToProduce(String topic, String message) {
-        boolean sent = false;
-        int currentLevel = level;
-        while (!sent && attempts <= maxAttempts && currentLevel == level) {
-            try {
-                ProduceClient adapter = clientAdapters.get(level);
-                adapter.produce(topic, message);
-                sent = true;
-            } catch (Exception e) {
-                if (attempts < maxAttempts) {
-                    LOG.error("Error trying to produce. Attempt: " + attempts);
-                    attempts++;
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return number of hedged requests acknowledged first by the next level.
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return number of hedged requests acknowledged by both levels, so the message was produced twice.
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Asynchronous batch produce method implementation with Circuit Breaker mechanism.
+     * The batch is failed over as a whole: when a backing service fails, only the messages it did not produce are passed to the next attempt or level.
+     * @param topic where the messages will be produced.
+     * @param messages ordered {@link List} of messages to be produced in the topic.
+     * @return {@link CompletableFuture} completed when the whole batch was acknowledged, or completed exceptionally with a {@link BatchProduceException}.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages) {
+        CompletableFuture<Void> result = timed(new CompletableFuture<>(), System.nanoTime());
+        tryToProduceBatch(topic, messages, TEXT, 0, 0, 1, result);
+        return result;
+    }
+
+    /**
+     * Asynchronous binary batch produce method implementation with Circuit Breaker mechanism. It is failed over as {@link #produceBatchAsync(String, List)}.
+     * @param topic where the messages will be produced.
+     * @param messages ordered {@link List} of binary messages to be produced in the topic.
+     * @return {@link CompletableFuture} completed when the whole batch was acknowledged, or completed exceptionally with a {@link BatchProduceException}.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages) {
+        CompletableFuture<Void> result = timed(new CompletableFuture<>(), System.nanoTime());
+        tryToProduceBatch(topic, messages, BINARY, 0, 0, 1, result);
+        return result;
+    }
+
+    /**
+     * Tries to produce a message to the first available background service level, chaining a new attempt if it fails.
+     * @param current if not null, it is set to the level of every attempt.
+     */
+    private <T> void tryToProduce(String topic, T message, Payload<T> payload, int from, int attempt, CompletableFuture<Void> result, AtomicInteger current) {
+        int level = availableLevel(from);
+        if (level >= clientAdapters.size()) {
+            spill(topic, Collections.singletonList(message), payload, 0, false, result);
+            return;
+        }
+        produceTo(topic, message, payload, level, level == from ? attempt : 1, result, current);
+    }
+
+    /**
+     * Produces a message to a level whose circuit breaker already allowed the call, chaining a new attempt if it fails.
+     */
+    private <T> void produceTo(String topic, T message, Payload<T> payload, int level, int currentAttempt, CompletableFuture<Void> result, AtomicInteger current) {
+        if (current != null) {
+            current.set(level);
+        }
+        CircuitBreaker breaker = breakers.get(level);
+        long started = System.nanoTime();
+        call(clientAdapters.get(level), adapter -> payload.produce(adapter, topic, message)).whenComplete((ignored, error) -> {
+            calls.get(level).record(topic, started, error == null);
+            StageLatencies.record(StageLatencies.Stage.ADAPTER, started);
+            if (error == null) {
+                breaker.onSuccess();
+                if (level == 0) {
+                    primaryLatency.record(System.nanoTime() - started);
+                }
+                result.complete(null);
+            } else {
+                breaker.onFailure();
+                if (currentAttempt < maxAttempts) {
+                    LOG.error("Error trying to produce. Attempt: " + currentAttempt);
+                    retries.get(level).increment();
+                    tryToProduce(topic, message, payload, level, currentAttempt + 1, result, current);
                 } else {
-                    attempts = 1;
-                    level++;
                     LOG.error("All the attempts to produce failed, moving to next level.");
+                    failovers.get(level).increment();
+                    tryToProduce(topic, message, payload, level + 1, 1, result, current);
                 }
             }
+        });
+    }
+
+    /**
+     * Tries to produce the pending messages of a batch to the first available background service level, chaining a new attempt with the remaining messages if it fails.
+     */
+    private <T> void tryToProduceBatch(String topic, List<T> messages, Payload<T> payload, int sent, int from, int attempt, CompletableFuture<Void> result) {
+        if (sent >= messages.size()) {
+            result.complete(null);
+            return;
+        }
+        int level = availableLevel(from);
+        if (level >= clientAdapters.size()) {
+            spill(topic, messages, payload, sent, true, result);
+            return;
+        }
+        int currentAttempt = level == from ? attempt : 1;
+        CircuitBreaker breaker = breakers.get(level);
+        List<T> pending = messages.subList(sent, messages.size());
+        long started = System.nanoTime();
+        call(clientAdapters.get(level), adapter -> payload.produceBatch(adapter, topic, pending)).whenComplete((ignored, error) -> {
+            calls.get(level).record(topic, started, error == null);
+            StageLatencies.record(StageLatencies.Stage.ADAPTER, started);
+            if (error == null) {
+                breaker.onSuccess();
+                result.complete(null);
+            } else {
+                breaker.onFailure();
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                int produced = sent + (cause instanceof BatchProduceException ? ((BatchProduceException) cause).getSent() : 0);
+                if (currentAttempt < maxAttempts) {
+                    LOG.error("Error trying to produce. Attempt: " + currentAttempt);
+                    retries.get(level).increment();
+                    tryToProduceBatch(topic, messages, payload, produced, level, currentAttempt + 1, result);
+                } else {
+                    LOG.error("All the attempts to produce failed, moving to next level.");
+                    failovers.get(level).increment();
+                    tryToProduceBatch(topic, messages, payload, produced, level + 1, 1, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends the pending messages to the {@link SpillJournal}, completing the result once they are written.
+     * Without journal, or if it cannot be written, the result fails with the number of messages produced.
+     */
+    private <T> void spill(String topic, List<T> messages, Payload<T> payload, int sent, boolean batch, CompletableFuture<Void> result) {
+        int spilled = 0;
+        if (journal != null) {
+            try {
+                for (T message : messages.subList(sent, messages.size())) {
+                    journal.append(topic, payload.toBytes(message));
+                    spilled++;
+                }
+                LOG.warn("No backend available, " + spilled + " messages spilled to the local journal.");
+                result.complete(null);
+                return;
+            } catch (IOException e) {
+                LOG.error("Messages could not be spilled to the local journal.", e);
+            }
+        }
+        if (!batch) {
+            LOG.error("Message could not be sent to any backend");
+            result.completeExceptionally(new ProduceException("Message could not be sent to any backend: " + payload.describe(messages.get(0))));
+        } else {
+            LOG.error("Batch could not be fully sent to any backend");
+            int produced = sent + spilled;
+            result.completeExceptionally(new BatchProduceException("Batch could not be fully sent to any backend. Sent: " + produced + " of " + messages.size(), produced));
+        }
+    }
+
+    /**
+     * Finds the first level, starting from the given one, whose circuit breaker allows a call.
+     * @return the available level, or the number of levels if none of them is available.
+     */
+    private int availableLevel(int from) {
+        int level = from;
+        while (level < breakers.size() && !breakers.get(level).tryAcquire()) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Records the whole call through the circuit breaker, started at the given {@link System#nanoTime()}, once the result completes.
+     * @return the same result.
+     */
+    private static CompletableFuture<Void> timed(CompletableFuture<Void> result, long started) {
+        result.whenComplete((ignored, error) -> StageLatencies.record(StageLatencies.Stage.BREAKER, started));
+        return result;
+    }
+
+    /**
+     * Calls an adapter, turning any synchronous failure into a failed {@link CompletableFuture}.
+     */
+    private static CompletableFuture<Void> call(ProduceClient adapter, Function<ProduceClient, CompletableFuture<Void>> operation) {
+        try {
+            return operation.apply(adapter);
+        } catch (Exception e) {
+            return Batches.failed(e);
         }
-        return sent;
     }
 
     /**
-     * resets background level if time has passed.
+     * Produce operations of a message type, so text and binary messages share the same failover logic.
      */
-    private void checkResetTime() {
-        if (lastResetTime + levelResetMillis > cal.getTimeInMillis()) {
-            level = 0;
+    private interface Payload<T> {
+        CompletableFuture<Void> produce(ProduceClient client, String topic, T message);
+
+        CompletableFuture<Void> produceBatch(ProduceClient client, String topic, List<T> messages);
+
+        byte[] toBytes(T message);
+
+        String describe(T message);
+    }
+
+    private static final Payload<String> TEXT = new Payload<String>() {
+        @Override
+        public CompletableFuture<Void> produce(ProduceClient client, String topic, String message) {
+            return client.produceAsync(topic, message);
         }
+
+        @Override
+        public CompletableFuture<Void> produceBatch(ProduceClient client, String topic, List<String> messages) {
+            return client.produceBatchAsync(topic, messages);
+        }
+
+        @Override
+        public byte[] toBytes(String message) {
+            return message.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String describe(String message) {
+            return message;
+        }
+    };
+
+    private static final Payload<byte[]> BINARY = new Payload<byte[]>() {
+        @Override
+        public CompletableFuture<Void> produce(ProduceClient client, String topic, byte[] message) {
+            return client.produceBytesAsync(topic, message);
+        }
+
+        @Override
+        public CompletableFuture<Void> produceBatch(ProduceClient client, String topic, List<byte[]> messages) {
+            return client.produceBytesBatchAsync(topic, messages);
+        }
+
+        @Override
+        public byte[] toBytes(byte[] message) {
+            return message;
+        }
+
+        @Override
+        public String describe(byte[] message) {
+            return message.length + " bytes";
+        }
+    };
+
+    /**
+     * Probes all the levels concurrently. It is healthy while at least one level is: its circuit is not open and its adapter answered the probe.
+     * A {@link SpillJournal} with room for more messages is a healthy level too, as every request is accepted and delivered once a backing service recovers.
+     * @return {@link CompletableFuture} completed when any level is healthy, or completed exceptionally with a {@link ProduceException} if none of them is.
+     */
+    @Override
+    public CompletableFuture<Void> probe() {
+        if (journal != null && journal.hasRoom()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(clientAdapters.size());
+        for (int level = 0; level < clientAdapters.size(); level++) {
+            CompletableFuture<Void> probe = breakers.get(level).getState() == CircuitBreaker.State.OPEN
+                    ? Batches.failed(new ProduceException("Circuit of level " + level + " is open"))
+                    : call(clientAdapters.get(level), ProduceClient::probe);
+            probe.whenComplete((ignored, error) -> {
+                if (error == null) {
+                    result.complete(null);
+                } else if (remaining.decrementAndGet() == 0) {
+                    result.completeExceptionally(new ProduceException("No healthy backing service", error));
+                }
+            });
+        }
+        return result;
     }
 
     /**
@@ -143,6 +561,14 @@ public class CircuitBreakerProduceClient implements ProduceClient {
      */
     @Override
     public void close() {
+        if (hedgeScheduler != null) {
+            hedgeScheduler.shutdownNow();
+        }
+        if (replayer != null) {
+            replayer.close();
+            journal.close();
+        }
+        memoryReplayers.forEach(MemoryReplayer::close);
         clientAdapters.forEach(client -> {
             try {
                 client.close();
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getBoolean;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+
+/**
+ * Micrometer metrics of the backing service clients, exported in the Prometheus format.
+ * The meters are created once and cached by their tags, so recording on the request path does not build meter ids nor look them up in the registry.
+ * Topic labels are limited to keep the number of series bounded: only the first METRICS_MAX_TOPICS topics get their own label, and the rest are reported as {@link #OTHER_TOPICS}.
+ * It can be configured using the following environment variables:
+ * METRICS_MAX_TOPICS number of topics with their own label. 0 reports every topic as {@link #OTHER_TOPICS}. Default 50.
+ * METRICS_HISTOGRAMS publishes the timer buckets, so percentiles can be aggregated across pods. Default true.
+ */
+public final class ClientMetrics {
+
+    /**
+     * Label of the topics beyond METRICS_MAX_TOPICS.
+     */
+    public static final String OTHER_TOPICS = "other";
+
+    private static final PrometheusMeterRegistry REGISTRY = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    private static final int MAX_TOPICS = Math.max(0, getInt("METRICS_MAX_TOPICS", 50));
+    private static final boolean HISTOGRAMS = getBoolean("METRICS_HISTOGRAMS", true);
+    private static final Map<String, String> TOPICS = new ConcurrentHashMap<>();
+    private static final AtomicInteger LABELED_TOPICS = new AtomicInteger();
+    private static final Map<String, AtomicInteger> GAUGES = new ConcurrentHashMap<>();
+
+    static {
+        new JvmMemoryMetrics().bindTo(REGISTRY);
+        new JvmGcMetrics().bindTo(REGISTRY);
+        new JvmThreadMetrics().bindTo(REGISTRY);
+        new ProcessorMetrics().bindTo(REGISTRY);
+    }
+
+    private ClientMetrics() {
+    }
+
+    /**
+     * @return the registry of all the metrics, scraped by the metrics endpoint.
+     */
+    public static PrometheusMeterRegistry registry() {
+        return REGISTRY;
+    }
+
+    /**
+     * @return the label of a topic: the topic itself while there are less than METRICS_MAX_TOPICS labeled topics, or {@link #OTHER_TOPICS}.
+     */
+    public static String topic(final String topic) {
+        String label = TOPICS.get(topic);
+        if (label != null) {
+            return label;
+        }
+        if (LABELED_TOPICS.get() >= MAX_TOPICS) {
+            return OTHER_TOPICS;
+        }
+        return TOPICS.computeIfAbsent(topic, key -> LABELED_TOPICS.incrementAndGet() <= MAX_TOPICS ? key : OTHER_TOPICS);
+    }
+
+    /**
+     * @return the timers of an operation, by topic and outcome.
+     * @param name of the timer.
+     * @param tags key value pairs shared by all the topics, like the adapter.
+     */
+    public static Timers timers(final String name, final String... tags) {
+        return new Timers(name, Tags.of(tags));
+    }
+
+    /**
+     * @return the counter with the given name and key value tags.
+     */
+    public static Counter counter(final String name, final String... tags) {
+        return REGISTRY.counter(name, tags);
+    }
+
+    /**
+     * Registers a gauge once, so it keeps a single value even if many instances report it.
+     * @return the value of the gauge with the given name and key value tags.
+     */
+    public static AtomicInteger gauge(final String name, final String... tags) {
+        return GAUGES.computeIfAbsent(name + Tags.of(tags), key -> {
+            AtomicInteger value = new AtomicInteger();
+            Gauge.builder(name, value, AtomicInteger::get).tags(tags).register(REGISTRY);
+            return value;
+        });
+    }
+
+    /**
+     * Timers of an operation by topic label, for the successful and the failed calls.
+     */
+    public static final class Timers {
+
+        private final String name;
+        private final Tags tags;
+        private final Map<String, Timer[]> byTopic = new ConcurrentHashMap<>();
+
+        private Timers(final String name, final Tags tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        /**
+         * Records a call started at the given {@link System#nanoTime()}.
+         */
+        public void record(final String topic, final long startNanos, final boolean success) {
+            Timer[] timers = byTopic.computeIfAbsent(topic(topic), this::create);
+            timers[success ? 0 : 1].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private Timer[] create(final String topic) {
+            return new Timer[]{create(topic, "success"), create(topic, "failure")};
+        }
+
+        private Timer create(final String topic, final String outcome) {
+            return Timer.builder(name)
+                    .tags(tags)
+                    .tag("topic", topic)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram(HISTOGRAMS)
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(REGISTRY);
+        }
+    }
+}
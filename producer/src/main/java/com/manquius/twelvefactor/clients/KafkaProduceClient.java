@@ -9,14 +9,28 @@
 
 package com.manquius.twelvefactor.clients;
 
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.DescribeClusterOptions;
 import org.apache.kafka.clients.producer.*;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
 import static java.util.Optional.ofNullable;
 
 /**
@@ -25,18 +39,29 @@ import static java.util.Optional.ofNullable;
  * KAFKA_SERVICE_PROTOCOL default PLAINTEXT
  * TWELVEFACTOR_KAFKA_SERVICE_HOST default localhost
  * TWELVEFACTOR_KAFKA_SERVICE_PORT default 9092
+ * KAFKA_MAX_BLOCK_MS default 1000. Max time a send may block waiting for metadata or buffer space.
+ * KAFKA_SEND_QUEUE_SIZE default 1000. Max number of sends waiting for the sender thread.
+ * The records are sent from a dedicated thread, so a send blocked on metadata or buffer space never blocks the request threads. A single thread keeps the order of the records.
+ * The sends waiting for it are bounded, and new sends fail immediately with a {@link ProduceException} while the queue is full,
+ * so a stalled broker or topic is reported to the circuit breaker instead of growing the queue and the latency.
  */
 public class KafkaProduceClient implements ProduceClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaProduceClient.class);
 
+    private final Producer<String, byte[]> producer;
+    private final ThreadPoolExecutor sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, getInt("KAFKA_SEND_QUEUE_SIZE", 1000))), runnable -> {
+        Thread thread = new Thread(runnable, "kafka-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private final KafkaProducer<String, String> producer;
-    private final Callback callback = (metadata, exception) -> {
-        if(exception != null) {
-            LOG.error("Error producing message to Kafka.", exception);
-        }
-    };
+    /**
+     * Configuration of the {@link Admin} client used by the probes, or null if the adapter cannot be probed.
+     */
+    private final Map<String, Object> adminProperties;
+    private Admin admin;
 
     /**
      * KafkaProduceClient constructor
@@ -44,6 +69,8 @@ public class KafkaProduceClient implements ProduceClient {
      *  KAFKA_SERVICE_PROTOCOL default PLAINTEXT
      *  TWELVEFACTOR_KAFKA_SERVICE_HOST default localhost
      *  TWELVEFACTOR_KAFKA_SERVICE_PORT default 9092
+     *  KAFKA_MAX_BLOCK_MS default 1000
+     *  KAFKA_SEND_QUEUE_SIZE default 1000
      * @throws ClientCreationException
      */
     public KafkaProduceClient() throws ClientCreationException {
@@ -56,36 +83,171 @@ public class KafkaProduceClient implements ProduceClient {
             properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, protocol + "://" + host + ":" + port);
             properties.put(ProducerConfig.CLIENT_ID_CONFIG, "producer-service");
             properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-            properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+            properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+            properties.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, ofNullable(System.getenv("KAFKA_MAX_BLOCK_MS")).orElse("1000"));
             this.producer = new KafkaProducer(properties);
+            this.adminProperties = new HashMap<>();
+            adminProperties.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, properties.get(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
+            adminProperties.put(AdminClientConfig.CLIENT_ID_CONFIG, "producer-service-health");
         }catch(Exception e ){
             throw new ClientCreationException("Error creating Kafka client", e);
         }
     }
 
     /**
-     * Produce method implementation for Kafka backing service.
+     * KafkaProduceClient constructor with a custom producer, used to run the adapter against in-process stand-ins.
+     * @param producer {@link Producer} closed with the adapter.
+     */
+    KafkaProduceClient(final Producer<String, byte[]> producer) {
+        this.producer = producer;
+        this.adminProperties = null;
+    }
+
+    /**
+     * Asynchronous produce method implementation for Kafka backing service.
+     * The returned {@link CompletableFuture} is completed from the producer callback, so the broker failures are surfaced to the caller.
      * @param topic where the message will be produced.
      * @param message to be produced in the topic
-     * @throws ProduceException if the message could not be produced.
+     * @return {@link CompletableFuture} completed when the record is acknowledged by Kafka.
+     */
+    @Override
+    public CompletableFuture<Void> produceAsync(String topic, String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Asynchronous batch produce method implementation for Kafka backing service.
+     * All the records are pipelined into the producer buffer without waiting for the broker acknowledgements, so the whole batch shares the same round trips.
+     * @param topic where the messages will be produced.
+     * @param messages ordered {@link List} of messages to be produced in the topic.
+     * @return {@link CompletableFuture} completed when all the records are acknowledged by Kafka.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages) {
+        List<byte[]> values = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            values.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        return produceBytesBatchAsync(topic, values);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The bytes are the record value, serialized by {@link ByteArraySerializer} without any copy.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(String topic, byte[] message) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        dispatch(() -> send(new ProducerRecord<>(topic, message), result), Collections.singletonList(result));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * All the records are pipelined into the producer buffer, as in {@link #produceBatchAsync(String, List)}.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        dispatch(() -> {
+            for (int i = 0; i < messages.size(); i++) {
+                send(new ProducerRecord<>(topic, messages.get(i)), results.get(i));
+                if (results.get(i).isCompletedExceptionally()) {
+                    fail(results.subList(i + 1, results.size()), new ProduceException("Previous message of the batch could not be sent to Kafka"));
+                    break;
+                }
+            }
+        }, results);
+        return Batches.acknowledged("Kafka", results, messages.size());
+    }
+
+    /**
+     * Runs a send on the sender thread, failing the given results if the queue of the sender is full or the adapter is closed.
+     */
+    private void dispatch(final Runnable send, final List<CompletableFuture<Void>> results) {
+        try {
+            sender.execute(send);
+        } catch (RejectedExecutionException e) {
+            fail(results, new ProduceException(sender.isShutdown() ? "Kafka client is closed" : "Kafka send queue is full", e));
+        }
+    }
+
+    private static void fail(final List<CompletableFuture<Void>> results, final ProduceException error) {
+        for (CompletableFuture<Void> result : results) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Sends a record, completing the given {@link CompletableFuture} from the producer callback.
+     */
+    private void send(final ProducerRecord<String, byte[]> record, final CompletableFuture<Void> result) {
+        try {
+            producer.send(record, (metadata, exception) -> {
+                if (exception != null) {
+                    LOG.error("Error producing message to Kafka.", exception);
+                    result.completeExceptionally(new ProduceException("Error producing to Kafka", exception));
+                } else {
+                    result.complete(null);
+                }
+            });
+        } catch (Exception e) {
+            result.completeExceptionally(new ProduceException("Error producing to Kafka", e));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * It describes the cluster with an {@link Admin} client, created on the first probe.
      */
     @Override
-    public void produce(String topic, String message) throws ProduceException {
+    public CompletableFuture<Void> probe() {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (adminProperties == null) {
+            result.complete(null);
+            return result;
+        }
         try {
-            final ProducerRecord<String, String> record = new ProducerRecord<>(
-                    topic,
-                    message);
-            producer.send(record, callback);
+            getAdmin().describeCluster(new DescribeClusterOptions().timeoutMs(getInt("KAFKA_MAX_BLOCK_MS", 1000))).nodes().whenComplete((nodes, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(new ProduceException("Kafka is not reachable", error));
+                } else if (nodes.isEmpty()) {
+                    result.completeExceptionally(new ProduceException("Kafka cluster has no brokers"));
+                } else {
+                    result.complete(null);
+                }
+            });
         } catch (Exception e) {
-            throw new ProduceException("Error producing to Kafka", e);
+            result.completeExceptionally(new ProduceException("Kafka is not reachable", e));
         }
+        return result;
+    }
+
+    private synchronized Admin getAdmin() {
+        if (admin == null) {
+            admin = Admin.create(adminProperties);
+        }
+        return admin;
     }
 
     /**
-     * Closes kafka producer.
+     * Stops the sender thread once the pending sends are handed to the producer, and closes kafka producer and the admin client of the probes.
      */
     @Override
-    public void close() {
+    public synchronized void close() {
+        sender.shutdown();
+        try {
+            sender.awaitTermination(getInt("KAFKA_MAX_BLOCK_MS", 1000), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         this.producer.close();
+        if (admin != null) {
+            admin.close();
+            admin = null;
+        }
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link ProduceClient} implementation that keeps the messages in the memory of the service, on the lock-free ring buffers of {@link MemoryTopics}.
+ * It has no backing service, so it is the throughput ceiling of the service to benchmark the other adapters against,
+ * and it can be the fast local buffer level of a {@link CircuitBreakerProduceClient} chain like KAFKA/MEMORY.
+ * As a failover level, a {@link MemoryReplayer} produces the buffered messages to the primary backing service once it recovers, so they reach the consumer service.
+ * Messages are only kept by this replica: they are lost if it stops before they are replayed.
+ * A produce is acknowledged as soon as the message is in the ring, and fails if the topic is full with the REJECT overflow policy.
+ * It is configured using the {@link MemoryTopics} environment variables: MEMORY_TOPIC_CAPACITY, MEMORY_OVERFLOW and MEMORY_MAX_TOPICS.
+ */
+public class MemoryProduceClient implements ProduceClient {
+
+    private final MemoryTopics topics;
+
+    /**
+     * MemoryProduceClient constructor configured with the environment variables.
+     * @throws ClientCreationException if the configuration is not valid.
+     */
+    public MemoryProduceClient() throws ClientCreationException {
+        this(new MemoryTopics());
+    }
+
+    /**
+     * MemoryProduceClient constructor with custom topics.
+     * @param topics where the messages are kept.
+     */
+    MemoryProduceClient(final MemoryTopics topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceAsync(String topic, String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are added in order, and the batch fails with the number of leading messages added if the topic gets full.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (!topics.offer(topic, messages.get(i).getBytes(StandardCharsets.UTF_8))) {
+                return rejected(topic, i, messages.size());
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(String topic, byte[] message) {
+        if (!topics.offer(topic, message)) {
+            return Batches.failed(new ProduceException("Memory topic " + topic + " is full"));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are added as in {@link #produceBatchAsync(String, List)}.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (!topics.offer(topic, messages.get(i))) {
+                return rejected(topic, i, messages.size());
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @return topics where the messages are kept.
+     */
+    MemoryTopics getTopics() {
+        return topics;
+    }
+
+    private static CompletableFuture<Void> rejected(final String topic, final int sent, final int size) {
+        return Batches.failed(new BatchProduceException("Memory topic " + topic + " is full. Sent: " + sent + " of " + size, sent));
+    }
+
+    /**
+     * Drops all the kept messages.
+     */
+    @Override
+    public void close() {
+        topics.clear();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * Background task that drains the {@link MemoryTopics} of a MEMORY failover level to the primary backing service once its circuit breaker is closed again,
+ * so the messages buffered while the primary was failing reach the consumers.
+ * Messages are replayed in order per topic, in batches, at a bounded rate so a recovering backing service is not flooded.
+ * Messages taken from a topic but not acknowledged are kept by the replayer and replayed first on the next round. They are lost if the service stops.
+ * It can be configured using the following environment variables:
+ * MEMORY_REPLAY_RATE: Maximum number of messages replayed per second. Default: 10000.
+ * MEMORY_REPLAY_INTERVAL_MS: Interval between replay rounds. Default: 100.
+ */
+class MemoryReplayer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryReplayer.class);
+    public static final int DEFAULT_REPLAY_RATE = 10000;
+    public static final long DEFAULT_REPLAY_INTERVAL_MILLIS = 100;
+
+    private final MemoryTopics topics;
+    private final ProduceClient target;
+    private final CircuitBreaker breaker;
+    private final int messagesPerRound;
+    private final Map<String, List<byte[]>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * MemoryReplayer constructor, configured from the environment variables. It starts replaying immediately.
+     * @param topics to be drained.
+     * @param target primary {@link ProduceClient}.
+     * @param breaker {@link CircuitBreaker} of the primary level. Messages are only replayed while it is closed.
+     */
+    MemoryReplayer(final MemoryTopics topics, final ProduceClient target, final CircuitBreaker breaker) {
+        this(topics, target, breaker, getInt("MEMORY_REPLAY_RATE", DEFAULT_REPLAY_RATE), getLong("MEMORY_REPLAY_INTERVAL_MS", DEFAULT_REPLAY_INTERVAL_MILLIS));
+    }
+
+    MemoryReplayer(final MemoryTopics topics, final ProduceClient target, final CircuitBreaker breaker, final int rate, final long intervalMillis) {
+        this.topics = topics;
+        this.target = target;
+        this.breaker = breaker;
+        this.messagesPerRound = (int) Math.max(1, rate * intervalMillis / 1000);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::replay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays up to the messages allowed in a round. It stops on the first failure, to be retried on the next round.
+     */
+    void replay() {
+        int budget = messagesPerRound;
+        try {
+            for (String topic : topics.names()) {
+                while (budget > 0 && breaker.getState() == CircuitBreaker.State.CLOSED) {
+                    List<byte[]> messages = pending.computeIfAbsent(topic, key -> new ArrayList<>());
+                    if (messages.size() < budget) {
+                        topics.drain(topic, messages, budget - messages.size(), Long.MAX_VALUE);
+                    }
+                    if (messages.isEmpty()) {
+                        pending.remove(topic);
+                        break;
+                    }
+                    List<byte[]> head = messages.size() <= budget ? messages : messages.subList(0, budget);
+                    List<byte[]> batch = new ArrayList<>(head);
+                    if (!breaker.tryAcquire()) {
+                        return;
+                    }
+                    try {
+                        target.produceBytesBatchAsync(topic, batch).join();
+                        breaker.onSuccess();
+                        budget -= batch.size();
+                        head.clear();
+                    } catch (CompletionException e) {
+                        breaker.onFailure();
+                        if (e.getCause() instanceof BatchProduceException) {
+                            head.subList(0, Math.min(head.size(), ((BatchProduceException) e.getCause()).getSent())).clear();
+                        }
+                        LOG.warn("Buffered messages could not be replayed, retrying later.", e.getCause());
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error replaying buffered messages.", e);
+        }
+    }
+
+    /**
+     * Stops replaying. Pending messages are dropped with the memory topics.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getString;
+
+/**
+ * Topics kept in the memory of the service, each one on its own {@link MemoryRing}.
+ * Messages dropped by the DROP_OLDEST overflow policy are counted by the twelvefactor.memory.dropped counter.
+ * It can be configured using the following environment variables:
+ * MEMORY_TOPIC_CAPACITY max number of messages per topic, rounded up to a power of two. Default 65536.
+ * MEMORY_OVERFLOW what happens when a message is added to a full topic: REJECT refuses the message, DROP_OLDEST drops the oldest message of the topic to make room. Default REJECT.
+ * MEMORY_MAX_TOPICS max number of topics. Messages to new topics are refused when exceeded. Default 1000.
+ */
+final class MemoryTopics {
+
+    /**
+     * What happens when a message is added to a full topic.
+     */
+    enum Overflow {
+        REJECT,
+        DROP_OLDEST
+    }
+
+    private final Map<String, MemoryRing> topics = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final Overflow overflow;
+    private final int maxTopics;
+    private final Counter dropped = ClientMetrics.counter("twelvefactor.memory.dropped");
+
+    /**
+     * MemoryTopics constructor configured with the environment variables.
+     * @throws ClientCreationException if MEMORY_OVERFLOW is not valid.
+     */
+    MemoryTopics() throws ClientCreationException {
+        this(getInt("MEMORY_TOPIC_CAPACITY", 65536), overflow(getString("MEMORY_OVERFLOW", "REJECT")), getInt("MEMORY_MAX_TOPICS", 1000));
+    }
+
+    /**
+     * MemoryTopics constructor.
+     * @param capacity max number of messages per topic.
+     * @param overflow what happens when a message is added to a full topic.
+     * @param maxTopics max number of topics.
+     */
+    MemoryTopics(final int capacity, final Overflow overflow, final int maxTopics) {
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.maxTopics = maxTopics;
+    }
+
+    private static Overflow overflow(final String name) throws ClientCreationException {
+        try {
+            return Overflow.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ClientCreationException("Invalid MEMORY_OVERFLOW value: " + name);
+        }
+    }
+
+    /**
+     * Adds a message to a topic, creating the topic if it did not exist.
+     * @return false if the message was refused, because the topic is full and the overflow policy is REJECT, or because there are too many topics.
+     */
+    boolean offer(final String topic, final byte[] message) {
+        MemoryRing ring = ring(topic, true);
+        if (ring == null) {
+            return false;
+        }
+        while (!ring.offer(message)) {
+            if (overflow == Overflow.REJECT) {
+                return false;
+            }
+            if (ring.poll() != null) {
+                dropped.increment();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the messages at the head of a topic, up to the given limits.
+     * @param result where the messages are added.
+     * @param maxRecords max number of messages taken.
+     * @param maxBytes max size of the messages taken, that can be exceeded by the last message.
+     * @return number of messages taken.
+     */
+    int drain(final String topic, final List<byte[]> result, final int maxRecords, final long maxBytes) {
+        MemoryRing ring = ring(topic, false);
+        if (ring == null) {
+            return 0;
+        }
+        int taken = 0;
+        long bytes = 0;
+        byte[] message;
+        while (taken < maxRecords && bytes < maxBytes && (message = ring.poll()) != null) {
+            result.add(message);
+            taken++;
+            bytes += message.length;
+        }
+        return taken;
+    }
+
+    /**
+     * @return number of messages kept for a topic.
+     */
+    int size(final String topic) {
+        MemoryRing ring = topics.get(topic);
+        return ring == null ? 0 : ring.size();
+    }
+
+    /**
+     * @return names of the topics kept.
+     */
+    Set<String> names() {
+        return topics.keySet();
+    }
+
+    /**
+     * Drops all the topics.
+     */
+    void clear() {
+        topics.clear();
+    }
+
+    private MemoryRing ring(final String topic, final boolean create) {
+        MemoryRing ring = topics.get(topic);
+        if (ring != null || !create || topics.size() >= maxTopics) {
+            return ring;
+        }
+        return topics.computeIfAbsent(topic, key -> new MemoryRing(capacity));
+    }
+}
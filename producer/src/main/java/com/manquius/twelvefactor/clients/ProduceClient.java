@@ -9,17 +9,90 @@
 
 package com.manquius.twelvefactor.clients;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 /**
  * Client interface. It must produce to a backing Service.
+ * The asynchronous methods are the main contract: they must not block the calling thread, and the returned {@link CompletableFuture} must only complete when the backing service acknowledged the messages.
  */
 public interface ProduceClient extends AutoCloseable {
 
     /**
-     * Produce method implementation.
+     * Asynchronous produce method implementation.
+     * @param topic where the message will be produced.
+     * @param message to be produced in the topic
+     * @return {@link CompletableFuture} completed when the message is acknowledged, or completed exceptionally with a {@link ProduceException} if the message could not be produced.
+     */
+    CompletableFuture<Void> produceAsync(String topic, String message);
+
+    /**
+     * Asynchronous batch produce method implementation. Each implementation must send the batch using the native batching capabilities of its backing service.
+     * @param topic where the messages will be produced.
+     * @param messages ordered {@link List} of messages to be produced in the topic.
+     * @return {@link CompletableFuture} completed when the batch is acknowledged, or completed exceptionally with a {@link BatchProduceException} indicating how many messages were already sent.
+     */
+    CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages);
+
+    /**
+     * Asynchronous produce method for binary payloads. The bytes are handed to the backing service client as they are, without any charset conversion or copy.
+     * The String methods produce the UTF-8 bytes of the message, so both methods can be used on the same topic.
+     * @param topic where the message will be produced.
+     * @param message bytes to be produced in the topic. They must not be modified until the returned {@link CompletableFuture} is completed.
+     * @return {@link CompletableFuture} completed when the message is acknowledged, or completed exceptionally with a {@link ProduceException} if the message could not be produced.
+     */
+    CompletableFuture<Void> produceBytesAsync(String topic, byte[] message);
+
+    /**
+     * Asynchronous batch produce method for binary payloads.
+     * @param topic where the messages will be produced.
+     * @param messages ordered {@link List} of binary messages to be produced in the topic.
+     * @return {@link CompletableFuture} completed when the batch is acknowledged, or completed exceptionally with a {@link BatchProduceException} indicating how many messages were already sent.
+     */
+    CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages);
+
+    /**
+     * Produce method implementation. It blocks until the message is acknowledged.
      * @param topic where the message will be produced.
      * @param message to be produced in the topic
      * @throws ProduceException if the message could not be produced.
      */
-    void produce(String topic, String message) throws ProduceException;
+    default void produce(String topic, String message) throws ProduceException {
+        try {
+            produceAsync(topic, message).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ProduceException) {
+                throw (ProduceException) e.getCause();
+            }
+            throw new ProduceException(e.getCause());
+        }
+    }
+
+    /**
+     * Batch produce method implementation. It blocks until the whole batch is acknowledged.
+     * @param topic where the messages will be produced.
+     * @param messages ordered {@link List} of messages to be produced in the topic.
+     * @throws BatchProduceException if the batch could not be fully produced, indicating how many messages were already sent.
+     */
+    default void produceBatch(String topic, List<String> messages) throws BatchProduceException {
+        try {
+            produceBatchAsync(topic, messages).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BatchProduceException) {
+                throw (BatchProduceException) e.getCause();
+            }
+            throw new BatchProduceException("Error producing batch", 0, e.getCause());
+        }
+    }
+
+    /**
+     * Checks the connection with the backing service, without producing any message. It is called periodically by {@link BackendHealth}, never on the request path.
+     * By default it completes immediately, so adapters that cannot be probed are only reported by their circuit breakers.
+     * @return {@link CompletableFuture} completed when the backing service answered, or completed exceptionally if it is not reachable.
+     */
+    default CompletableFuture<Void> probe() {
+        return CompletableFuture.completedFuture(null);
+    }
 
 }
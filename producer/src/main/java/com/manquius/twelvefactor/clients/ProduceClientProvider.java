@@ -12,6 +12,8 @@ package com.manquius.twelvefactor.clients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
 import java.util.ArrayList;
 import java.util.List;
 import static java.util.Optional.ofNullable;
@@ -19,41 +21,80 @@ import static java.util.Optional.ofNullable;
 /**
  * {@link ProduceClient} provider.
  * It can be configured using PRODUCE_CLIENT environment variable. Default: PULSAR/REDIS.
- * Allowed values: PULSAR, KAFKA, REDIS (non case sensitive)
+ * Allowed values: PULSAR, KAFKA, REDIS, REDIS_STREAMS, RABBITMQ, MEMORY (non case sensitive)
+ * MEMORY keeps the messages in the memory of the replica, see {@link MemoryProduceClient}. As a failover level, its messages are replayed to the first level once it recovers.
  * When the value inclused slashes '/', it uses {@link CircuitBreakerProduceClient} implementation passing the different adapters in order.
  * If the configuration is invalid, defaults to KAFKA/REDIS.
+ * It is a singleton: the {@link ProduceClient} is created once, shared by all the requests, and closed on application shutdown.
  */
-public class ProduceClientProvider {
+@Singleton
+public class ProduceClientProvider implements AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProduceClientProvider.class);
-    private ProduceClient adapter;
+    private volatile ProduceClient adapter;
 
     /**
      * Main method to return {@link ProduceClient} implementation based on PRODUCE_CLIENT environment variable.
+     * The client is created on the first call and shared by the following ones. Callers must not close it.
      *
      * @return {@link ProduceClient} implementation
      * @throws ClientCreationException if the Client could not be created
      */
     public ProduceClient getClient() throws ClientCreationException {
-        if (null == adapter) {
-            final String clientString = ofNullable(System.getenv("PRODUCE_CLIENT")).orElse("PULSAR/REDIS");
-            if (clientString.contains("/")) {
-                List<ProduceClient> adapters = new ArrayList<>();
-                for (String adapterName : clientString.split("/")) {
-                    adapters.add(Adapter.getClientByName(adapterName));
+        ProduceClient client = adapter;
+        if (null == client) {
+            synchronized (this) {
+                client = adapter;
+                if (null == client) {
+                    client = createClient();
+                    adapter = client;
                 }
-                adapter = new CircuitBreakerProduceClient(adapters);
-            } else {
-                adapter = Adapter.getClientByName(clientString);
             }
         }
-        return adapter;
+        return client;
+    }
+
+    /**
+     * Creates the {@link ProduceClient} implementation based on PRODUCE_CLIENT environment variable.
+     *
+     * @return {@link ProduceClient} implementation
+     * @throws ClientCreationException if the Client could not be created
+     */
+    protected ProduceClient createClient() throws ClientCreationException {
+        final String clientString = ofNullable(System.getenv("PRODUCE_CLIENT")).orElse("PULSAR/REDIS");
+        if (clientString.contains("/")) {
+            List<ProduceClient> adapters = new ArrayList<>();
+            for (String adapterName : clientString.split("/")) {
+                adapters.add(Adapter.getClientByName(adapterName));
+            }
+            return new CircuitBreakerProduceClient(adapters, SpillJournal.fromEnvironment());
+        }
+        return Adapter.getClientByName(clientString);
+    }
+
+    /**
+     * Closes the shared {@link ProduceClient} on application shutdown.
+     */
+    @PreDestroy
+    @Override
+    public synchronized void close() {
+        if (null != adapter) {
+            try {
+                adapter.close();
+            } catch (Exception e) {
+                LOG.warn("Client could not be closed.", e);
+            }
+            adapter = null;
+        }
     }
 
     enum Adapter {
         KAFKA,
         REDIS,
-        PULSAR;
+        REDIS_STREAMS,
+        PULSAR,
+        RABBITMQ,
+        MEMORY;
 
         private static ProduceClient getClientByName(final String clientString) throws ClientCreationException {
             try {
@@ -64,6 +105,12 @@ public class ProduceClientProvider {
                         return new KafkaProduceClient();
                     case REDIS:
                         return new RedisProduceClient();
+                    case REDIS_STREAMS:
+                        return new RedisStreamsProduceClient();
+                    case RABBITMQ:
+                        return new RabbitMQProduceClient();
+                    case MEMORY:
+                        return new MemoryProduceClient();
                     default:
                         throw new ClientCreationException("Invalid PRODUCE_CLIENT value: " + clientString);
                 }
@@ -13,41 +13,174 @@ import org.apache.pulsar.client.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getBoolean;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
 import static java.util.Optional.ofNullable;
 
 /**
  * {@link ProduceClient} implementation for Pulsar backing service.
- *
+ * It keeps a long lived {@link Producer} per topic in a bounded cache, so the producer handshake with the broker is done once per topic instead of once per message.
+ * It can be configured using the following environment variables:
+ * TWELVEFACTOR_PULSAR_PROXY_SERVICE_HOST default localhost
+ * TWELVEFACTOR_PULSAR_PROXY_SERVICE_PORT_PULSAR default 6650
+ * PULSAR_PROTO default pulsar
+ * PULSAR_PRODUCER_CACHE_SIZE max number of cached topic producers, the least recently used is closed when exceeded. Default 100.
+ * PULSAR_PRODUCER_IDLE_MS time a producer can remain unused before it is closed. Default 60000.
+ * PULSAR_BATCHING_ENABLED enables Pulsar native batching of asynchronous sends. Default true.
+ * PULSAR_BATCHING_MAX_MESSAGES max number of messages in a Pulsar batch. Default 1000.
+ * PULSAR_BATCHING_MAX_PUBLISH_DELAY_MS max time a message waits for its batch to be published. Default 1.
+ * PULSAR_MAX_PENDING_MESSAGES max number of messages waiting for acknowledgement per producer. Default 1000.
+ * PULSAR_BLOCK_IF_QUEUE_FULL blocks the send instead of failing when the pending queue is full. Default false.
+ * PULSAR_SEND_TIMEOUT_MS time to wait for a message acknowledgement before failing it. Default 30000.
  */
 public class PulsarProduceClient implements ProduceClient, AutoCloseable {
 
     private final PulsarClient client;
-    private final ProducerBuilder<String> builder;
+    private final TopicCache<Producer<byte[]>> producers;
     private static final Logger LOG = LoggerFactory.getLogger(PulsarProduceClient.class);
 
+    /**
+     * Topic looked up by the probes.
+     */
+    private static final String HEALTH_TOPIC = "twelvefactor-health";
+
     public PulsarProduceClient() throws ClientCreationException {
+        this(createClient());
+    }
+
+    private PulsarProduceClient(final PulsarClient client) {
+        this(client, producerFactory(client));
+    }
+
+    /**
+     * PulsarProduceClient constructor with a custom producer factory, used to run the adapter against in-process stand-ins.
+     * @param client {@link PulsarClient} closed with the adapter, or null if there is none.
+     * @param factory creates the {@link Producer} of a topic.
+     */
+    PulsarProduceClient(final PulsarClient client, final Function<String, CompletableFuture<Producer<byte[]>>> factory) {
+        this.client = client;
+        producers = new TopicCache<>("pulsar-producers",
+                getInt("PULSAR_PRODUCER_CACHE_SIZE", 100),
+                getLong("PULSAR_PRODUCER_IDLE_MS", 60000),
+                factory,
+                Producer::closeAsync);
+    }
+
+    private static PulsarClient createClient() throws ClientCreationException {
         String host = ofNullable(System.getenv("TWELVEFACTOR_PULSAR_PROXY_SERVICE_HOST")).orElse("localhost");
         String port = ofNullable(System.getenv("TWELVEFACTOR_PULSAR_PROXY_SERVICE_PORT_PULSAR")).orElse("6650");
         String protocol = ofNullable(System.getenv("PULSAR_PROTO")).orElse("pulsar");
         String pulsarBrokerRootUrl = protocol + "://" + host + ":" + port;
         try {
-            client = PulsarClient.builder().serviceUrl(pulsarBrokerRootUrl).build();
-            builder = client.newProducer(Schema.STRING);
+            return PulsarClient.builder().serviceUrl(pulsarBrokerRootUrl).build();
         } catch (PulsarClientException e) {
             throw new ClientCreationException(e);
         }
     }
 
+    private static Function<String, CompletableFuture<Producer<byte[]>>> producerFactory(final PulsarClient client) {
+        ProducerBuilder<byte[]> builder = client.newProducer(Schema.BYTES)
+                .enableBatching(getBoolean("PULSAR_BATCHING_ENABLED", true))
+                .batchingMaxMessages(getInt("PULSAR_BATCHING_MAX_MESSAGES", 1000))
+                .batchingMaxPublishDelay(getLong("PULSAR_BATCHING_MAX_PUBLISH_DELAY_MS", 1), TimeUnit.MILLISECONDS)
+                .maxPendingMessages(getInt("PULSAR_MAX_PENDING_MESSAGES", 1000))
+                .blockIfQueueFull(getBoolean("PULSAR_BLOCK_IF_QUEUE_FULL", false))
+                .sendTimeout(getInt("PULSAR_SEND_TIMEOUT_MS", 30000), TimeUnit.MILLISECONDS);
+        return topic -> builder.clone().topic(topic).createAsync();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public void produce(final String topic, final String message) throws ProduceException {
-        try(Producer<String> producer = builder.topic(topic).create()) {
-            producer.send(message);
-        } catch (PulsarClientException e) {
-            throw new ProduceException(e);
+    public CompletableFuture<Void> produceAsync(final String topic, final String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are produced with {@link Schema#BYTES}, which sends the payload as it is.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(final String topic, final byte[] message) {
+        return withProducer(topic, producer -> producer.sendAsync(message).thenApply(id -> (Void) null))
+                .handle((ignored, error) -> {
+                    if (error != null) {
+                        throw new CompletionException(new ProduceException("Error producing to Pulsar", unwrap(error)));
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are sent asynchronously on the same producer and flushed together, completing when all of them are acknowledged.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(final String topic, final List<String> messages) {
+        List<byte[]> values = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            values.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        return produceBytesBatchAsync(topic, values);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are sent asynchronously on the same producer and flushed together, completing when all of them are acknowledged.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(final String topic, final List<byte[]> messages) {
+        return withProducer(topic, producer -> {
+            List<CompletableFuture<MessageId>> results = new ArrayList<>(messages.size());
+            for (byte[] message : messages) {
+                results.add(producer.sendAsync(message));
+            }
+            producer.flushAsync();
+            return Batches.acknowledged("Pulsar", results, messages.size());
+        }).handle((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                throw new CompletionException(cause instanceof BatchProduceException ? cause
+                        : new BatchProduceException("Error producing batch to Pulsar", 0, cause));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Runs the operation on the cached producer of the topic. The producer is leased until the operation completes, so an eviction does not close it meanwhile.
+     */
+    private CompletableFuture<Void> withProducer(final String topic, final Function<Producer<byte[]>, CompletableFuture<Void>> operation) {
+        TopicCache.Lease<Producer<byte[]>> lease = producers.acquire(topic);
+        CompletableFuture<Void> result = lease.get().thenCompose(operation);
+        result.whenComplete((ignored, error) -> lease.close());
+        return result;
+    }
+
+    private static Throwable unwrap(final Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * {@inheritDoc}
+     * It looks up the partitions of the health topic, which reaches a broker without creating the topic.
+     */
+    @Override
+    public CompletableFuture<Void> probe() {
+        if (client == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        return client.getPartitionsForTopic(HEALTH_TOPIC).thenApply(partitions -> null);
     }
 
     /**
@@ -55,6 +188,10 @@ public class PulsarProduceClient implements ProduceClient, AutoCloseable {
      */
     @Override
     public void close() {
+        producers.close();
+        if (client == null) {
+            return;
+        }
         try {
             client.close();
         } catch (PulsarClientException e) {
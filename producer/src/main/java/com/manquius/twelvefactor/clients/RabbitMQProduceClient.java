@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.MessageProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getString;
+
+/**
+ * {@link ProduceClient} implementation for RabbitMQ backing service. Every topic is a durable queue with the same name, and messages are published as persistent to the default exchange.
+ * Messages are published on a pool of channels in confirm mode. A publish returns as soon as the message is written, and its future is completed by the broker confirm,
+ * which may confirm many messages at once, or failed if the broker does not confirm it in time.
+ * While the broker blocks the connection, for example on a memory or disk alarm, publishes fail fast instead of waiting for it to be unblocked.
+ *  It can be configured using the following environment variables:
+ *  TWELVEFACTOR_RABBITMQ_SERVICE_HOST default localhost
+ *  TWELVEFACTOR_RABBITMQ_SERVICE_PORT default 5672
+ *  RABBITMQ_USERNAME default guest
+ *  RABBITMQ_PASSWORD default guest
+ *  RABBITMQ_VHOST default /
+ *  RABBITMQ_CHANNEL_POOL_SIZE max number of channels, each one used by a single publish at a time. Default 8.
+ *  RABBITMQ_CHANNEL_WAIT_MS max time a publish waits for a channel to be released when all of them are in use. Default 1000.
+ *  RABBITMQ_CONFIRM_TIMEOUT_MS max time a message waits for its broker confirm before it fails. Zero waits forever. Default 10000.
+ */
+public class RabbitMQProduceClient implements ProduceClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RabbitMQProduceClient.class);
+
+    private final Connector connector;
+    private final int poolSize;
+    private final long channelWaitMillis;
+    private final long confirmTimeoutMillis;
+    private final BlockingQueue<ConfirmChannel> channels;
+    private final Set<ConfirmChannel> openChannels = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger opened = new AtomicInteger();
+    private final Set<String> declaredTopics = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ScheduledExecutorService confirmTimer;
+    private volatile String blockedReason;
+    private Connection conn;
+
+    /**
+     * RabbitMQProduceClient constructor. It connects with the environment variables on the first produce.
+     */
+    public RabbitMQProduceClient() {
+        this(RabbitMQProduceClient::connect);
+    }
+
+    /**
+     * RabbitMQProduceClient constructor with a custom connector, used to run the adapter against in-process stand-ins.
+     * @param connector opens the {@link Connection} shared by the channels. It is closed with the client.
+     */
+    RabbitMQProduceClient(final Connector connector) {
+        this.connector = connector;
+        this.poolSize = Math.max(1, getInt("RABBITMQ_CHANNEL_POOL_SIZE", 8));
+        this.channelWaitMillis = Math.max(0, getLong("RABBITMQ_CHANNEL_WAIT_MS", 1000));
+        this.confirmTimeoutMillis = Math.max(0, getLong("RABBITMQ_CONFIRM_TIMEOUT_MS", 10000));
+        this.channels = new ArrayBlockingQueue<>(poolSize);
+        if (confirmTimeoutMillis > 0) {
+            long period = Math.max(1, confirmTimeoutMillis / 10);
+            confirmTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rabbitmq-confirms");
+                thread.setDaemon(true);
+                return thread;
+            });
+            confirmTimer.scheduleAtFixedRate(this::expireConfirms, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            confirmTimer = null;
+        }
+    }
+
+    /**
+     * Opens a connection with the environment variables. The connection is recovered automatically after network failures.
+     */
+    private static Connection connect() throws IOException {
+        try {
+            ConnectionFactory factory = new ConnectionFactory();
+            factory.setHost(getString("TWELVEFACTOR_RABBITMQ_SERVICE_HOST", "localhost"));
+            factory.setPort(getInt("TWELVEFACTOR_RABBITMQ_SERVICE_PORT", 5672));
+            factory.setUsername(getString("RABBITMQ_USERNAME", "guest"));
+            factory.setPassword(getString("RABBITMQ_PASSWORD", "guest"));
+            factory.setVirtualHost(getString("RABBITMQ_VHOST", "/"));
+            factory.setAutomaticRecoveryEnabled(true);
+            return factory.newConnection("producer-service");
+        } catch (TimeoutException e) {
+            throw new IOException("Timeout connecting to RabbitMQ", e);
+        }
+    }
+
+    /**
+     * Connects on the first call, tracking when the broker blocks and unblocks the connection.
+     */
+    private synchronized Connection getConnection() throws IOException {
+        if (conn == null) {
+            conn = connector.connect();
+            conn.addBlockedListener(reason -> {
+                blockedReason = reason;
+                LOG.warn("RabbitMQ connection was blocked: " + reason);
+            }, () -> {
+                blockedReason = null;
+                LOG.info("RabbitMQ connection was unblocked");
+            });
+        }
+        return conn;
+    }
+
+    /**
+     * Takes an idle channel from the pool, opens a new one if there are less than RABBITMQ_CHANNEL_POOL_SIZE, or waits up to RABBITMQ_CHANNEL_WAIT_MS for one to be released.
+     */
+    private ConfirmChannel borrow() throws IOException, InterruptedException, ProduceException {
+        ConfirmChannel channel = channels.poll();
+        if (channel != null) {
+            return channel;
+        }
+        if (opened.incrementAndGet() <= poolSize) {
+            try {
+                channel = new ConfirmChannel(getConnection().createChannel());
+                openChannels.add(channel);
+                return channel;
+            } catch (IOException | RuntimeException e) {
+                opened.decrementAndGet();
+                throw e;
+            }
+        }
+        opened.decrementAndGet();
+        channel = channels.poll(channelWaitMillis, TimeUnit.MILLISECONDS);
+        if (channel == null) {
+            throw new ProduceException("No RabbitMQ channel was released in " + channelWaitMillis + "ms");
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a channel to the pool, or closes it if it is broken so a new one is opened.
+     */
+    private void release(final ConfirmChannel channel) {
+        if (channel.channel.isOpen()) {
+            channels.offer(channel);
+        } else {
+            openChannels.remove(channel);
+            opened.decrementAndGet();
+            channel.close();
+        }
+    }
+
+    /**
+     * Fails the messages that were not confirmed in RABBITMQ_CONFIRM_TIMEOUT_MS. A late confirm of them is ignored.
+     */
+    private void expireConfirms() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMillis);
+        ProduceException timeout = new ProduceException("RabbitMQ did not confirm the message in " + confirmTimeoutMillis + "ms");
+        openChannels.forEach(channel -> channel.expire(deadline, timeout));
+    }
+
+    /**
+     * Publishes the messages on the same channel.
+     * @return the confirm futures of the published messages, followed by a failed one if not all of them could be published.
+     */
+    private List<CompletableFuture<Void>> publish(final String topic, final List<byte[]> messages) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(messages.size());
+        String blocked = blockedReason;
+        if (blocked != null) {
+            results.add(Batches.failed(new ProduceException("RabbitMQ connection is blocked: " + blocked)));
+            return results;
+        }
+        ConfirmChannel channel = null;
+        try {
+            channel = borrow();
+            if (!declaredTopics.contains(topic)) {
+                channel.channel.queueDeclare(topic, true, false, false, null);
+                declaredTopics.add(topic);
+            }
+            for (byte[] message : messages) {
+                results.add(channel.publish(topic, message));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            results.add(Batches.failed(new ProduceException("Interrupted producing to RabbitMQ", e)));
+        } catch (Exception e) {
+            results.add(Batches.failed(new ProduceException("Error producing to RabbitMQ", e)));
+        } finally {
+            if (channel != null) {
+                release(channel);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceAsync(String topic, String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are published on the same channel, so they are confirmed in order, and the batch fails with the number of leading messages that were confirmed.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages) {
+        List<byte[]> values = new ArrayList<>(messages.size());
+        messages.forEach(message -> values.add(message.getBytes(StandardCharsets.UTF_8)));
+        return produceBytesBatchAsync(topic, values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(String topic, byte[] message) {
+        List<CompletableFuture<Void>> results = publish(topic, Collections.singletonList(message));
+        return results.get(results.size() - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are published as in {@link #produceBatchAsync(String, List)}.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages) {
+        return Batches.acknowledged("RabbitMQ", publish(topic, messages), messages.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     * It opens the connection if it was not open yet, and checks it is still open. The connection is recovered automatically, so it is closed while RabbitMQ is not reachable.
+     */
+    @Override
+    public CompletableFuture<Void> probe() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                if (!getConnection().isOpen()) {
+                    throw new CompletionException(new ProduceException("RabbitMQ connection is closed"));
+                }
+            } catch (IOException e) {
+                throw new CompletionException(new ProduceException("RabbitMQ is not reachable", e));
+            }
+        });
+    }
+
+    /**
+     * Closes the channels and the RabbitMQ connection.
+     */
+    @Override
+    public synchronized void close() {
+        if (confirmTimer != null) {
+            confirmTimer.shutdownNow();
+        }
+        ConfirmChannel channel;
+        while ((channel = channels.poll()) != null) {
+            openChannels.remove(channel);
+            channel.close();
+        }
+        try {
+            if (conn != null && conn.isOpen()) {
+                conn.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("RabbitMQ connection could not be closed.", e);
+        }
+        conn = null;
+    }
+
+    /**
+     * Opens a RabbitMQ {@link Connection}.
+     */
+    interface Connector {
+        Connection connect() throws IOException;
+    }
+
+    /**
+     * Channel in confirm mode with the futures of its unconfirmed messages, by publish sequence number.
+     */
+    private static final class ConfirmChannel implements ConfirmListener {
+
+        private final Channel channel;
+        private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> unconfirmed = new ConcurrentSkipListMap<>();
+        private final ConcurrentNavigableMap<Long, Long> published = new ConcurrentSkipListMap<>();
+
+        private ConfirmChannel(final Channel channel) throws IOException {
+            this.channel = channel;
+            channel.confirmSelect();
+            channel.addConfirmListener(this);
+            channel.addShutdownListener(cause -> fail(confirmed(Long.MAX_VALUE, true), new ProduceException("RabbitMQ channel was closed", cause)));
+        }
+
+        /**
+         * Publishes a persistent message. Only one thread publishes on a channel at a time, so the sequence number matches the message.
+         */
+        private CompletableFuture<Void> publish(final String topic, final byte[] message) throws IOException {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            long sequence = channel.getNextPublishSeqNo();
+            unconfirmed.put(sequence, result);
+            published.put(sequence, System.nanoTime());
+            try {
+                channel.basicPublish("", topic, MessageProperties.PERSISTENT_BASIC, message);
+            } catch (IOException e) {
+                unconfirmed.remove(sequence);
+                published.remove(sequence);
+                throw e;
+            }
+            return result;
+        }
+
+        /**
+         * Fails the unconfirmed messages published before the deadline. They are published in sequence order, so only the oldest ones are checked.
+         */
+        private void expire(final long deadline, final Exception error) {
+            for (Map.Entry<Long, Long> entry : published.entrySet()) {
+                if (entry.getValue() - deadline > 0) {
+                    return;
+                }
+                published.remove(entry.getKey());
+                CompletableFuture<Void> result = unconfirmed.remove(entry.getKey());
+                if (result != null) {
+                    result.completeExceptionally(error);
+                }
+            }
+        }
+
+        @Override
+        public void handleAck(final long deliveryTag, final boolean multiple) {
+            confirmed(deliveryTag, multiple).forEach((sequence, result) -> result.complete(null));
+        }
+
+        @Override
+        public void handleNack(final long deliveryTag, final boolean multiple) {
+            fail(confirmed(deliveryTag, multiple), new ProduceException("RabbitMQ rejected the message"));
+        }
+
+        /**
+         * @return the futures confirmed by a broker confirm, removed from the unconfirmed ones.
+         */
+        private Map<Long, CompletableFuture<Void>> confirmed(final long deliveryTag, final boolean multiple) {
+            if (!multiple) {
+                published.remove(deliveryTag);
+                CompletableFuture<Void> result = unconfirmed.remove(deliveryTag);
+                return result == null ? Collections.emptyMap() : Collections.singletonMap(deliveryTag, result);
+            }
+            published.headMap(deliveryTag, true).clear();
+            Map<Long, CompletableFuture<Void>> confirmed = new ConcurrentSkipListMap<>(unconfirmed.headMap(deliveryTag, true));
+            confirmed.keySet().forEach(unconfirmed::remove);
+            return confirmed;
+        }
+
+        private static void fail(final Map<Long, CompletableFuture<Void>> results, final Exception error) {
+            results.values().forEach(result -> result.completeExceptionally(error));
+        }
+
+        private void close() {
+            try {
+                if (channel.isOpen()) {
+                    channel.close();
+                }
+            } catch (Exception e) {
+                LOG.warn("RabbitMQ channel could not be closed.", e);
+            }
+        }
+    }
+}
@@ -12,10 +12,19 @@ package com.manquius.twelvefactor.clients;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisURI;
 import io.lettuce.core.api.StatefulRedisConnection;
-import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
 import static java.util.Optional.ofNullable;
 
 /**
@@ -33,8 +42,9 @@ public class RedisProduceClient implements ProduceClient {
      */
     public static final int REDIS_DEFAULT_PORT = 6379;
 
-    private StatefulRedisConnection<String, String> connection;
-    private RedisCommands<String, String> sync;
+    private RedisClient redisClient;
+    private StatefulRedisConnection<String, byte[]> connection;
+    private RedisAsyncCommands<String, byte[]> commands;
     private final RedisURI redisUri;
 
 
@@ -46,6 +56,21 @@ public class RedisProduceClient implements ProduceClient {
      * @throws ClientCreationException
      */
     public RedisProduceClient() throws ClientCreationException {
+        this(environmentUri());
+    }
+
+    /**
+     * RedisProduceClient constructor for a given Redis server.
+     * @param redisUri {@link RedisURI} of the Redis server.
+     */
+    RedisProduceClient(final RedisURI redisUri) {
+        this.redisUri = redisUri;
+    }
+
+    /**
+     * Reads the {@link RedisURI} of the Redis server from the environment variables, shared by the Redis adapters.
+     */
+    static RedisURI environmentUri() {
         String host = System.getenv("TWELVEFACTOR_REDIS_MASTER_SERVICE_HOST");
         LOG.debug("Reading Redis host configuration from TWELVEFACTOR_REDIS_MASTER_SERVICE_HOST: " + host);
         if(host == null){
@@ -74,29 +99,98 @@ public class RedisProduceClient implements ProduceClient {
                 port = REDIS_DEFAULT_PORT;
             }
         }
-        redisUri = RedisURI.Builder.redis(host)
+        return RedisURI.Builder.redis(host)
                 .withPort(port)
                 .build();
     }
 
-    private RedisCommands<String, String> getCommands() {
-        if(sync == null) {
-            RedisClient redisClient = RedisClient.create(redisUri);
-            StatefulRedisConnection<String, String> connection = redisClient.connect();
-            sync = connection.sync();
+    /**
+     * Connects lazily, with String keys and binary values, so the messages are written without any charset conversion.
+     */
+    private synchronized RedisAsyncCommands<String, byte[]> getCommands() {
+        if(commands == null) {
+            redisClient = RedisClient.create(redisUri);
+            connection = redisClient.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+            commands = connection.async();
+        }
+        return commands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceAsync(String topic, String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     * All the messages are pushed with a single variadic LPUSH command, so the batch is produced atomically.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages) {
+        byte[][] values = new byte[messages.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = messages.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return lpushBatch(topic, values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(String topic, byte[] message) {
+        try {
+            return acknowledged(getCommands().lpush(topic, message), e -> new ProduceException("Error producing to Redis", e));
+        } catch (Exception e) {
+            return Batches.failed(new ProduceException("Error producing to Redis", e));
         }
-        return sync;
     }
 
     /**
      * {@inheritDoc}
+     * All the messages are pushed with a single variadic LPUSH command, as in {@link #produceBatchAsync(String, List)}.
      */
     @Override
-    public void produce(String topic, String message) throws ProduceException {
+    public CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages) {
+        return lpushBatch(topic, messages.toArray(new byte[0][]));
+    }
+
+    private CompletableFuture<Void> lpushBatch(String topic, byte[][] messages) {
         try {
-            getCommands().lpush(topic, message);
+            return acknowledged(getCommands().lpush(topic, messages), e -> new BatchProduceException("Error producing batch to Redis", 0, e));
         } catch (Exception e) {
-            throw new ProduceException("Error producing to Redis", e);
+            return Batches.failed(new BatchProduceException("Error producing batch to Redis", 0, e));
+        }
+    }
+
+    /**
+     * Adapts a Redis command completion to the {@link ProduceClient} contract.
+     */
+    private CompletableFuture<Void> acknowledged(final CompletionStage<Long> command, final Function<Throwable, ProduceException> failure) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        command.whenComplete((length, error) -> {
+            if (error != null) {
+                result.completeExceptionally(failure.apply(error));
+            } else {
+                result.complete(null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * It sends a PING on the shared connection.
+     */
+    @Override
+    public CompletableFuture<Void> probe() {
+        try {
+            return getCommands().ping().toCompletableFuture().thenApply(pong -> null);
+        } catch (Exception e) {
+            return Batches.failed(new ProduceException("Redis is not reachable", e));
         }
     }
 
@@ -104,7 +198,12 @@ public class RedisProduceClient implements ProduceClient {
      * {@inheritDoc}
      */
     @Override
-    public void close() {
-        connection.close();
+    public synchronized void close() {
+        if (connection != null) {
+            connection.close();
+            redisClient.shutdown();
+            connection = null;
+            commands = null;
+        }
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.XAddArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * {@link ProduceClient} implementation for Redis Streams backing service. Every topic is a stream, and every message is an entry with a single message field.
+ * The streams are trimmed on every XADD to about REDIS_STREAMS_MAXLEN entries, so consumed messages do not pile up on Redis.
+ *  It can be configured using the following environment variables:
+ *  TWELVEFACTOR_REDIS_MASTER_SERVICE_HOST or alternatively TWELVEFACTOR_REDIS_ANNOUNCE_0_SERVICE_HOST default localhost
+ *  TWELVEFACTOR_REDIS_MASTER_SERVICE_PORT or alternatively TWELVEFACTOR_REDIS_ANNOUNCE_0_SERVICE_PORT default 6379
+ *  REDIS_STREAMS_MAXLEN approximate max number of entries of each stream. Zero disables trimming. Default 100000.
+ */
+public class RedisStreamsProduceClient implements ProduceClient {
+
+    /**
+     * Field of the stream entries that holds the message.
+     */
+    public static final String MESSAGE_FIELD = "message";
+
+    private RedisClient redisClient;
+    private StatefulRedisConnection<String, byte[]> connection;
+    private RedisAsyncCommands<String, byte[]> commands;
+    private final RedisURI redisUri;
+    private final XAddArgs addArgs;
+
+    /**
+     * RedisStreamsProduceClient constructor, configured with the same environment variables as {@link RedisProduceClient}.
+     * @throws ClientCreationException
+     */
+    public RedisStreamsProduceClient() throws ClientCreationException {
+        this(RedisProduceClient.environmentUri());
+    }
+
+    /**
+     * RedisStreamsProduceClient constructor for a given Redis server.
+     * @param redisUri {@link RedisURI} of the Redis server.
+     */
+    RedisStreamsProduceClient(final RedisURI redisUri) {
+        this.redisUri = redisUri;
+        long maxLength = getLong("REDIS_STREAMS_MAXLEN", 100000);
+        this.addArgs = maxLength > 0 ? XAddArgs.Builder.maxlen(maxLength).approximateTrimming() : new XAddArgs();
+    }
+
+    /**
+     * RedisStreamsProduceClient constructor for given commands, so the adapter can be tested without a Redis server.
+     * @param commands {@link RedisAsyncCommands} used instead of a connection.
+     */
+    RedisStreamsProduceClient(final RedisAsyncCommands<String, byte[]> commands) {
+        this((RedisURI) null);
+        this.commands = commands;
+    }
+
+    /**
+     * Connects lazily, with String keys and binary values, so the messages are written without any charset conversion.
+     */
+    private synchronized RedisAsyncCommands<String, byte[]> getCommands() {
+        if(commands == null) {
+            redisClient = RedisClient.create(redisUri);
+            connection = redisClient.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+            commands = connection.async();
+        }
+        return commands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceAsync(String topic, String message) {
+        return produceBytesAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every message is added with its own XADD. The commands are pipelined on the connection, and the batch fails with the number of leading messages that were added.
+     */
+    @Override
+    public CompletableFuture<Void> produceBatchAsync(String topic, List<String> messages) {
+        List<byte[]> values = new ArrayList<>(messages.size());
+        messages.forEach(message -> values.add(message.getBytes(StandardCharsets.UTF_8)));
+        return produceBytesBatchAsync(topic, values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesAsync(String topic, byte[] message) {
+        try {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            xadd(topic, message).whenComplete((id, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(new ProduceException("Error producing to Redis Streams", error));
+                } else {
+                    result.complete(null);
+                }
+            });
+            return result;
+        } catch (Exception e) {
+            return Batches.failed(new ProduceException("Error producing to Redis Streams", e));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The messages are added as in {@link #produceBatchAsync(String, List)}.
+     */
+    @Override
+    public CompletableFuture<Void> produceBytesBatchAsync(String topic, List<byte[]> messages) {
+        List<CompletableFuture<String>> results = new ArrayList<>(messages.size());
+        try {
+            for (byte[] message : messages) {
+                results.add(xadd(topic, message));
+            }
+        } catch (Exception e) {
+            results.add(Batches.failed(e));
+        }
+        return Batches.acknowledged("Redis Streams", results, messages.size());
+    }
+
+    private CompletableFuture<String> xadd(String topic, byte[] message) {
+        return getCommands().xadd(topic, addArgs, Collections.singletonMap(MESSAGE_FIELD, message)).toCompletableFuture();
+    }
+
+    /**
+     * {@inheritDoc}
+     * It sends a PING on the shared connection.
+     */
+    @Override
+    public CompletableFuture<Void> probe() {
+        try {
+            return getCommands().ping().toCompletableFuture().thenApply(pong -> null);
+        } catch (Exception e) {
+            return Batches.failed(new ProduceException("Redis is not reachable", e));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() {
+        if (connection != null) {
+            connection.close();
+            redisClient.shutdown();
+            connection = null;
+            commands = null;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * Append-only local journal where messages are spilled when no backing service can take them.
+ * The journal is split in fixed size segment files, preallocated on creation and memory mapped, so appending a message is a memory copy into the page cache and survives a crash of the process.
+ * Each segment starts with the position of the next message to be replayed, followed by the records: [int record length][short topic length][UTF-8 topic][message bytes].
+ * The length of a record is written after its content, so a partially written record is never read. Fully replayed segments are deleted.
+ * It can be configured using the following environment variables:
+ * SPILL_JOURNAL_DIR directory of the journal segments. The journal is disabled if it is not defined.
+ * SPILL_SEGMENT_BYTES size of each segment file. Default 67108864 (64MB).
+ * SPILL_MAX_BYTES maximum disk space used by the segment files. Appends that need a new segment beyond it are rejected. Default 1073741824 (1GB).
+ */
+class SpillJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillJournal.class);
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final int ZEROS_BYTES = 64 * 1024;
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER_BYTES = Long.BYTES;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Short.BYTES;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment active;
+    private long nextSequence;
+
+    /**
+     * SpillJournal constructor, without a limit of disk space.
+     * @see #SpillJournal(Path, int, long)
+     */
+    SpillJournal(final Path directory, final int segmentBytes) throws IOException {
+        this(directory, segmentBytes, Long.MAX_VALUE);
+    }
+
+    /**
+     * SpillJournal constructor. Existing segments in the directory are recovered, so their pending records are replayed.
+     * @param directory of the journal segments. It is created if it does not exist.
+     * @param segmentBytes size of each segment file.
+     * @param maxBytes maximum disk space used by the segment files.
+     * @throws IOException if the journal directory or its segments could not be opened.
+     */
+    SpillJournal(final Path directory, final int segmentBytes, final long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            files.forEach(existing::add);
+        }
+        Collections.sort(existing);
+        for (Path file : existing) {
+            Segment segment = Segment.recover(file, sequenceOf(file));
+            segments.addLast(segment);
+            nextSequence = segment.sequence + 1;
+        }
+        if (!existing.isEmpty()) {
+            LOG.info("Recovered " + existing.size() + " spill journal segments from " + directory);
+        }
+    }
+
+    /**
+     * Creates a {@link SpillJournal} configured from the environment variables.
+     * @return the journal, or null if SPILL_JOURNAL_DIR is not defined.
+     * @throws ClientCreationException if the journal could not be opened.
+     */
+    static SpillJournal fromEnvironment() throws ClientCreationException {
+        String directory = System.getenv("SPILL_JOURNAL_DIR");
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        try {
+            return new SpillJournal(Paths.get(directory), getInt("SPILL_SEGMENT_BYTES", DEFAULT_SEGMENT_BYTES),
+                    getLong("SPILL_MAX_BYTES", DEFAULT_MAX_BYTES));
+        } catch (IOException e) {
+            throw new ClientCreationException("Error opening spill journal at " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a message to the journal.
+     * @throws IOException if the message could not be written, it does not fit in a segment, or the journal is full.
+     */
+    synchronized void append(final String topic, final byte[] messageBytes) throws IOException {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER_BYTES + topicBytes.length + messageBytes.length;
+        if (topicBytes.length > Short.MAX_VALUE || HEADER_BYTES + size + Integer.BYTES > segmentBytes) {
+            throw new IOException("Message does not fit in a spill journal segment of " + segmentBytes + " bytes");
+        }
+        if (active == null || active.writePosition + size + Integer.BYTES > segmentBytes) {
+            rotate();
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.writePosition;
+        buffer.position(position + Integer.BYTES);
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.put(messageBytes);
+        buffer.putInt(position, size);
+        active.writePosition = position + size;
+    }
+
+    /**
+     * Reads the oldest pending records of the journal, without removing them.
+     * All the returned records belong to the same segment. They must be acknowledged with {@link #acknowledge(Record)} once replayed.
+     * @param max maximum number of records to read.
+     * @return pending records, or an empty list if there are none.
+     */
+    synchronized List<Record> read(final int max) {
+        Segment segment = oldestPending();
+        if (segment == null) {
+            return Collections.emptyList();
+        }
+        List<Record> records = new ArrayList<>();
+        int position = segment.readPosition;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        while (records.size() < max && position < segment.writePosition) {
+            int size = buffer.getInt(position);
+            int topicLength = buffer.getShort(position + Integer.BYTES);
+            byte[] topic = new byte[topicLength];
+            byte[] message = new byte[size - RECORD_HEADER_BYTES - topicLength];
+            buffer.position(position + RECORD_HEADER_BYTES);
+            buffer.get(topic);
+            buffer.get(message);
+            position += size;
+            records.add(new Record(new String(topic, StandardCharsets.UTF_8), message, segment.sequence, position));
+        }
+        return records;
+    }
+
+    /**
+     * Marks a record, and all the previous ones of its segment, as replayed.
+     */
+    synchronized void acknowledge(final Record record) {
+        for (Segment segment : segments) {
+            if (segment.sequence == record.segment) {
+                segment.readPosition = Math.max(segment.readPosition, record.end);
+                segment.buffer.putLong(0, segment.readPosition);
+                break;
+            }
+        }
+        oldestPending();
+    }
+
+    /**
+     * @return true if there are no pending records.
+     */
+    synchronized boolean isEmpty() {
+        return oldestPending() == null;
+    }
+
+    /**
+     * @return true if a message can still be appended without exceeding the maximum disk space.
+     */
+    synchronized boolean hasRoom() {
+        oldestPending();
+        boolean activeHasRoom = active != null && active.writePosition + RECORD_HEADER_BYTES + Integer.BYTES < segmentBytes;
+        return activeHasRoom || (segments.size() + 1L) * segmentBytes <= maxBytes;
+    }
+
+    /**
+     * @return number of bytes of pending records.
+     */
+    synchronized long pendingBytes() {
+        long pending = 0;
+        for (Segment segment : segments) {
+            pending += segment.writePosition - segment.readPosition;
+        }
+        return pending;
+    }
+
+    /**
+     * Finds the oldest segment with pending records, deleting the fully replayed segments that will not receive more records.
+     */
+    private Segment oldestPending() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.peekFirst();
+            if (oldest.readPosition < oldest.writePosition) {
+                return oldest;
+            }
+            if (oldest == active) {
+                return null;
+            }
+            segments.pollFirst();
+            oldest.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Starts a new segment. The replayed segments are deleted first, so their space can be reused.
+     * @throws IOException if the new segment would exceed the maximum disk space, or it could not be allocated.
+     */
+    private void rotate() throws IOException {
+        oldestPending();
+        if ((segments.size() + 1L) * segmentBytes > maxBytes) {
+            throw new IOException("Spill journal is full: " + segments.size() + " segments of " + segmentBytes + " bytes, max " + maxBytes + " bytes");
+        }
+        if (active != null) {
+            active.buffer.force();
+        }
+        Path file = directory.resolve(String.format("%020d%s", nextSequence, SUFFIX));
+        active = Segment.create(file, nextSequence, segmentBytes);
+        segments.addLast(active);
+        nextSequence++;
+    }
+
+    private static long sequenceOf(final Path file) throws IOException {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid spill journal segment name: " + name, e);
+        }
+    }
+
+    /**
+     * Flushes the journal to disk.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.closeChannel();
+        }
+        segments.clear();
+        active = null;
+    }
+
+    /**
+     * Message read from the journal.
+     */
+    static final class Record {
+        private final String topic;
+        private final byte[] message;
+        private final long segment;
+        private final int end;
+
+        private Record(final String topic, final byte[] message, final long segment, final int end) {
+            this.topic = topic;
+            this.message = message;
+            this.segment = segment;
+            this.end = end;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        byte[] getMessage() {
+            return message;
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long sequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(final Path file, final long sequence, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Creates a segment writing all its bytes, instead of a sparse file, so a full disk fails here and not when a mapped page is written.
+         */
+        private static Segment create(final Path file, final long sequence, final int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer zeros = ByteBuffer.allocate(Math.min(size, ZEROS_BYTES));
+                long position = 0;
+                while (position < size) {
+                    zeros.clear().limit((int) Math.min(zeros.capacity(), size - position));
+                    position += channel.write(zeros, position);
+                }
+                channel.force(true);
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            Segment segment = open(file, sequence);
+            segment.readPosition = HEADER_BYTES;
+            segment.writePosition = HEADER_BYTES;
+            segment.buffer.putLong(0, HEADER_BYTES);
+            return segment;
+        }
+
+        /**
+         * Opens an existing segment, finding its end by walking the complete records.
+         */
+        private static Segment recover(final Path file, final long sequence) throws IOException {
+            Segment segment = open(file, sequence);
+            MappedByteBuffer buffer = segment.buffer;
+            int position = HEADER_BYTES;
+            while (position + Integer.BYTES <= buffer.capacity()) {
+                int size = buffer.getInt(position);
+                if (size < RECORD_HEADER_BYTES || position + size > buffer.capacity()) {
+                    break;
+                }
+                position += size;
+            }
+            segment.writePosition = position;
+            long readPosition = buffer.getLong(0);
+            segment.readPosition = (int) Math.min(position, Math.max(HEADER_BYTES, readPosition));
+            return segment;
+        }
+
+        private static Segment open(final Path file, final long sequence) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return new Segment(file, sequence, channel, buffer);
+        }
+
+        private void delete() {
+            closeChannel();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOG.warn("Spill journal segment could not be deleted: " + file, e);
+            }
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Spill journal segment could not be closed: " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getInt;
+import static com.manquius.twelvefactor.clients.EnvironmentVariables.getLong;
+
+/**
+ * Background task that drains a {@link SpillJournal} to the primary backing service once its circuit breaker is closed again.
+ * Messages are replayed in order, in batches of consecutive messages of the same topic, at a bounded rate so a recovering backing service is not flooded.
+ * A message is removed from the journal only after it was acknowledged, so it may be produced twice if the service stops while replaying.
+ * It can be configured using the following environment variables:
+ * SPILL_REPLAY_RATE: Maximum number of messages replayed per second. Default: 1000.
+ * SPILL_REPLAY_INTERVAL_MS: Interval between replay rounds. Default: 100.
+ */
+class SpillReplayer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillReplayer.class);
+    public static final int DEFAULT_REPLAY_RATE = 1000;
+    public static final long DEFAULT_REPLAY_INTERVAL_MILLIS = 100;
+
+    private final SpillJournal journal;
+    private final ProduceClient target;
+    private final CircuitBreaker breaker;
+    private final int messagesPerRound;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * SpillReplayer constructor, configured from the environment variables. It starts replaying immediately.
+     * @param journal to be drained.
+     * @param target primary {@link ProduceClient}.
+     * @param breaker {@link CircuitBreaker} of the primary level. Messages are only replayed while it is closed.
+     */
+    SpillReplayer(final SpillJournal journal, final ProduceClient target, final CircuitBreaker breaker) {
+        this(journal, target, breaker, getInt("SPILL_REPLAY_RATE", DEFAULT_REPLAY_RATE), getLong("SPILL_REPLAY_INTERVAL_MS", DEFAULT_REPLAY_INTERVAL_MILLIS));
+    }
+
+    SpillReplayer(final SpillJournal journal, final ProduceClient target, final CircuitBreaker breaker, final int rate, final long intervalMillis) {
+        this.journal = journal;
+        this.target = target;
+        this.breaker = breaker;
+        this.messagesPerRound = (int) Math.max(1, rate * intervalMillis / 1000);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spill-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::replay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays up to the messages allowed in a round. It stops on the first failure, to be retried on the next round.
+     */
+    void replay() {
+        int budget = messagesPerRound;
+        try {
+            while (budget > 0 && breaker.getState() == CircuitBreaker.State.CLOSED) {
+                List<SpillJournal.Record> records = sameTopic(journal.read(budget));
+                if (records.isEmpty()) {
+                    return;
+                }
+                String topic = records.get(0).getTopic();
+                List<byte[]> messages = new ArrayList<>(records.size());
+                records.forEach(record -> messages.add(record.getMessage()));
+                if (!breaker.tryAcquire()) {
+                    return;
+                }
+                try {
+                    target.produceBytesBatchAsync(topic, messages).join();
+                    breaker.onSuccess();
+                    journal.acknowledge(records.get(records.size() - 1));
+                    budget -= records.size();
+                } catch (CompletionException e) {
+                    breaker.onFailure();
+                    if (e.getCause() instanceof BatchProduceException && ((BatchProduceException) e.getCause()).getSent() > 0) {
+                        journal.acknowledge(records.get(((BatchProduceException) e.getCause()).getSent() - 1));
+                    }
+                    LOG.warn("Spilled messages could not be replayed, retrying later.", e.getCause());
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error replaying spilled messages.", e);
+        }
+    }
+
+    /**
+     * @return the leading records with the same topic as the first one.
+     */
+    private static List<SpillJournal.Record> sameTopic(final List<SpillJournal.Record> records) {
+        int end = 1;
+        while (end < records.size() && records.get(end).getTopic().equals(records.get(0).getTopic())) {
+            end++;
+        }
+        return records.size() <= end ? records : records.subList(0, end);
+    }
+
+    /**
+     * Stops replaying. Pending messages are kept in the journal until the next start.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of long lived per topic resources (producers, consumers) of a backing service client.
+ * The resources are created asynchronously at most once per topic, even under concurrent requests.
+ * When the cache is full, the least recently used resource is evicted, and resources that were not used for the configured idle time are closed by a background task.
+ * The resources are used through a {@link Lease}, and an evicted resource is only closed once all its leases are released, so it is never closed while a request is using it.
+ * @param <T> cached resource type.
+ */
+class TopicCache<T> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopicCache.class);
+
+    private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final Function<String, CompletableFuture<T>> factory;
+    private final Consumer<T> closer;
+    private final int maxSize;
+    private final long idleNanos;
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * TopicCache constructor.
+     * @param name used to name the eviction thread.
+     * @param maxSize max number of cached topics.
+     * @param idleMillis time a resource can remain unused before it is closed. Zero or negative disables idle eviction.
+     * @param factory creates the resource for a topic.
+     * @param closer closes an evicted resource.
+     */
+    TopicCache(final String name, final int maxSize, final long idleMillis,
+               final Function<String, CompletableFuture<T>> factory, final Consumer<T> closer) {
+        this.factory = factory;
+        this.closer = closer;
+        this.maxSize = Math.max(1, maxSize);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        if (idleMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name + "-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, idleMillis / 2);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    /**
+     * Leases the resource for the topic, creating it if it is not cached. The lease must be closed once the resource is not used anymore.
+     * If the creation fails the topic is removed from the cache, so the next call will try again.
+     */
+    Lease<T> acquire(final String topic) {
+        while (true) {
+            Entry<T> entry = entries.get(topic);
+            if (entry == null) {
+                entry = entries.computeIfAbsent(topic, key -> new Entry<>(factory.apply(key)));
+                final Entry<T> created = entry;
+                created.value.whenComplete((value, error) -> {
+                    if (error != null) {
+                        entries.remove(topic, created);
+                    }
+                });
+                if (entries.size() > maxSize) {
+                    evictLeastRecentlyUsed();
+                }
+            }
+            entry.users.incrementAndGet();
+            if (!entry.evicted) {
+                entry.lastUsed = System.nanoTime();
+                return new Lease<>(topic, entry, this);
+            }
+            release(topic, entry);
+        }
+    }
+
+    /**
+     * @return number of cached topics.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Closes the resources that were not used for the configured idle time.
+     */
+    void evictIdle() {
+        long now = System.nanoTime();
+        entries.forEach((topic, entry) -> {
+            if (now - entry.lastUsed > idleNanos) {
+                LOG.debug("Closing idle resource for topic: " + topic);
+                evict(topic, entry);
+            }
+        });
+    }
+
+    private void evictLeastRecentlyUsed() {
+        String oldestTopic = null;
+        Entry<T> oldest = null;
+        for (Map.Entry<String, Entry<T>> candidate : entries.entrySet()) {
+            if (oldest == null || candidate.getValue().lastUsed < oldest.lastUsed) {
+                oldestTopic = candidate.getKey();
+                oldest = candidate.getValue();
+            }
+        }
+        if (oldest != null) {
+            LOG.debug("Cache is full. Closing least recently used resource for topic: " + oldestTopic);
+            evict(oldestTopic, oldest);
+        }
+    }
+
+    /**
+     * Removes the entry from the cache. Its resource is closed now if it is not leased, or when its last lease is released.
+     */
+    private void evict(final String topic, final Entry<T> entry) {
+        if (entries.remove(topic, entry)) {
+            entry.evicted = true;
+            if (entry.users.get() == 0) {
+                closeEntry(topic, entry);
+            }
+        }
+    }
+
+    private void release(final String topic, final Entry<T> entry) {
+        if (entry.users.decrementAndGet() == 0 && entry.evicted) {
+            closeEntry(topic, entry);
+        }
+    }
+
+    private void closeEntry(final String topic, final Entry<T> entry) {
+        if (entry.closed.compareAndSet(false, true)) {
+            entry.value.thenAccept(value -> {
+                try {
+                    closer.accept(value);
+                } catch (Exception e) {
+                    LOG.warn("Resource for topic " + topic + " could not be closed.", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes all the cached resources and stops the eviction task.
+     */
+    @Override
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        entries.forEach(this::evict);
+    }
+
+    /**
+     * Use of a cached resource. The resource is not closed by an eviction until the lease is closed.
+     * @param <T> cached resource type.
+     */
+    static final class Lease<T> implements AutoCloseable {
+        private final String topic;
+        private final Entry<T> entry;
+        private final TopicCache<T> cache;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(final String topic, final Entry<T> entry, final TopicCache<T> cache) {
+            this.topic = topic;
+            this.entry = entry;
+            this.cache = cache;
+        }
+
+        /**
+         * @return the leased resource, completed once it is created.
+         */
+        CompletableFuture<T> get() {
+            return entry.value;
+        }
+
+        /**
+         * Releases the resource. It can be called more than once.
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                cache.release(topic, entry);
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+        private final CompletableFuture<T> value;
+        private final AtomicInteger users = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean evicted;
+        private volatile long lastUsed = System.nanoTime();
+
+        private Entry(final CompletableFuture<T> value) {
+            this.value = value;
+        }
+    }
+}
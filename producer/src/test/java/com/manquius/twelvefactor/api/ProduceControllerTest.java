@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.manquius.twelvefactor.clients.BatchProduceException;
+import com.manquius.twelvefactor.clients.ClientCreationException;
+import com.manquius.twelvefactor.clients.ClientMetrics;
+import com.manquius.twelvefactor.clients.ProduceClient;
+import com.manquius.twelvefactor.clients.ProduceClientProvider;
+import com.manquius.twelvefactor.clients.ProduceException;
+import io.micronaut.http.HttpResponse;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.http.HttpStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ProduceControllerTest {
+
+    private final ProduceClientProvider clientProvider = mock(ProduceClientProvider.class);
+    private final ProduceClient client = mock(ProduceClient.class);
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<String> messages;
+
+    @BeforeEach
+    void setUp() throws ClientCreationException {
+        when(clientProvider.getClient()).thenReturn(client);
+        when(client.produceAsync(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        when(client.produceBatchAsync(anyString(), anyList())).thenReturn(CompletableFuture.completedFuture(null));
+        messages = Arrays.asList("message1", "message2");
+    }
+
+    @Test
+    void should_produce_a_message() {
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produce("topic", "message").join();
+        assertEquals(HttpStatus.OK.getCode(), rsp.code());
+        verify(client, times(1)).produceAsync("topic", "message");
+    }
+
+    @Test
+    void should_produce_binary_message() {
+        byte[] message = {0, 1, 2};
+        when(client.produceBytesAsync("topic", message)).thenReturn(CompletableFuture.completedFuture(null));
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produceBytes("topic", message).join();
+        assertEquals(HttpStatus.OK.getCode(), rsp.code());
+        verify(client, times(1)).produceBytesAsync("topic", message);
+        verify(client, never()).produceAsync(anyString(), anyString());
+    }
+
+    @Test
+    void should_time_requests() {
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        controller.produce("timed", "message").join();
+        Timer timer = ClientMetrics.registry().get("twelvefactor.produce.requests")
+                .tags("client", client.getClass().getSimpleName(), "operation", "single", "topic", "timed", "outcome", "success").timer();
+        assertEquals(1, timer.count());
+        assertEquals(0.0, ClientMetrics.registry().get("twelvefactor.produce.inflight").gauge().value());
+    }
+
+    @Test
+    void should_fail_if_produce_fails() {
+        when(client.produceAsync("topic", "message")).thenReturn(failed(new ProduceException()));
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produce("topic", "message").join();
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.getCode(), rsp.code());
+    }
+
+    @Test
+    void should_fail_if_client_fails() throws ClientCreationException {
+        when(clientProvider.getClient()).thenThrow(new ClientCreationException());
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produce("topic", "message").join();
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.getCode(), rsp.code());
+    }
+
+    @Test
+    void should_not_respond_until_acknowledged() {
+        CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+        when(client.produceAsync("topic", "message")).thenReturn(acknowledgement);
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        CompletableFuture<HttpResponse<String>> rsp = controller.produce("topic", "message");
+        assertFalse(rsp.isDone());
+        acknowledgement.complete(null);
+        assertEquals(HttpStatus.OK.getCode(), rsp.join().code());
+    }
+
+    @Test
+    void should_produce_a_batch() {
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produceBatch("topic", messages).join();
+        assertEquals(HttpStatus.OK.getCode(), rsp.code());
+        verify(client, times(1)).produceBatchAsync("topic", messages);
+    }
+
+    @Test
+    void should_produce_a_ndjson_batch() {
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produceNdjsonBatch("topic", "\"message1\"\n\n\"message2\"\n").join();
+        assertEquals(HttpStatus.OK.getCode(), rsp.code());
+        verify(client, times(1)).produceBatchAsync("topic", messages);
+    }
+
+    @Test
+    void should_decode_ndjson_lines_as_json_strings() {
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produceNdjsonBatch("topic", "\"line\\nbreak\"\r\n\"quote \\\" \\u00f1\"").join();
+        assertEquals(HttpStatus.OK.getCode(), rsp.code());
+        verify(client, times(1)).produceBatchAsync("topic", Arrays.asList("line\nbreak", "quote \" \u00f1"));
+    }
+
+    @Test
+    void should_reject_ndjson_lines_that_are_not_json_strings() {
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produceNdjsonBatch("topic", "\"message1\"\nmessage2\n").join();
+        assertEquals(HttpStatus.BAD_REQUEST.getCode(), rsp.code());
+        assertEquals("Line 2 is not a JSON string", rsp.body());
+        verify(client, never()).produceBatchAsync(eq("topic"), anyList());
+    }
+
+    @Test
+    void should_report_sent_messages_if_batch_fails() {
+        when(client.produceBatchAsync(eq("topic"), anyList())).thenReturn(failed(new BatchProduceException("Error", 1)));
+        ProduceController controller = new ProduceController(clientProvider, mapper);
+        HttpResponse<String> rsp = controller.produceBatch("topic", messages).join();
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.getCode(), rsp.code());
+        assertEquals("Produced 1 of 2", rsp.body());
+    }
+
+    private static CompletableFuture<Void> failed(Exception e) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+}
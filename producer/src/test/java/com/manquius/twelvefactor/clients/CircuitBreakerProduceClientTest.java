@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+public class CircuitBreakerProduceClientTest {
+
+    private final ProduceClient client1 = mock(ProduceClient.class);
+    private final ProduceClient client2 = mock(ProduceClient.class);
+    private ProduceClient client;
+    private List<String> messages;
+
+    @BeforeEach
+    void setUp() {
+        List<ProduceClient> clients = new ArrayList<>();
+        clients.add(client1);
+        clients.add(client2);
+        messages = Arrays.asList("Message1", "Message2", "Message3");
+        when(client1.produceAsync(anyString(), anyString())).thenReturn(acknowledged());
+        when(client2.produceAsync(anyString(), anyString())).thenReturn(acknowledged());
+        when(client1.produceBatchAsync(anyString(), anyList())).thenReturn(acknowledged());
+        when(client2.produceBatchAsync(anyString(), anyList())).thenReturn(acknowledged());
+        when(client1.produceBytesAsync(anyString(), any())).thenReturn(acknowledged());
+        when(client1.produceBytesBatchAsync(anyString(), anyList())).thenReturn(acknowledged());
+        client = new CircuitBreakerProduceClient(clients);
+    }
+
+    @Test
+    void should_produce_to_client1() throws ProduceException {
+        client.produce("topic", "Message");
+        verify(client1, times(1)).produceAsync("topic", "Message");
+        verify(client2, never()).produceAsync("topic", "Message");
+    }
+
+    @Test
+    void should_produce_to_client2() throws ProduceException {
+        when(client1.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+        client.produce("topic", "Message");
+        verify(client1, times(10)).produceAsync("topic", "Message");
+        verify(client2, times(1)).produceAsync("topic", "Message");
+    }
+
+    @Test
+    void should_be_healthy_while_a_level_is() {
+        when(client1.probe()).thenReturn(failed(new ProduceException("Down")));
+        when(client2.probe()).thenReturn(acknowledged());
+        client.probe().join();
+    }
+
+    @Test
+    void should_not_be_healthy_without_healthy_levels() {
+        when(client1.probe()).thenReturn(failed(new ProduceException("Down")));
+        when(client2.probe()).thenReturn(failed(new ProduceException("Down")));
+        CompletableFuture<Void> probe = client.probe();
+        ExecutionException e = assertThrows(ExecutionException.class, probe::get);
+        assertEquals(ProduceException.class, e.getCause().getClass());
+    }
+
+    @Test
+    void should_be_healthy_while_the_journal_has_room(@TempDir Path directory) throws Exception {
+        when(client1.probe()).thenReturn(failed(new ProduceException("Down")));
+        when(client2.probe()).thenReturn(failed(new ProduceException("Down")));
+        try (CircuitBreakerProduceClient spilling = new CircuitBreakerProduceClient(Arrays.asList(client1, client2), new SpillJournal(directory, 4096))) {
+            spilling.probe().get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void should_not_be_healthy_when_the_journal_is_full(@TempDir Path directory) throws Exception {
+        when(client1.probe()).thenReturn(failed(new ProduceException("Down")));
+        when(client2.probe()).thenReturn(failed(new ProduceException("Down")));
+        try (CircuitBreakerProduceClient spilling = new CircuitBreakerProduceClient(Arrays.asList(client1, client2), new SpillJournal(directory, 4096, 0))) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> spilling.probe().get(5, TimeUnit.SECONDS));
+            assertEquals(ProduceException.class, e.getCause().getClass());
+        }
+    }
+
+    @Test
+    void should_fail_to_produce() {
+        when(client1.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+        when(client2.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+        assertThrows(ProduceException.class, () -> client.produce("topic", "Message"));
+        verify(client1, times(10)).produceAsync("topic", "Message");
+        verify(client2, times(10)).produceAsync("topic", "Message");
+    }
+
+    @Test
+    void should_retry_when_acknowledgement_fails_later() {
+        CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+        when(client1.produceAsync("topic", "Message")).thenReturn(acknowledgement).thenReturn(acknowledged());
+        CompletableFuture<Void> result = client.produceAsync("topic", "Message");
+        assertFalse(result.isDone());
+        acknowledgement.completeExceptionally(new ProduceException());
+        result.join();
+        verify(client1, times(2)).produceAsync("topic", "Message");
+    }
+
+    @Test
+    void should_produce_binary_message_to_client2() throws Exception {
+        byte[] message = {0, 1, 2};
+        when(client1.produceBytesAsync("topic", message)).thenReturn(failed(new ProduceException()));
+        when(client2.produceBytesAsync("topic", message)).thenReturn(acknowledged());
+        client.produceBytesAsync("topic", message).get(5, TimeUnit.SECONDS);
+        verify(client1, times(10)).produceBytesAsync("topic", message);
+        verify(client2, times(1)).produceBytesAsync("topic", message);
+        verify(client2, never()).produceAsync(anyString(), anyString());
+    }
+
+    @Test
+    void should_spill_and_replay_when_all_clients_fail(@TempDir Path directory) throws Exception {
+        when(client1.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+        when(client2.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+        SpillJournal journal = new SpillJournal(directory, 4096);
+        withEnvironmentVariable("CIRCUIT_BREAKER_MIN_CALLS", "100").execute(() -> {
+            try (CircuitBreakerProduceClient spilling = new CircuitBreakerProduceClient(Arrays.asList(client1, client2), journal)) {
+                spilling.produce("topic", "Message");
+                verify(client1, timeout(5000)).produceBytesBatchAsync(eq("topic"), argThat(spilled -> spilled.size() == 1 && Arrays.equals("Message".getBytes(StandardCharsets.UTF_8), spilled.get(0))));
+            }
+        });
+    }
+
+    @Test
+    void should_hedge_to_client2_when_client1_is_slow() throws Exception {
+        CompletableFuture<Void> slow = new CompletableFuture<>();
+        when(client1.produceAsync("topic", "Message")).thenReturn(slow);
+        withEnvironmentVariable("CIRCUIT_BREAKER_HEDGE_DELAY_MS", "10").execute(() -> {
+            CircuitBreakerProduceClient hedging = new CircuitBreakerProduceClient(Arrays.asList(client1, client2));
+            hedging.produceAsync("topic", "Message").get(5, TimeUnit.SECONDS);
+            verify(client2, times(1)).produceAsync("topic", "Message");
+            assertEquals(1, hedging.getHedges());
+            assertEquals(1, hedging.getHedgeWins());
+            slow.complete(null);
+            assertEquals(1, hedging.getDuplicates());
+            hedging.close();
+        });
+    }
+
+    @Test
+    void should_not_hedge_fast_requests() throws Exception {
+        withEnvironmentVariable("CIRCUIT_BREAKER_HEDGE_DELAY_MS", "10").execute(() -> {
+            CircuitBreakerProduceClient hedging = new CircuitBreakerProduceClient(Arrays.asList(client1, client2));
+            hedging.produceAsync("topic", "Message").get(5, TimeUnit.SECONDS);
+            verify(client2, never()).produceAsync("topic", "Message");
+            assertEquals(0, hedging.getHedges());
+            hedging.close();
+        });
+    }
+
+    @Test
+    void should_not_hedge_requests_failed_over_from_client1() throws Exception {
+        when(client1.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+        CompletableFuture<Void> slow = new CompletableFuture<>();
+        when(client2.produceAsync("topic", "Message")).thenReturn(slow);
+        withEnvironmentVariable("CIRCUIT_BREAKER_HEDGE_DELAY_MS", "10").execute(() -> {
+            CircuitBreakerProduceClient hedging = new CircuitBreakerProduceClient(Arrays.asList(client1, client2));
+            CompletableFuture<Void> result = hedging.produceAsync("topic", "Message");
+            Thread.sleep(100);
+            verify(client2, times(1)).produceAsync("topic", "Message");
+            assertEquals(0, hedging.getHedges());
+            slow.complete(null);
+            result.get(5, TimeUnit.SECONDS);
+            hedging.close();
+        });
+    }
+
+    @Test
+    void should_fail_hedged_request_only_when_both_fail() throws Exception {
+        CompletableFuture<Void> slow = new CompletableFuture<>();
+        when(client1.produceAsync("topic", "Message")).thenReturn(slow);
+        CompletableFuture<Void> hedge = new CompletableFuture<>();
+        when(client2.produceAsync("topic", "Message")).thenReturn(hedge);
+        withEnvironmentVariable("CIRCUIT_BREAKER_HEDGE_DELAY_MS", "10").execute(() -> {
+            CircuitBreakerProduceClient hedging = new CircuitBreakerProduceClient(Arrays.asList(client1, client2));
+            CompletableFuture<Void> result = hedging.produceAsync("topic", "Message");
+            verify(client2, timeout(5000).times(1)).produceAsync("topic", "Message");
+            when(client2.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+            hedge.completeExceptionally(new ProduceException());
+            assertFalse(result.isDone());
+            when(client1.produceAsync("topic", "Message")).thenReturn(failed(new ProduceException()));
+            slow.completeExceptionally(new ProduceException());
+            assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            hedging.close();
+        });
+    }
+
+    @Test
+    void should_produce_batch_to_client1() throws ProduceException {
+        client.produceBatch("topic", messages);
+        verify(client1, times(1)).produceBatchAsync("topic", messages);
+        verify(client2, never()).produceBatchAsync(eq("topic"), anyList());
+    }
+
+    @Test
+    void should_retry_only_pending_messages_of_batch() throws ProduceException {
+        when(client1.produceBatchAsync("topic", messages)).thenReturn(failed(new BatchProduceException("Error", 2)));
+        client.produceBatch("topic", messages);
+        verify(client1, times(1)).produceBatchAsync("topic", messages);
+        verify(client1, times(1)).produceBatchAsync("topic", Arrays.asList("Message3"));
+    }
+
+    @Test
+    void should_failover_pending_messages_of_batch_to_client2() throws ProduceException {
+        when(client1.produceBatchAsync("topic", messages)).thenReturn(failed(new BatchProduceException("Error", 1)));
+        when(client1.produceBatchAsync("topic", messages.subList(1, 3))).thenReturn(failed(new BatchProduceException("Error", 0)));
+        client.produceBatch("topic", messages);
+        verify(client1, times(9)).produceBatchAsync("topic", messages.subList(1, 3));
+        verify(client2, times(1)).produceBatchAsync("topic", messages.subList(1, 3));
+    }
+
+    @Test
+    void should_fail_to_produce_batch() {
+        when(client1.produceBatchAsync(eq("topic"), anyList())).thenReturn(failed(new BatchProduceException("Error", 0)));
+        when(client2.produceBatchAsync("topic", messages)).thenReturn(failed(new BatchProduceException("Error", 1)));
+        when(client2.produceBatchAsync("topic", messages.subList(1, 3))).thenReturn(failed(new BatchProduceException("Error", 0)));
+        BatchProduceException e = assertThrows(BatchProduceException.class, () -> client.produceBatch("topic", messages));
+        assertEquals(1, e.getSent());
+    }
+
+    private static CompletableFuture<Void> acknowledged() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static CompletableFuture<Void> failed(Exception e) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KafkaProduceClientTest {
+
+    @SuppressWarnings("unchecked")
+    private final Producer<String, byte[]> producer = mock(Producer.class);
+
+    @Test
+    void should_not_block_caller_while_send_waits_for_metadata() throws Exception {
+        CountDownLatch metadata = new CountDownLatch(1);
+        when(producer.send(any(), any())).thenAnswer(invocation -> {
+            metadata.await();
+            invocation.<Callback>getArgument(1).onCompletion(null, null);
+            return null;
+        });
+        KafkaProduceClient client = new KafkaProduceClient(producer);
+        CompletableFuture<Void> result = client.produceAsync("topic", "Message");
+        assertFalse(result.isDone());
+        metadata.countDown();
+        result.get(5, TimeUnit.SECONDS);
+        client.close();
+    }
+
+    @Test
+    void should_fail_fast_while_send_queue_is_full() throws Exception {
+        CountDownLatch metadata = new CountDownLatch(1);
+        when(producer.send(any(), any())).thenAnswer(invocation -> {
+            metadata.await();
+            invocation.<Callback>getArgument(1).onCompletion(null, null);
+            return null;
+        });
+        withEnvironmentVariable("KAFKA_SEND_QUEUE_SIZE", "1").execute(() -> {
+            KafkaProduceClient client = new KafkaProduceClient(producer);
+            CompletableFuture<Void> blocked = client.produceAsync("topic", "Message1");
+            verify(producer, timeout(5000)).send(any(ProducerRecord.class), any(Callback.class));
+            CompletableFuture<Void> queued = client.produceAsync("topic", "Message2");
+            CompletableFuture<Void> rejected = client.produceAsync("topic", "Message3");
+            CompletionException error = assertThrows(CompletionException.class, rejected::join);
+            assertTrue(error.getCause() instanceof ProduceException);
+            metadata.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+            queued.get(5, TimeUnit.SECONDS);
+            client.close();
+        });
+    }
+
+    @Test
+    void should_not_send_rest_of_batch_after_send_fails() throws Exception {
+        when(producer.send(any(), any())).thenThrow(new IllegalStateException("Buffer exhausted"));
+        KafkaProduceClient client = new KafkaProduceClient(producer);
+        CompletableFuture<Void> result = client.produceBatchAsync("topic", Arrays.asList("Message1", "Message2"));
+        CompletionException error = assertThrows(CompletionException.class, result::join);
+        assertEquals(0, ((BatchProduceException) error.getCause()).getSent());
+        verify(producer, times(1)).send(any(ProducerRecord.class), any(Callback.class));
+        client.close();
+    }
+}
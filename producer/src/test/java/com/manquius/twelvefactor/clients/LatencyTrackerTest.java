@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyTrackerTest {
+
+    private final LatencyTracker tracker = new LatencyTracker();
+
+    @Test
+    void should_estimate_percentiles_within_bucket_error() {
+        for (int i = 1; i <= 1000; i++) {
+            tracker.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        long p50 = TimeUnit.NANOSECONDS.toMillis(tracker.percentile(50));
+        long p99 = TimeUnit.NANOSECONDS.toMillis(tracker.percentile(99));
+        assertTrue(p50 >= 500 && p50 <= 563, "p50: " + p50);
+        assertTrue(p99 >= 990 && p99 <= 1114, "p99: " + p99);
+    }
+
+    @Test
+    void should_reset() {
+        tracker.record(1000);
+        assertEquals(1, tracker.count());
+        tracker.reset();
+        assertEquals(0, tracker.count());
+        assertEquals(0, tracker.percentile(99));
+    }
+}
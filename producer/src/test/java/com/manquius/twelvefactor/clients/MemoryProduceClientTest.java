@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MemoryProduceClientTest {
+
+    @Test
+    void should_keep_produced_messages() {
+        MemoryTopics topics = new MemoryTopics(8, MemoryTopics.Overflow.REJECT, 10);
+        MemoryProduceClient client = new MemoryProduceClient(topics);
+        client.produceAsync("topic", "Message1").join();
+        client.produceBatchAsync("topic", Arrays.asList("Message2", "Message3")).join();
+        assertEquals(3, topics.size("topic"));
+    }
+
+    @Test
+    void should_reject_messages_of_full_topics() {
+        MemoryProduceClient client = new MemoryProduceClient(new MemoryTopics(2, MemoryTopics.Overflow.REJECT, 10));
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client.produceBatchAsync("topic", Arrays.asList("Message1", "Message2", "Message3")).join());
+        assertEquals(2, ((BatchProduceException) e.getCause()).getSent());
+        assertThrows(CompletionException.class, () -> client.produceAsync("topic", "Message4").join());
+    }
+
+    @Test
+    void should_drop_oldest_messages_of_full_topics() {
+        MemoryTopics topics = new MemoryTopics(2, MemoryTopics.Overflow.DROP_OLDEST, 10);
+        MemoryProduceClient client = new MemoryProduceClient(topics);
+        client.produceBatchAsync("topic", Arrays.asList("Message1", "Message2", "Message3")).join();
+        List<byte[]> kept = new ArrayList<>();
+        topics.drain("topic", kept, 10, Long.MAX_VALUE);
+        assertEquals(2, kept.size());
+        assertArrayEquals("Message2".getBytes(), kept.get(0));
+    }
+
+    @Test
+    void should_reject_topics_beyond_max() {
+        MemoryProduceClient client = new MemoryProduceClient(new MemoryTopics(2, MemoryTopics.Overflow.REJECT, 1));
+        client.produceAsync("topic1", "Message").join();
+        assertThrows(CompletionException.class, () -> client.produceAsync("topic2", "Message").join());
+    }
+
+    @Test
+    void should_buffer_messages_while_primary_level_fails() {
+        ProduceClient kafka = mock(ProduceClient.class);
+        when(kafka.produceAsync("topic", "Message")).thenReturn(Batches.failed(new ProduceException()));
+        MemoryTopics topics = new MemoryTopics(8, MemoryTopics.Overflow.REJECT, 10);
+        List<ProduceClient> levels = Arrays.asList(kafka, new MemoryProduceClient(topics));
+        new CircuitBreakerProduceClient(levels).produceAsync("topic", "Message").join();
+        assertEquals(1, topics.size("topic"));
+    }
+
+    @Test
+    void should_replay_buffered_messages_when_primary_level_recovers() throws Exception {
+        ProduceClient kafka = mock(ProduceClient.class);
+        when(kafka.produceAsync("topic", "Message")).thenReturn(Batches.failed(new ProduceException()));
+        when(kafka.produceBytesBatchAsync(eq("topic"), anyList())).thenReturn(CompletableFuture.completedFuture(null));
+        MemoryTopics topics = new MemoryTopics(8, MemoryTopics.Overflow.REJECT, 10);
+        withEnvironmentVariable("CIRCUIT_BREAKER_MIN_CALLS", "100").and("MEMORY_REPLAY_INTERVAL_MS", "10").execute(() -> {
+            try (CircuitBreakerProduceClient client = new CircuitBreakerProduceClient(Arrays.asList(kafka, new MemoryProduceClient(topics)))) {
+                client.produceAsync("topic", "Message").join();
+                verify(kafka, timeout(5000)).produceBytesBatchAsync(eq("topic"),
+                        argThat(replayed -> replayed.size() == 1 && Arrays.equals("Message".getBytes(StandardCharsets.UTF_8), replayed.get(0))));
+                assertEquals(0, topics.size("topic"));
+            }
+        });
+    }
+}
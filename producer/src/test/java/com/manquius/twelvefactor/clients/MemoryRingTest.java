@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MemoryRingTest {
+
+    @Test
+    void should_round_capacity_to_power_of_two() {
+        assertEquals(8, new MemoryRing(5).capacity());
+        assertEquals(8, new MemoryRing(8).capacity());
+    }
+
+    @Test
+    void should_take_messages_in_order_until_empty() {
+        MemoryRing ring = new MemoryRing(2);
+        assertTrue(ring.offer(new byte[]{1}));
+        assertTrue(ring.offer(new byte[]{2}));
+        assertFalse(ring.offer(new byte[]{3}));
+        assertEquals(2, ring.size());
+        assertArrayEquals(new byte[]{1}, ring.poll());
+        assertTrue(ring.offer(new byte[]{3}));
+        assertArrayEquals(new byte[]{2}, ring.poll());
+        assertArrayEquals(new byte[]{3}, ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void should_take_every_message_once_with_many_producers_and_consumers() throws Exception {
+        int threads = 4;
+        int messages = 100000;
+        MemoryRing ring = new MemoryRing(64);
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        Set<Integer> taken = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(threads * messages);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int producer = t;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < messages; i++) {
+                        byte[] message = Integer.toString(producer * messages + i).getBytes();
+                        while (!ring.offer(message)) {
+                            Thread.yield();
+                        }
+                    }
+                }));
+                tasks.add(executor.submit(() -> {
+                    while (remaining.get() > 0) {
+                        byte[] message = ring.poll();
+                        if (message == null) {
+                            Thread.yield();
+                        } else {
+                            if (!taken.add(Integer.parseInt(new String(message)))) {
+                                duplicates.incrementAndGet();
+                            }
+                            remaining.decrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, duplicates.get());
+        assertEquals(threads * messages, taken.size());
+        assertNull(ring.poll());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BlockedCallback;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.UnblockedCallback;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RabbitMQProduceClientTest {
+
+    private final Connection connection = mock(Connection.class);
+    private final Channel channel = mock(Channel.class);
+    private RabbitMQProduceClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+        when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L, 4L);
+        client = new RabbitMQProduceClient(() -> connection);
+    }
+
+    @Test
+    void should_complete_batch_on_multiple_confirm() throws Exception {
+        CompletableFuture<Void> result = client.produceBatchAsync("topic", Arrays.asList("Message1", "Message2"));
+        verify(channel).confirmSelect();
+        verify(channel).queueDeclare("topic", true, false, false, null);
+        verify(channel, times(2)).basicPublish(eq(""), eq("topic"), any(AMQP.BasicProperties.class), any(byte[].class));
+        assertFalse(result.isDone());
+        confirmListener().handleAck(2, true);
+        assertTrue(result.isDone());
+        assertFalse(result.isCompletedExceptionally());
+        client.close();
+    }
+
+    @Test
+    void should_fail_batch_with_confirmed_messages_on_nack() throws Exception {
+        CompletableFuture<Void> result = client.produceBatchAsync("topic", Arrays.asList("Message1", "Message2"));
+        ConfirmListener listener = confirmListener();
+        listener.handleAck(1, false);
+        listener.handleNack(2, false);
+        CompletionException error = assertThrows(CompletionException.class, result::join);
+        assertEquals(1, ((BatchProduceException) error.getCause()).getSent());
+        client.close();
+    }
+
+    @Test
+    void should_reuse_pooled_channel() throws Exception {
+        client.produceAsync("topic", "Message1");
+        client.produceAsync("topic", "Message2");
+        verify(connection, times(1)).createChannel();
+        verify(channel, times(1)).queueDeclare("topic", true, false, false, null);
+        client.close();
+    }
+
+    @Test
+    void should_fail_when_publish_fails() throws Exception {
+        doThrow(new IOException()).when(channel).basicPublish(eq(""), eq("topic"), any(AMQP.BasicProperties.class), any(byte[].class));
+        CompletionException error = assertThrows(CompletionException.class, () -> client.produceAsync("topic", "Message").join());
+        assertTrue(error.getCause() instanceof ProduceException);
+        client.close();
+    }
+
+    @Test
+    void should_fail_messages_not_confirmed_in_time() throws Exception {
+        withEnvironmentVariable("RABBITMQ_CONFIRM_TIMEOUT_MS", "50").execute(() -> {
+            RabbitMQProduceClient timed = new RabbitMQProduceClient(() -> connection);
+            CompletableFuture<Void> result = timed.produceAsync("topic", "Message");
+            ExecutionException error = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertTrue(error.getCause() instanceof ProduceException);
+            confirmListener().handleAck(1, false);
+            timed.close();
+        });
+    }
+
+    @Test
+    void should_fail_fast_while_connection_is_blocked() throws Exception {
+        client.produceAsync("topic", "Message1");
+        ArgumentCaptor<BlockedCallback> blocked = ArgumentCaptor.forClass(BlockedCallback.class);
+        ArgumentCaptor<UnblockedCallback> unblocked = ArgumentCaptor.forClass(UnblockedCallback.class);
+        verify(connection).addBlockedListener(blocked.capture(), unblocked.capture());
+        blocked.getValue().handle("low on memory");
+        CompletionException error = assertThrows(CompletionException.class, () -> client.produceAsync("topic", "Message2").join());
+        assertEquals("RabbitMQ connection is blocked: low on memory", error.getCause().getMessage());
+        verify(channel, times(1)).basicPublish(eq(""), eq("topic"), any(AMQP.BasicProperties.class), any(byte[].class));
+        unblocked.getValue().handle();
+        client.produceAsync("topic", "Message3");
+        verify(channel, times(2)).basicPublish(eq(""), eq("topic"), any(AMQP.BasicProperties.class), any(byte[].class));
+        client.close();
+    }
+
+    @Test
+    void should_fail_when_no_channel_is_released_in_time() throws Exception {
+        CountDownLatch publishing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            publishing.countDown();
+            release.await();
+            return null;
+        }).when(channel).basicPublish(eq(""), eq("topic"), any(AMQP.BasicProperties.class), any(byte[].class));
+        withEnvironmentVariable("RABBITMQ_CHANNEL_POOL_SIZE", "1").and("RABBITMQ_CHANNEL_WAIT_MS", "50").execute(() -> {
+            RabbitMQProduceClient pooled = new RabbitMQProduceClient(() -> connection);
+            CompletableFuture<Void> first = CompletableFuture.runAsync(() -> pooled.produceAsync("topic", "Message1"));
+            assertTrue(publishing.await(5, TimeUnit.SECONDS));
+            CompletionException error = assertThrows(CompletionException.class, () -> pooled.produceAsync("topic", "Message2").join());
+            assertTrue(error.getCause() instanceof ProduceException);
+            release.countDown();
+            first.join();
+            pooled.close();
+        });
+    }
+
+    private ConfirmListener confirmListener() {
+        ArgumentCaptor<ConfirmListener> listener = ArgumentCaptor.forClass(ConfirmListener.class);
+        verify(channel).addConfirmListener(listener.capture());
+        return listener.getValue();
+    }
+}
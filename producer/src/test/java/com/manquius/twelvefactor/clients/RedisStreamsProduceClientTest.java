@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.XAddArgs;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.CommandArgs;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedisStreamsProduceClientTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisAsyncCommands<String, byte[]> commands = mock(RedisAsyncCommands.class);
+    @SuppressWarnings("unchecked")
+    private final RedisFuture<String> added = mock(RedisFuture.class);
+
+    @BeforeEach
+    void setUp() {
+        when(added.toCompletableFuture()).thenReturn(CompletableFuture.completedFuture("1-0"));
+        when(commands.xadd(eq("topic"), any(XAddArgs.class), anyMap())).thenReturn(added);
+    }
+
+    @Test
+    void should_add_the_message_trimming_the_stream() throws Exception {
+        withEnvironmentVariable("REDIS_STREAMS_MAXLEN", "1000").execute(() -> {
+            new RedisStreamsProduceClient(commands).produceAsync("topic", "message").join();
+        });
+        ArgumentCaptor<XAddArgs> args = ArgumentCaptor.forClass(XAddArgs.class);
+        ArgumentCaptor<Map<String, byte[]>> body = body();
+        verify(commands).xadd(eq("topic"), args.capture(), body.capture());
+        assertTrue(command(args.getValue()).contains("MAXLEN ~ 1000"), command(args.getValue()));
+        assertArrayEquals("message".getBytes(StandardCharsets.UTF_8), body.getValue().get(RedisStreamsProduceClient.MESSAGE_FIELD));
+    }
+
+    @Test
+    void should_not_trim_the_stream_when_disabled() throws Exception {
+        withEnvironmentVariable("REDIS_STREAMS_MAXLEN", "0").execute(() -> {
+            new RedisStreamsProduceClient(commands).produceAsync("topic", "message").join();
+        });
+        ArgumentCaptor<XAddArgs> args = ArgumentCaptor.forClass(XAddArgs.class);
+        verify(commands).xadd(eq("topic"), args.capture(), anyMap());
+        assertFalse(command(args.getValue()).contains("MAXLEN"));
+    }
+
+    @Test
+    void should_add_every_message_of_a_batch() {
+        new RedisStreamsProduceClient(commands).produceBatchAsync("topic", Arrays.asList("message1", "message2")).join();
+        verify(commands, times(2)).xadd(eq("topic"), any(XAddArgs.class), anyMap());
+    }
+
+    @Test
+    void should_fail_when_the_entry_is_not_added() {
+        when(added.toCompletableFuture()).thenReturn(failed());
+        CompletableFuture<Void> result = new RedisStreamsProduceClient(commands).produceBytesAsync("topic", new byte[]{1});
+        CompletionException error = assertThrows(CompletionException.class, result::join);
+        assertEquals(ProduceException.class, error.getCause().getClass());
+    }
+
+    private static String command(final XAddArgs args) {
+        CommandArgs<String, byte[]> command = new CommandArgs<>(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+        args.build(command);
+        return command.toCommandString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Map<String, byte[]>> body() {
+        return ArgumentCaptor.forClass((Class<Map<String, byte[]>>) (Class<?>) Map.class);
+    }
+
+    private static CompletableFuture<String> failed() {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("OOM"));
+        return failed;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpillJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void should_read_appended_messages_in_order() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 4096)) {
+            journal.append("topic", bytes("Message1"));
+            journal.append("topic", bytes("Message2"));
+            List<SpillJournal.Record> records = journal.read(10);
+            assertEquals(2, records.size());
+            assertEquals("topic", records.get(0).getTopic());
+            assertArrayEquals(bytes("Message1"), records.get(0).getMessage());
+            assertArrayEquals(bytes("Message2"), records.get(1).getMessage());
+        }
+    }
+
+    @Test
+    void should_remove_acknowledged_messages() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 4096)) {
+            journal.append("topic", bytes("Message1"));
+            journal.append("topic", bytes("Message2"));
+            journal.acknowledge(journal.read(1).get(0));
+            List<SpillJournal.Record> records = journal.read(10);
+            assertEquals(1, records.size());
+            assertArrayEquals(bytes("Message2"), records.get(0).getMessage());
+            journal.acknowledge(records.get(0));
+            assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    void should_rotate_and_delete_replayed_segments() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 64)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append("topic", bytes("Message" + i));
+            }
+            assertTrue(segments() > 1);
+            int read = 0;
+            while (!journal.isEmpty()) {
+                List<SpillJournal.Record> records = journal.read(10);
+                read += records.size();
+                journal.acknowledge(records.get(records.size() - 1));
+            }
+            assertEquals(5, read);
+            assertEquals(1, segments());
+        }
+    }
+
+    @Test
+    void should_recover_pending_messages() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 4096)) {
+            journal.append("topic", bytes("Message1"));
+            journal.append("topic", bytes("Message2"));
+            journal.acknowledge(journal.read(1).get(0));
+        }
+        try (SpillJournal journal = new SpillJournal(directory, 4096)) {
+            List<SpillJournal.Record> records = journal.read(10);
+            assertEquals(1, records.size());
+            assertArrayEquals(bytes("Message2"), records.get(0).getMessage());
+        }
+    }
+
+    @Test
+    void should_reject_messages_bigger_than_a_segment() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 64)) {
+            assertThrows(IOException.class, () -> journal.append("topic", new byte[64]));
+        }
+    }
+
+    @Test
+    void should_reject_appends_beyond_max_bytes() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 64, 128)) {
+            for (int i = 0; i < 4; i++) {
+                journal.append("topic", bytes("Message" + i));
+            }
+            assertEquals(2, segments());
+            assertThrows(IOException.class, () -> journal.append("topic", bytes("Message4")));
+            List<SpillJournal.Record> records = journal.read(10);
+            journal.acknowledge(records.get(records.size() - 1));
+            journal.append("topic", bytes("Message4"));
+            assertEquals(2, segments());
+        }
+    }
+
+    @Test
+    void should_have_room_until_max_bytes() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 64, 64)) {
+            assertTrue(journal.hasRoom());
+            journal.append("topic", new byte[40]);
+            assertFalse(journal.hasRoom());
+        }
+    }
+
+    @Test
+    void should_allocate_whole_segments() throws IOException {
+        try (SpillJournal journal = new SpillJournal(directory, 4096)) {
+            journal.append("topic", bytes("Message1"));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(4096, Files.size(files.findFirst().get()));
+            }
+        }
+    }
+
+    private static byte[] bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020. Fernando Ezequiel Mancuso (Manquius).
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.manquius.twelvefactor.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopicCacheTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final List<String> closed = new CopyOnWriteArrayList<>();
+
+    private TopicCache<String> cache(int maxSize, long idleMillis) {
+        return new TopicCache<>("test", maxSize, idleMillis, topic -> {
+            created.incrementAndGet();
+            return CompletableFuture.completedFuture(topic);
+        }, closed::add);
+    }
+
+    @Test
+    void should_create_once_per_topic() {
+        TopicCache<String> cache = cache(10, 0);
+        CompletableFuture<String> first = cache.acquire("topic").get();
+        CompletableFuture<String> second = cache.acquire("topic").get();
+        assertSame(first, second);
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void should_evict_least_recently_used() throws InterruptedException {
+        TopicCache<String> cache = cache(2, 0);
+        cache.acquire("topic1").close();
+        Thread.sleep(1);
+        cache.acquire("topic2").close();
+        Thread.sleep(1);
+        cache.acquire("topic1").close();
+        cache.acquire("topic3").close();
+        assertEquals(2, cache.size());
+        assertEquals(1, closed.size());
+        assertEquals("topic2", closed.get(0));
+    }
+
+    @Test
+    void should_evict_idle_topics() throws InterruptedException {
+        TopicCache<String> cache = cache(10, 1);
+        cache.acquire("topic").close();
+        Thread.sleep(5);
+        cache.evictIdle();
+        assertEquals(0, cache.size());
+        assertTrue(closed.contains("topic"));
+    }
+
+    @Test
+    void should_close_evicted_resources_once_released() throws InterruptedException {
+        TopicCache<String> cache = cache(1, 1);
+        TopicCache.Lease<String> lease = cache.acquire("topic1");
+        Thread.sleep(1);
+        cache.acquire("topic2").close();
+        Thread.sleep(5);
+        cache.evictIdle();
+        assertEquals(0, cache.size());
+        assertEquals(Collections.singletonList("topic2"), closed);
+        lease.close();
+        lease.close();
+        assertEquals(Arrays.asList("topic2", "topic1"), closed);
+    }
+
+    @Test
+    void should_not_lease_evicted_resources() throws InterruptedException {
+        TopicCache<String> cache = cache(1, 0);
+        TopicCache.Lease<String> lease = cache.acquire("topic1");
+        Thread.sleep(1);
+        cache.acquire("topic2").close();
+        TopicCache.Lease<String> again = cache.acquire("topic1");
+        assertEquals(3, created.get());
+        assertNotSame(lease.get(), again.get());
+        lease.close();
+        again.close();
+        assertEquals(Arrays.asList("topic2", "topic1"), closed);
+    }
+
+    @Test
+    void should_retry_creation_after_failure() {
+        TopicCache<String> cache = new TopicCache<>("test", 10, 0, topic -> {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            if (created.incrementAndGet() == 1) {
+                failed.completeExceptionally(new IllegalStateException());
+            } else {
+                failed.complete(topic);
+            }
+            return failed;
+        }, closed::add);
+        assertTrue(cache.acquire("topic").get().isCompletedExceptionally());
+        assertEquals("topic", cache.acquire("topic").get().join());
+        assertEquals(2, created.get());
+    }
+}
@@ -0,0 +1,90 @@
+#!/usr/bin/env bash
+#
+# Compares the startup time and the memory of the JVM and native builds of a service.
+# The producer runs with the MEMORY adapter, so no backing service is needed. The consumer has no standalone adapter,
+# so it runs with CONSUME_CLIENT (default REDIS) against the backing services of docker-compose: docker-compose up -d redis
+# Every run measures:
+# - time until /ready answers 200
+# - resident memory (RSS) once ready, and after WARMUP_REQUESTS requests
+#
+# usage: scripts/compare-startup.sh producer|consumer [runs]
+# Build both variants first: ./gradlew shadowJar nativeImage (in the service directory).
+# PORT (default 18080) and WARMUP_REQUESTS (default 1000) can be configured.
+
+set -euo pipefail
+
+SERVICE=${1:?usage: $0 producer|consumer [runs]}
+RUNS=${2:-5}
+PORT=${PORT:-18080}
+WARMUP_REQUESTS=${WARMUP_REQUESTS:-1000}
+DIR=$(cd "$(dirname "$0")/../$SERVICE" && pwd)
+JAR=$(ls "$DIR"/build/libs/"$SERVICE"-*-all.jar | head -1)
+NATIVE=$DIR/build/native-image/$SERVICE
+URL=http://localhost:$PORT
+
+export PRODUCE_CLIENT=MEMORY CONSUME_CLIENT=${CONSUME_CLIENT:-REDIS} MICRONAUT_SERVER_PORT=$PORT
+
+now_ms() {
+  date +%s%3N
+}
+
+rss_mb() {
+  echo $(( $(ps -o rss= -p "$1") / 1024 ))
+}
+
+warmup() {
+  for _ in $(seq "$WARMUP_REQUESTS"); do
+    if [ "$SERVICE" = producer ]; then
+      curl -sf -o /dev/null "$URL/topic/startup" -d 'message'
+    else
+      curl -sf -o /dev/null "$URL/topic/startup"
+    fi
+  done
+}
+
+median() {
+  sort -n | awk '{ values[NR] = $1 } END { print values[int((NR + 1) / 2)] }'
+}
+
+# measure <name> <command...>: prints one line per run and the medians
+measure() {
+  local name=$1
+  shift
+  local ready=() ready_rss=() warm_rss=()
+  for run in $(seq "$RUNS"); do
+    local start pid
+    start=$(now_ms)
+    "$@" > /dev/null 2>&1 &
+    pid=$!
+    until curl -sf -o /dev/null "$URL/ready"; do
+      if ! kill -0 "$pid" 2> /dev/null; then
+        echo "$name exited before being ready" >&2
+        exit 1
+      fi
+      sleep 0.005
+    done
+    ready+=($(( $(now_ms) - start )))
+    ready_rss+=("$(rss_mb "$pid")")
+    warmup
+    warm_rss+=("$(rss_mb "$pid")")
+    kill "$pid"
+    wait "$pid" 2> /dev/null || true
+    echo "$name run $run: ready in ${ready[-1]}ms, RSS ${ready_rss[-1]}MB ready, ${warm_rss[-1]}MB after $WARMUP_REQUESTS requests"
+  done
+  RESULTS+=("$(printf '%-8s %12s %14s %14s' "$name" \
+    "$(printf '%s\n' "${ready[@]}" | median)ms" \
+    "$(printf '%s\n' "${ready_rss[@]}" | median)MB" \
+    "$(printf '%s\n' "${warm_rss[@]}" | median)MB")")
+}
+
+RESULTS=()
+measure jvm java -Xmx128m -jar "$JAR"
+if [ -x "$NATIVE" ]; then
+  measure native "$NATIVE" -Xmx128m
+else
+  echo "No native executable at $NATIVE, run ./gradlew nativeImage to compare it" >&2
+fi
+
+echo
+printf '%-8s %12s %14s %14s\n' "$SERVICE" "ready p50" "RSS ready" "RSS warm"
+printf '%s\n' "${RESULTS[@]}"